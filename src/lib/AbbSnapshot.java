@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshot of parsed ABB data - merged data tables, their opened keys 
+ * and warnings of the join of table files. Cells are written decoded, not 
+ * as base64, so a snapshot is loaded without parsing of .csv files. 
+ * A snapshot file is mapped into memory when read and data of cells is 
+ * used straight from the mapping, only lengths of cells and keys are 
+ * copied. Snapshot files larger than 2 GB are not supported. 
+ * A snapshot records name and hash of the ABB file it was extracted from 
+ * and ends with a checksum of all preceding bytes, which is verified 
+ * before anything is read, so a truncated or modified snapshot is never 
+ * audited. 
+ * @author Maciej Kosarzecki
+ */
+public class AbbSnapshot {
+    
+    /**
+     * Magic number at the beginning of a snapshot file ("ABBS"). 
+     */
+    private static final int MAGIC = 0x41424253;
+    
+    /**
+     * Version of the snapshot file format. 
+     */
+    private static final int VERSION = 2;
+    
+    /**
+     * Hash function of source ABB files and of checksums of snapshots. 
+     */
+    static final String DIGEST_FUNCTION = "SHA-256";
+    
+    /**
+     * Charset of strings written to a snapshot file. 
+     */
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    
+    private final DataTable[] dataTables;
+    private final DataTable[] dataTablesKeys;
+    private final DataTable[] openedKeysTables;
+    private final List<String> joinWarnings;
+    private final String sourceName;
+    private final String sourceHash;
+    
+    /**
+     * Default constructor. 
+     * @param sourceName String name of the ABB file tables were extracted 
+     * from. 
+     * @param sourceHash String hex hash of the ABB file, see hashFile(). 
+     * @param dataTables merged data tables. 
+     * @param dataTablesKeys opened keys of data tables, in the same order 
+     * as data tables. 
+     * @param openedKeysTables all tables containing opened keys, including 
+     * those in dataTablesKeys. 
+     * @param joinWarnings warnings of the join of table files. 
+     */
+    public AbbSnapshot(String sourceName, String sourceHash, 
+            DataTable[] dataTables, DataTable[] dataTablesKeys, 
+            DataTable[] openedKeysTables, List<String> joinWarnings)
+    {
+        this.sourceName = sourceName;
+        this.sourceHash = sourceHash;
+        this.dataTables = dataTables;
+        this.dataTablesKeys = dataTablesKeys;
+        this.openedKeysTables = openedKeysTables;
+        this.joinWarnings = joinWarnings;
+    }
+    
+    /**
+     * Returns merged data tables. 
+     * @return array of data tables. 
+     */
+    public DataTable[] getDataTables() { return dataTables; }
+    
+    /**
+     * Returns opened keys of data tables. 
+     * @return array of tables containing opened keys, in the same order as 
+     * data tables. 
+     */
+    public DataTable[] getDataTablesKeys() { return dataTablesKeys; }
+    
+    /**
+     * Returns all tables containing opened keys. 
+     * @return array of tables containing opened keys. 
+     */
+    public DataTable[] getOpenedKeysTables() { return openedKeysTables; }
+    
+    /**
+     * Returns warnings of the join of table files. 
+     * @return list of warnings. 
+     */
+    public List<String> getJoinWarnings() { return joinWarnings; }
+    
+    /**
+     * Returns name of the ABB file tables were extracted from. 
+     * @return String name of the file. 
+     */
+    public String getSourceName() { return sourceName; }
+    
+    /**
+     * Returns hash of the ABB file tables were extracted from. 
+     * @return String hex SHA-256 hash of the file. 
+     */
+    public String getSourceHash() { return sourceHash; }
+    
+    /**
+     * Computes hash identifying an ABB file a snapshot is extracted from. 
+     * @param file ABB file. 
+     * @return String hex SHA-256 hash of contents of the file. 
+     * @throws IOException thrown when cannot read the file. 
+     */
+    public static String hashFile(File file) throws IOException
+    {
+        MessageDigest md = newDigest();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[1 << 16];
+            int count;
+            while((count = in.read(buffer)) >= 0)
+                md.update(buffer, 0, count);
+        }
+        StringBuilder hex = new StringBuilder();
+        for(byte b : md.digest())
+            hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+    
+    /**
+     * Writes the snapshot to a file, followed by checksum of its contents. 
+     * @param file snapshot file. 
+     * @throws IOException thrown when cannot write the file. 
+     */
+    public void write(File file) throws IOException
+    {
+        MessageDigest md = newDigest();
+        try (FileOutputStream fileOut = new FileOutputStream(file)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new DigestOutputStream(fileOut, md), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, sourceName);
+            writeString(out, sourceHash);
+            out.writeInt(joinWarnings.size());
+            for(String warning : joinWarnings)
+                writeString(out, warning);
+            
+            Map<DataTable, Integer> keysIndexes = new IdentityHashMap<>();
+            out.writeInt(openedKeysTables.length);
+            for(int i=0; i<openedKeysTables.length; i++)
+            {
+                keysIndexes.put(openedKeysTables[i], i);
+                writeHeader(out, openedKeysTables[i]);
+            }
+            
+            out.writeInt(dataTables.length);
+            for(int i=0; i<dataTables.length; i++)
+            {
+                Integer keysIndex = keysIndexes.get(dataTablesKeys[i]);
+                if(keysIndex == null)
+                    throw new IllegalArgumentException("Opened keys of table "
+                            +dataTables[i].getNumber()+" are not in opened keys tables");
+                out.writeInt(keysIndex);
+                writeHeader(out, dataTables[i]);
+                out.writeInt(dataTables[i].getRowsNumber());
+                for(int column=0; column<Lib.COL_NUMBER; column++)
+                    dataTables[i].getColumn(column).write(out);
+            }
+            out.flush();
+            fileOut.write(md.digest());
+        }
+    }
+    
+    /**
+     * Reads a snapshot from a file. The file is mapped into memory and 
+     * column stores of data tables use the mapping. 
+     * @param file snapshot file. 
+     * @param memory memory of plaintexts of data tables. 
+     * @return AbbSnapshot object read. 
+     * @throws IOException thrown when cannot read the file, it is not 
+     * a snapshot of a supported version or its checksum does not match. 
+     * @throws AuditException thrown when batch of a table cannot be 
+     * specified. 
+     */
+    public static AbbSnapshot read(File file, TableMemory memory) 
+            throws IOException, AuditException
+    {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            if(channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Snapshot file "+file+" is larger than 2 GB");
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if(buffer.remaining() < 8 || buffer.getInt() != MAGIC)
+            throw new IOException("File "+file+" is not an ABB snapshot");
+        int version = buffer.getInt();
+        if(version != VERSION)
+            throw new IOException("Unsupported version "+version+" of ABB snapshot "+file);
+        verifyChecksum(buffer, file);
+        
+        String sourceName = readString(buffer);
+        String sourceHash = readString(buffer);
+        List<String> joinWarnings = new ArrayList<>();
+        int warnings = buffer.getInt();
+        for(int i=0; i<warnings; i++)
+            joinWarnings.add(readString(buffer));
+        
+        DataTable[] openedKeysTables = new DataTable[buffer.getInt()];
+        for(int i=0; i<openedKeysTables.length; i++)
+        {
+            openedKeysTables[i] = readHeader(buffer, memory);
+            openedKeysTables[i].specifyBatch();
+        }
+        
+        DataTable[] dataTables = new DataTable[buffer.getInt()];
+        DataTable[] dataTablesKeys = new DataTable[dataTables.length];
+        for(int i=0; i<dataTables.length; i++)
+        {
+            dataTablesKeys[i] = openedKeysTables[buffer.getInt()];
+            dataTables[i] = readHeader(buffer, memory);
+            dataTables[i].setRowsNumber(buffer.getInt());
+            for(int column=0; column<Lib.COL_NUMBER; column++)
+                dataTables[i].setColumn(ColumnStore.read(buffer, memory), column);
+        }
+        return new AbbSnapshot(sourceName, sourceHash, dataTables, 
+                dataTablesKeys, openedKeysTables, joinWarnings);
+    }
+    
+    /**
+     * Verifies checksum at the end of a snapshot, the checksum is excluded 
+     * from the limit of the buffer afterwards. 
+     * @param buffer buffer of the whole snapshot file. 
+     * @param file snapshot file. 
+     * @throws IOException thrown when the checksum does not match. 
+     */
+    private static void verifyChecksum(ByteBuffer buffer, File file) 
+            throws IOException
+    {
+        MessageDigest md = newDigest();
+        int end = buffer.limit() - md.getDigestLength();
+        if(end < buffer.position())
+            throw new IOException("ABB snapshot "+file+" is truncated");
+        ByteBuffer contents = buffer.duplicate();
+        contents.position(0);
+        contents.limit(end);
+        md.update(contents);
+        byte[] checksum = new byte[md.getDigestLength()];
+        ByteBuffer stored = buffer.duplicate();
+        stored.position(end);
+        stored.get(checksum);
+        if(!MessageDigest.isEqual(md.digest(), checksum))
+            throw new IOException("Checksum of ABB snapshot "+file
+                    +" does not match, the snapshot is corrupted");
+        buffer.limit(end);
+    }
+    
+    /**
+     * Creates digest of hashes and checksums. 
+     * @return MessageDigest object created. 
+     * @throws IOException thrown when the hash function is not available. 
+     */
+    private static MessageDigest newDigest() throws IOException
+    {
+        try {
+            return MessageDigest.getInstance(DIGEST_FUNCTION);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+    }
+    
+    /**
+     * Writes table number and keys of a table. 
+     * @param out output the table is written to. 
+     * @param table data table. 
+     * @throws IOException thrown when cannot write the table. 
+     */
+    private static void writeHeader(DataOutputStream out, DataTable table) 
+            throws IOException
+    {
+        out.writeInt(table.getNumber());
+        for(int column=0; column<Lib.COL_NUMBER; column++)
+        {
+            DataCellKey key = table.getCellKeys()[column];
+            writeString(out, key.getCommitment());
+            writeString(out, key.getDecommitment());
+            writeString(out, key.getPlaintext());
+        }
+    }
+    
+    /**
+     * Reads table number and keys of a table written by writeHeader(). 
+     * @param buffer buffer the table is read from. 
+     * @param memory memory of the table. 
+     * @return DataTable object with keys and no rows. 
+     */
+    private static DataTable readHeader(ByteBuffer buffer, TableMemory memory)
+    {
+        DataTable table = new DataTable(buffer.getInt(), memory);
+        for(int column=0; column<Lib.COL_NUMBER; column++)
+        {
+            String comm = readString(buffer);
+            String decomm = readString(buffer);
+            String plain = readString(buffer);
+            table.addCellKey(new DataCellKey(comm, decomm, plain), column);
+        }
+        return table;
+    }
+    
+    /**
+     * Writes a string as length and UTF-8 bytes, null is written as 
+     * an empty string. 
+     * @param out output the string is written to. 
+     * @param value String to be written. 
+     * @throws IOException thrown when cannot write the string. 
+     */
+    private static void writeString(DataOutputStream out, String value) 
+            throws IOException
+    {
+        byte[] bytes = value != null ? value.getBytes(CHARSET) : new byte[0];
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    /**
+     * Reads a string written by writeString(). 
+     * @param buffer buffer the string is read from. 
+     * @return String read. 
+     */
+    private static String readString(ByteBuffer buffer)
+    {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, CHARSET);
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent cache of results of audited tables. Results are keyed by 
+ * a SHA-256 hash of the cache version, the table number and contents of all 
+ * table files of a table (prepare A, prepare B, finalize and audit), so 
+ * results of a table are reused only if none of its files changed. Only 
+ * results used by the last audit are saved. 
+ * @author Maciej Kosarzecki
+ */
+public class AuditCache {
+    
+    /**
+     * Version of the cache file format and of results stored in it, written 
+     * at the beginning of the file and hashed into keys. It has to be 
+     * changed whenever results of tables are computed differently. 
+     */
+    private static final int VERSION = 2;
+    
+    /**
+     * Cache file. 
+     */
+    private final File file;
+    
+    /**
+     * Results read from the cache file. 
+     */
+    private final Map<ByteBuffer, TableResult> stored;
+    
+    /**
+     * Results found or added during the last audit, to be saved. 
+     */
+    private final Map<ByteBuffer, TableResult> used;
+    
+    /**
+     * Default constructor. Results are read from the cache file if it exists, 
+     * an unreadable file is ignored. 
+     * @param file cache file. 
+     */
+    public AuditCache(File file)
+    {
+        this.file = file;
+        stored = new HashMap<>();
+        used = new HashMap<>();
+        if(file.exists())
+            load();
+    }
+    
+    /**
+     * Computes hashes of table files of all indexed tables. Tables are hashed 
+     * in parallel if executor is set. 
+     * @param executor executor used to hash tables or null. 
+     * @param index index of table files. 
+     * @return hashes of tables in order of the index, null for tables whose 
+     * files cannot be read. 
+     */
+    public byte[][] hashTables(ExecutorService executor, final TableIndex index)
+    {
+        List<Callable<byte[]>> tasks = new ArrayList<>(index.size());
+        for(int i=0; i<index.size(); i++)
+        {
+            final int table = i;
+            tasks.add(new Callable<byte[]>() {
+                @Override
+                public byte[] call()
+                {
+                    return hashTable(index, table);
+                }
+            });
+        }
+        return ParallelKit.invokeAll(executor, tasks).toArray(new byte[index.size()][]);
+    }
+    
+    /**
+     * Returns cached results of a table. 
+     * @param hash hash of table files. 
+     * @return results of the table or null if there are none. 
+     */
+    public TableResult get(byte[] hash)
+    {
+        if(hash == null)
+            return null;
+        ByteBuffer key = ByteBuffer.wrap(hash);
+        TableResult result = stored.get(key);
+        if(result != null)
+            used.put(key, result);
+        return result;
+    }
+    
+    /**
+     * Adds results of a table, results of tables not audited are not added. 
+     * @param hash hash of table files. 
+     * @param result results of the table. 
+     */
+    public void put(byte[] hash, TableResult result)
+    {
+        if(hash != null && result.getError() == null)
+            used.put(ByteBuffer.wrap(hash), result);
+    }
+    
+    /**
+     * Writes results found or added during the last audit to the cache file. 
+     * @throws IOException thrown when cannot write the cache file. 
+     */
+    public void save() throws IOException
+    {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(VERSION);
+            out.writeInt(used.size());
+            for(Map.Entry<ByteBuffer, TableResult> entry : used.entrySet())
+            {
+                out.write(entry.getKey().array());
+                entry.getValue().write(out);
+            }
+        }
+    }
+    
+    /**
+     * Reads results from the cache file. 
+     */
+    private void load()
+    {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if(in.readInt() != VERSION)
+                return;
+            int size = in.readInt();
+            int hashLength = MessageDigest.getInstance(AbbSnapshot.DIGEST_FUNCTION)
+                    .getDigestLength();
+            for(int i=0; i<size; i++)
+            {
+                byte[] hash = new byte[hashLength];
+                in.readFully(hash);
+                stored.put(ByteBuffer.wrap(hash), TableResult.read(in));
+            }
+        } catch (IOException | NoSuchAlgorithmException ex) {
+            Logger.getLogger(AuditCache.class.getName()).log(Level.SEVERE, null, ex);
+            stored.clear();
+        }
+    }
+    
+    /**
+     * Computes hash of all table files of a table, preceded by the cache 
+     * version and the table number. Lines of files are hashed without line 
+     * terminators. 
+     * @param index index of table files. 
+     * @param table int index of the table. 
+     * @return hash of table files or null if they cannot be read. 
+     */
+    private static byte[] hashTable(TableIndex index, int table)
+    {
+        try {
+            MessageDigest md = MessageDigest.getInstance(AbbSnapshot.DIGEST_FUNCTION);
+            md.update(ByteBuffer.allocate(8).putInt(VERSION)
+                    .putInt(index.getNumber(table)).array());
+            int[] types = {TableIndex.PREPARE_A, TableIndex.PREPARE_B, 
+                TableIndex.FINALIZE, TableIndex.AUDIT};
+            for(int type : types)
+            {
+                try (TableLineReader reader = index.getSources(type, table, table+1)
+                        .get(0).open()) {
+                    while(reader.readLine())
+                    {
+                        md.update(reader.getBuffer(), reader.getLineOffset(), 
+                                reader.getLineLength());
+                        md.update((byte)'\n');
+                    }
+                }
+                // separates files of different types
+                md.update((byte)0);
+            }
+            return md.digest();
+        } catch (IOException | NoSuchAlgorithmException ex) {
+            Logger.getLogger(AuditCache.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+/**
+ * Receiver of events of the audit, used for profiling of audits without 
+ * attaching a profiler. An event of work is begun when the work starts and 
+ * ended with its values when the work ends, both in the thread doing the 
+ * work. Events are sent from worker threads, so implementations have to be 
+ * thread-safe. 
+ * @author Maciej Kosarzecki
+ */
+public interface AuditEventSink {
+    
+    /**
+     * Begins event of a unit of work of an audit phase. 
+     * @return event begun or null if the event is not recorded. 
+     */
+    Object beginPhase();
+    
+    /**
+     * Ends event of a unit of work of an audit phase. 
+     * @param event event returned by beginPhase(), null is ignored. 
+     * @param phase String name of the phase, see AuditMetrics. 
+     * @param tables long number of tables processed. 
+     * @param rows long number of rows processed. 
+     * @param cells long number of cells processed. 
+     * @param bytes long number of bytes read. 
+     */
+    void endPhase(Object event, String phase, long tables, long rows, 
+            long cells, long bytes);
+    
+    /**
+     * Begins event of parsing of a table file. 
+     * @return event begun or null if the event is not recorded. 
+     */
+    Object beginTableParsed();
+    
+    /**
+     * Ends event of parsing of a table file. 
+     * @param event event returned by beginTableParsed(), null is ignored. 
+     * @param table int table number. 
+     * @param file String name of the table file. 
+     * @param rows int number of rows parsed. 
+     * @param bytes long number of bytes read. 
+     */
+    void endTableParsed(Object event, int table, String file, int rows, 
+            long bytes);
+    
+    /**
+     * Begins event of decryption of a column of a table. 
+     * @return event begun or null if the event is not recorded. 
+     */
+    Object beginColumnDecrypted();
+    
+    /**
+     * Ends event of decryption of a column of a table. 
+     * @param event event returned by beginColumnDecrypted(), null is ignored. 
+     * @param table int table number. 
+     * @param batch int batch of the table, 0 if not known. 
+     * @param column int column number. 
+     * @param rows int number of cells decrypted. 
+     * @param bytes long number of ciphertext bytes decrypted. 
+     */
+    void endColumnDecrypted(Object event, int table, int batch, int column, 
+            int rows, long bytes);
+    
+    /**
+     * An inconsistency has been found. 
+     * @param table int table number. 
+     * @param batch int batch of the table, 0 if not known. 
+     * @param check String name of the phase which found the inconsistency. 
+     * @param message String description of the inconsistency. 
+     */
+    void inconsistency(int table, int batch, String check, String message);
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of timing and throughput metrics of audit phases. Work of 
+ * a phase is recorded in units (a table parsed, columns of tables 
+ * decrypted...) which may run in parallel, so each phase has both wall time, 
+ * from the start of its first unit to the end of its last one, and busy 
+ * time summed over all units. Metrics are safe to record from many threads. 
+ * Units, parsed tables, decrypted columns and inconsistencies are also 
+ * sent to an event sink, if it is set, as events begun when their work 
+ * starts and ended when it ends. 
+ * @author Maciej Kosarzecki
+ */
+public class AuditMetrics {
+    
+    /**
+     * Extraction of ABB, including parsing of table files. 
+     */
+    public static final String EXTRACTION = "extraction";
+    
+    /**
+     * Parsing of table files. 
+     */
+    public static final String PARSE = "parse";
+    
+    /**
+     * Checks of opened keys against their commitments. 
+     */
+    public static final String KEY_CHECK = "keyCheck";
+    
+    /**
+     * Checks of commitments to keys of data tables against opened keys. 
+     */
+    public static final String COMMITMENT_CHECK = "commitmentCheck";
+    
+    /**
+     * Decryption of columns with opened keys. 
+     */
+    public static final String DECRYPT = "decrypt";
+    
+    /**
+     * Consistency checks of batch 1 tables. 
+     */
+    public static final String BATCH_CHECKS = "batchChecks";
+    
+    /**
+     * Verification of batch 3 and 4 tables and of the tally. 
+     */
+    public static final String TALLY = "tally";
+    
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+    
+    /**
+     * Sink events are sent to, null if events are not sent. 
+     */
+    private volatile AuditEventSink eventSink;
+    
+    /**
+     * Default constructor, phases of the audit are registered in order. 
+     */
+    public AuditMetrics()
+    {
+        for(String name : new String[] { EXTRACTION, PARSE, KEY_CHECK, 
+            COMMITMENT_CHECK, DECRYPT, BATCH_CHECKS, TALLY })
+            phases.put(name, new Phase(name));
+    }
+    
+    /**
+     * Sets sink events of the audit are sent to. 
+     * @param eventSink sink to be used or null if events should not be sent. 
+     */
+    public void setEventSink(AuditEventSink eventSink)
+    {
+        this.eventSink = eventSink;
+    }
+    
+    /**
+     * Begins a unit of work of a phase, the unit is recorded when it ends. 
+     * @param phase String name of the phase. 
+     * @return unit begun. 
+     */
+    public Unit begin(String phase)
+    {
+        AuditEventSink sink = eventSink;
+        return new Unit(getPhase(phase), sink, 
+                sink != null ? sink.beginPhase() : null);
+    }
+    
+    /**
+     * Begins event of parsing of a table file, if the event sink is set. 
+     * @return event begun or null if the event is not recorded. 
+     */
+    public Object beginTableParsed()
+    {
+        AuditEventSink sink = eventSink;
+        return sink != null ? sink.beginTableParsed() : null;
+    }
+    
+    /**
+     * Ends event of parsing of a table file, if the event sink is set. 
+     * @param event event returned by beginTableParsed(). 
+     * @param table int table number. 
+     * @param file String name of the table file. 
+     * @param rows int number of rows parsed. 
+     * @param bytes long number of bytes read. 
+     */
+    public void endTableParsed(Object event, int table, String file, int rows, 
+            long bytes)
+    {
+        AuditEventSink sink = eventSink;
+        if(sink != null)
+            sink.endTableParsed(event, table, file, rows, bytes);
+    }
+    
+    /**
+     * Begins event of decryption of a column, if the event sink is set. 
+     * @return event begun or null if the event is not recorded. 
+     */
+    public Object beginColumnDecrypted()
+    {
+        AuditEventSink sink = eventSink;
+        return sink != null ? sink.beginColumnDecrypted() : null;
+    }
+    
+    /**
+     * Ends event of decryption of a column, if the event sink is set. 
+     * @param event event returned by beginColumnDecrypted(). 
+     * @param table int table number. 
+     * @param batch int batch of the table, 0 if not known. 
+     * @param column int column number. 
+     * @param rows int number of cells decrypted. 
+     * @param bytes long number of ciphertext bytes decrypted. 
+     */
+    public void endColumnDecrypted(Object event, int table, int batch, 
+            int column, int rows, long bytes)
+    {
+        AuditEventSink sink = eventSink;
+        if(sink != null)
+            sink.endColumnDecrypted(event, table, batch, column, rows, bytes);
+    }
+    
+    /**
+     * Sends event of a found inconsistency to the event sink, if it is set. 
+     * @param table int table number. 
+     * @param batch int batch of the table, 0 if not known. 
+     * @param check String name of the phase which found the inconsistency. 
+     * @param message String description of the inconsistency. 
+     */
+    public void inconsistency(int table, int batch, String check, String message)
+    {
+        AuditEventSink sink = eventSink;
+        if(sink != null)
+            sink.inconsistency(table, batch, check, message);
+    }
+    
+    /**
+     * Returns batch of a table for events. 
+     * @param table data table. 
+     * @return int batch of the table, 0 if it is not specified yet (e.g. for 
+     * tables of keys pre-checked before batches are known). 
+     */
+    public static int batchOf(DataTable table)
+    {
+        return table.hasBatch() ? table.getBatch() : 0;
+    }
+    
+    /**
+     * Returns metrics of a phase, registers the phase if it is not 
+     * registered yet. 
+     * @param name String name of the phase. 
+     * @return metrics of the phase. 
+     */
+    public synchronized Phase getPhase(String name)
+    {
+        Phase phase = phases.get(name);
+        if(phase == null)
+        {
+            phase = new Phase(name);
+            phases.put(name, phase);
+        }
+        return phase;
+    }
+    
+    /**
+     * Returns metrics of all phases in order of registration. 
+     * @return collection of metrics of phases. 
+     */
+    public synchronized Collection<Phase> getPhases()
+    {
+        return phases.values();
+    }
+    
+    /**
+     * Returns metrics of recorded phases as a JSON document. 
+     * @return String JSON document. 
+     */
+    public String toJson()
+    {
+        JsonWriter json = new JsonWriter().beginObject().name("phases").beginObject();
+        for(Phase phase : getPhases())
+        {
+            if(phase.getUnits() == 0)
+                continue;
+            double seconds = phase.getWallNanos() / 1e9;
+            json.name(phase.getName()).beginObject()
+                    .name("wallMs").value(phase.getWallNanos() / 1e6)
+                    .name("busyMs").value(phase.getBusyNanos() / 1e6)
+                    .name("units").value(phase.getUnits())
+                    .name("tables").value(phase.getTables())
+                    .name("rows").value(phase.getRows())
+                    .name("cells").value(phase.getCells())
+                    .name("bytes").value(phase.getBytes())
+                    .name("rowsPerSecond").value(phase.getRows() / seconds)
+                    .name("cellsPerSecond").value(phase.getCells() / seconds)
+                    .name("bytesPerSecond").value(phase.getBytes() / seconds)
+                    .endObject();
+        }
+        return json.endObject().endObject().toString();
+    }
+    
+    /**
+     * Writes metrics of recorded phases to a JSON file. 
+     * @param path String path of the file. 
+     * @throws IOException thrown when cannot write the file. 
+     */
+    public void writeJson(String path) throws IOException
+    {
+        Files.write(Paths.get(path), (toJson()+"\n").getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Unit of work of a phase begun, recorded in the phase and sent to the 
+     * event sink when it ends. 
+     */
+    public static class Unit
+    {
+        private final Phase phase;
+        private final AuditEventSink sink;
+        private final Object event;
+        private final long start = System.nanoTime();
+        
+        /**
+         * Default constructor, the unit starts now. 
+         * @param phase metrics of the phase of the unit. 
+         * @param sink event sink or null. 
+         * @param event event of the unit begun in the sink or null. 
+         */
+        Unit(Phase phase, AuditEventSink sink, Object event)
+        {
+            this.phase = phase;
+            this.sink = sink;
+            this.event = event;
+        }
+        
+        /**
+         * Ends the unit now and records it. 
+         * @param tables long number of tables processed. 
+         * @param rows long number of rows processed. 
+         * @param cells long number of cells processed. 
+         * @param bytes long number of bytes read. 
+         */
+        public void end(long tables, long rows, long cells, long bytes)
+        {
+            phase.record(start, tables, rows, cells, bytes);
+            if(sink != null)
+                sink.endPhase(event, phase.getName(), tables, rows, cells, bytes);
+        }
+    }
+    
+    /**
+     * Metrics of a single phase. 
+     */
+    public static class Phase
+    {
+        private final String name;
+        private final AtomicLong firstStart = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong lastEnd = new AtomicLong(Long.MIN_VALUE);
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final AtomicLong units = new AtomicLong();
+        private final AtomicLong tables = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong cells = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        
+        /**
+         * Default constructor. 
+         * @param name String name of the phase. 
+         */
+        Phase(String name)
+        {
+            this.name = name;
+        }
+        
+        /**
+         * Records a unit of work of the phase which ends now. 
+         * @param start long start of the unit, System.nanoTime(). 
+         * @param tables long number of tables processed. 
+         * @param rows long number of rows processed. 
+         * @param cells long number of cells processed. 
+         * @param bytes long number of bytes read. 
+         */
+        public void record(long start, long tables, long rows, long cells, long bytes)
+        {
+            long end = System.nanoTime();
+            busyNanos.addAndGet(end - start);
+            units.incrementAndGet();
+            this.tables.addAndGet(tables);
+            this.rows.addAndGet(rows);
+            this.cells.addAndGet(cells);
+            this.bytes.addAndGet(bytes);
+            long first;
+            while(start < (first = firstStart.get()) 
+                    && !firstStart.compareAndSet(first, start)) { }
+            long last;
+            while(end > (last = lastEnd.get()) 
+                    && !lastEnd.compareAndSet(last, end)) { }
+        }
+        
+        /**
+         * Returns name of the phase. 
+         * @return String name. 
+         */
+        public String getName() { return name; }
+        
+        /**
+         * Returns time from the start of the first unit to the end of the 
+         * last unit. 
+         * @return long time in nanoseconds, 0 if nothing is recorded. 
+         */
+        public long getWallNanos() 
+        {
+            return units.get() == 0 ? 0 : lastEnd.get() - firstStart.get();
+        }
+        
+        /**
+         * Returns time of all units summed. 
+         * @return long time in nanoseconds. 
+         */
+        public long getBusyNanos() { return busyNanos.get(); }
+        
+        /**
+         * Returns number of recorded units. 
+         * @return long number of units. 
+         */
+        public long getUnits() { return units.get(); }
+        
+        /**
+         * Returns number of processed tables. 
+         * @return long number of tables. 
+         */
+        public long getTables() { return tables.get(); }
+        
+        /**
+         * Returns number of processed rows. 
+         * @return long number of rows. 
+         */
+        public long getRows() { return rows.get(); }
+        
+        /**
+         * Returns number of processed cells. 
+         * @return long number of cells. 
+         */
+        public long getCells() { return cells.get(); }
+        
+        /**
+         * Returns number of bytes read. 
+         * @return long number of bytes. 
+         */
+        public long getBytes() { return bytes.get(); }
+    }
+}
@@ -18,12 +18,18 @@
 package lib;
 
 import java.io.File;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.xml.bind.DatatypeConverter;
 import net.lingala.zip4j.exception.ZipException;
 
 /**
@@ -32,26 +38,221 @@ import net.lingala.zip4j.exception.ZipException;
  */
 public class Auditor {
     
+    /**
+     * Number of tables waiting for a pipeline stage per worker of the stage. 
+     */
+    private static final int PIPELINE_QUEUE_CAPACITY = 2;
+    
     private DataTable [] dataTables;
     private DataTable [] dataTablesKeys;
-    private ArrayList<ArrayList<Integer>> batches;
+    private DataTable [] openedKeysTables;
+    private TableIndex tableIndex;
+    private int window;
+    private boolean projection;
+    private boolean preCheck;
+    private boolean preCheckOnly;
+    private AuditCache resultCache;
+    private int[] pipelineWorkers;
     private ExtractionKit ek;
-    private MessageDigest md;
+    private KeyVerifier keyVerifier;
+    private List<Future<boolean[]>> openedKeysChecks;
+    private boolean inArchive;
+    private TableMemory memory = TableMemory.HEAP;
+    private ExecutorService executor;
+    private CipherProvider cipherProvider = CipherProvider.BC;
+    private final AuditMetrics metrics = new AuditMetrics();
+    
+    /**
+     * Decryption engines using the executor and the calling thread, kept 
+     * so buffers of threads are reused by following tables; null until 
+     * used. 
+     */
+    private DecryptionEngine decryptionEngine;
+    private DecryptionEngine serialDecryptionEngine;
+    
+    // results of audited tables, kept until the report is printed
+    private List<String> tablesJoinWarnings;
+    private List<String> openedKeysWarnings;
+    private List<String> keyCommitmentsWarnings;
+    private List<String> auditErrors;
+    private int [] batchSizes;
+    private int [] inconsistentTables;
+    private TallySummary tallySummary;
+    private boolean passed;
+    
+    /**
+     * Error which stopped extraction of ABB, null if ABB was extracted. 
+     */
+    private String extractionError;
+    
+    /**
+     * ABB file tables were extracted from, null if they were read from 
+     * a snapshot. 
+     */
+    private File abbFile;
+    
+    /**
+     * Snapshot tables were read from, null if ABB was extracted. 
+     */
+    private AbbSnapshot snapshot;
     
     /**
      * Default constructor.
      */
     public Auditor()
     {
-        try {
-            ek = new ExtractionKit();
-            md = MessageDigest.getInstance(Lib.HASH_FUNCTION);
-            batches = new ArrayList<>(Lib.BATCHES_NUMBER);
-            for(int i=0; i<Lib.BATCHES_NUMBER; i++)
-                batches.add(new ArrayList<Integer>());
-        } catch (NoSuchAlgorithmException ex) {
-            Logger.getLogger(Auditor.class.getName()).log(Level.SEVERE, null, ex);
-        }
+        metrics.setEventSink(JfrEventSink.create());
+        ek = new ExtractionKit();
+        ek.setMetrics(metrics);
+        setThreads(Runtime.getRuntime().availableProcessors());
+        keyVerifier = new KeyVerifier();
+        keyVerifier.setMetrics(metrics);
+        tablesJoinWarnings = new ArrayList<>();
+        openedKeysWarnings = new ArrayList<>();
+        keyCommitmentsWarnings = new ArrayList<>();
+        auditErrors = new ArrayList<>();
+        batchSizes = new int[Lib.BATCHES_NUMBER];
+        inconsistentTables = new int[Lib.BATCHES_NUMBER];
+        Arrays.fill(inconsistentTables, -1);
+        tallySummary = new TallySummary();
+    }
+    
+    /**
+     * Sets number of worker threads used by the audit. 
+     * @param threads int number of worker threads, 1 for running the whole 
+     * audit in the calling thread. 
+     */
+    public void setThreads(int threads)
+    {
+        if(executor != null)
+            executor.shutdown();
+        executor = ParallelKit.newExecutor(threads);
+        ek.setExecutor(executor);
+        decryptionEngine = null;
+    }
+    
+    /**
+     * Sets provider of ciphers used for cells decryption. 
+     * @param cipherProvider provider of ciphers (BouncyCastle by default). 
+     */
+    public void setCipherProvider(CipherProvider cipherProvider)
+    {
+        this.cipherProvider = cipherProvider;
+        decryptionEngine = null;
+        serialDecryptionEngine = null;
+    }
+    
+    /**
+     * Sets storage of column data of data tables. Off-heap memory of 
+     * the storage is released when the auditor is closed. 
+     * @param storage storage of column data (heap by default), off-heap 
+     * storage should be used for ABBs larger than the Java heap. 
+     */
+    public void setTableStorage(TableStorage storage)
+    {
+        memory.close();
+        memory = storage == TableStorage.HEAP ? TableMemory.HEAP 
+                : new TableMemory(storage);
+        ek.setTableMemory(memory);
+    }
+    
+    /**
+     * Releases tables and off-heap memory of their column data, temporary 
+     * table file of mapped storage is deleted. Results of the audit are 
+     * kept, tables have to be extracted again before the next audit. 
+     */
+    public void close()
+    {
+        dataTables = null;
+        dataTablesKeys = null;
+        openedKeysTables = null;
+        snapshot = null;
+        // a new memory of the same storage is used by the next audit
+        setTableStorage(memory.getStorage());
+    }
+    
+    /**
+     * Sets extraction mode. In in-archive mode .csv table files are parsed
+     * straight from the .zip archive and nothing is written to disk. 
+     * @param inArchive true for in-archive mode, false for extraction of 
+     * the archive to disk (default). 
+     */
+    public void setInArchiveExtraction(boolean inArchive)
+    {
+        this.inArchive = inArchive;
+    }
+    
+    /**
+     * Sets streaming mode. In streaming mode only an index of table files is 
+     * created by extractABB(), tables are parsed and audited by audit() 
+     * one window after another, so memory used does not depend on number 
+     * of tables. 
+     * @param window int number of tables audited at a time, 0 for auditing 
+     * all tables at once (default). 
+     */
+    public void setStreamingWindow(int window)
+    {
+        this.window = window;
+    }
+    
+    /**
+     * Sets column projection mode. In projection mode audit table files are 
+     * parsed first and only cells of columns with opened keys are created 
+     * when data table files are parsed, other columns are skipped. 
+     * @param projection true for projection mode, false for parsing all 
+     * columns (default). 
+     */
+    public void setColumnProjection(boolean projection)
+    {
+        this.projection = projection;
+    }
+    
+    /**
+     * Sets keys pre-check mode. In pre-check mode table files are indexed 
+     * and only their keys rows are parsed first, so results of opened keys 
+     * and key commitments checks are printed before data rows are parsed. 
+     * @param preCheck true for pre-check mode, false otherwise (default). 
+     * @param preCheckOnly true if the audit should stop after the pre-check. 
+     */
+    public void setKeysPreCheck(boolean preCheck, boolean preCheckOnly)
+    {
+        this.preCheck = preCheck || preCheckOnly;
+        this.preCheckOnly = preCheckOnly;
+    }
+    
+    /**
+     * Sets pipeline mode. In pipeline mode table files are indexed and each 
+     * table goes through parse, verify (opened keys and key commitments), 
+     * decrypt and check (batch consistency and tally) stages connected by 
+     * bounded queues, so all stages run at the same time. 
+     * @param workers int numbers of worker threads of parse, verify, decrypt 
+     * and check stages, null if pipeline should not be used (default). 
+     */
+    public void setPipeline(int[] workers)
+    {
+        this.pipelineWorkers = workers;
+    }
+    
+    /**
+     * Sets file of the cache of results of audited tables. If set, table 
+     * files are indexed and only tables whose files changed since the last 
+     * audit using the same cache are audited, results of other tables are 
+     * reused. 
+     * @param path String path of the cache file, null if results should not 
+     * be cached (default). 
+     */
+    public void setResultCache(String path)
+    {
+        resultCache = path != null ? new AuditCache(new File(path)) : null;
+    }
+    
+    /**
+     * Returns metrics of audit phases recorded so far. 
+     * @return metrics of the audit. 
+     */
+    public AuditMetrics getMetrics()
+    {
+        return metrics;
     }
     
     /**
@@ -60,6 +261,34 @@ public class Auditor {
      * @param abbPath String path to ABB .zip file. 
      */
     public void extractABB(String abbPath)
+    {
+        AuditMetrics.Unit unit = metrics.begin(AuditMetrics.EXTRACTION);
+        abbFile = new File(abbPath);
+        if(inArchive)
+            extractABBInArchive(abbPath);
+        else
+            extractABBToDisk(abbPath);
+        recordExtraction(unit, new File(abbPath).length());
+    }
+    
+    /**
+     * Records extraction of ABB or of a snapshot in metrics. 
+     * @param unit unit of the extraction begun. 
+     * @param bytes long size of the extracted file. 
+     */
+    private void recordExtraction(AuditMetrics.Unit unit, long bytes)
+    {
+        int tables = tableIndex != null ? tableIndex.size() 
+                : dataTables != null ? dataTables.length : 0;
+        unit.end(tables, 0, 0, bytes);
+    }
+    
+    /**
+     * Extracts .csv files from a specified .zip archive to disk and creates 
+     * DataTable[] objects. 
+     * @param abbPath String path to ABB .zip file. 
+     */
+    private void extractABBToDisk(String abbPath)
     {
         try {
             // manage paths
@@ -72,128 +301,756 @@ public class Auditor {
             System.out.println("-------- Extraction of data --------");
             System.out.println("Extracting files from archive...");
             ek.extractFiles(abbPath, destPath);
-            System.out.println("Extracting data from table files...");
-            dataTables = ek.extractData(destPath);
+            if(projection || preCheck || isIndexAudited())
+            {
+                System.out.println("Indexing table files...");
+                tableIndex = ek.indexTables(destPath, tablesJoinWarnings);
+                extractIndexedTables();
+                return;
+            }
             System.out.println("Extracting keys from table files...");
-            dataTablesKeys = ek.extractDataKeys(destPath);
+            openedKeysTables = ek.extractDataKeys(destPath);
+            // opened keys are checked while data tables are extracted
+            openedKeysChecks = keyVerifier.checkTables(executor, openedKeysTables);
+            System.out.println("Extracting data from table files...");
+            DataTable[][] joined = ek.extractData(destPath, openedKeysTables, 
+                    tablesJoinWarnings);
+            dataTables = joined[0];
+            dataTablesKeys = joined[1];
+            reportTablesJoin();
         } catch (ZipException ex) {
-            Logger.getLogger(Auditor.class.getName()).log(Level.SEVERE, null, ex);
+            failExtraction(ex);
+        } catch (AuditException ex) {
+            failExtraction(ex);
+        }
+    }
+    
+    /**
+     * Creates DataTable[] objects straight from .csv files of a specified 
+     * .zip archive, without extracting it to disk. 
+     * @param abbPath String path to ABB .zip file. 
+     */
+    private void extractABBInArchive(String abbPath)
+    {
+        try {
+            System.out.println("-------- Extraction of data --------");
+            if(projection || preCheck || isIndexAudited())
+            {
+                System.out.println("Indexing archive table files...");
+                tableIndex = ek.indexTablesInArchive(abbPath, tablesJoinWarnings);
+                extractIndexedTables();
+                return;
+            }
+            System.out.println("Extracting keys from archive table files...");
+            openedKeysTables = ek.extractDataKeysFromArchive(abbPath);
+            // opened keys are checked while data tables are extracted
+            openedKeysChecks = keyVerifier.checkTables(executor, openedKeysTables);
+            System.out.println("Extracting data from archive table files...");
+            DataTable[][] joined = ek.extractDataFromArchive(abbPath, 
+                    openedKeysTables, tablesJoinWarnings);
+            dataTables = joined[0];
+            dataTablesKeys = joined[1];
+            reportTablesJoin();
+        } catch (ZipException ex) {
+            failExtraction(ex);
         } catch (AuditException ex) {
+            failExtraction(ex);
+        }
+    }
+    
+    /**
+     * Loads tables from a snapshot file written by writeSnapshot() instead of 
+     * extracting ABB. Streaming, pipeline, result cache and keys pre-check need table 
+     * files, so they are turned off. 
+     * @param path String path of the snapshot file. 
+     */
+    public void readSnapshot(String path)
+    {
+        System.out.println("-------- Extraction of data --------");
+        if(isIndexAudited() || preCheck)
+        {
+            System.out.println("Streaming, pipeline, result cache and keys "
+                    + "pre-check are not used with snapshots.");
+            window = 0;
+            pipelineWorkers = null;
+            resultCache = null;
+            preCheck = false;
+            preCheckOnly = false;
+        }
+        System.out.println("Reading snapshot...");
+        AuditMetrics.Unit unit = metrics.begin(AuditMetrics.EXTRACTION);
+        try {
+            snapshot = AbbSnapshot.read(new File(path), memory);
+            System.out.println("Snapshot of "+snapshot.getSourceName()
+                    +", SHA-256: "+snapshot.getSourceHash());
+            dataTables = snapshot.getDataTables();
+            dataTablesKeys = snapshot.getDataTablesKeys();
+            openedKeysTables = snapshot.getOpenedKeysTables();
+            tablesJoinWarnings.addAll(snapshot.getJoinWarnings());
+            reportTablesJoin();
+            openedKeysChecks = keyVerifier.checkTables(executor, openedKeysTables);
+            recordExtraction(unit, new File(path).length());
+        } catch (IOException ex) {
+            failExtraction(ex);
+        } catch (AuditException ex) {
+            failExtraction(ex);
+        }
+    }
+    
+    /**
+     * Records failure of extraction of ABB or of a snapshot, tables 
+     * extracted partially are never audited. 
+     * @param ex exception which stopped the extraction. 
+     */
+    private void failExtraction(Exception ex)
+    {
+        Logger.getLogger(Auditor.class.getName()).log(Level.SEVERE, null, ex);
+        extractionError = ex.getMessage();
+    }
+    
+    /**
+     * Writes extracted tables to a snapshot file, which can be loaded by 
+     * readSnapshot() instead of extracting ABB again. Tables have to be 
+     * extracted all at once i.e. not in streaming mode nor with result cache. 
+     * @param path String path of the snapshot file. 
+     */
+    public void writeSnapshot(String path)
+    {
+        if(extractionError != null)
+        {
+            System.out.println("Snapshot is not written, extraction failed!");
+            return;
+        }
+        if(dataTables == null)
+        {
+            System.out.println("Snapshot can be written only if all tables "
+                    + "are extracted at once!");
+            return;
+        }
+        System.out.println("Writing snapshot...");
+        try {
+            // a snapshot of a snapshot keeps the original source
+            String sourceName = snapshot != null ? snapshot.getSourceName() 
+                    : abbFile.getName();
+            String sourceHash = snapshot != null ? snapshot.getSourceHash() 
+                    : AbbSnapshot.hashFile(abbFile);
+            System.out.println("Snapshot of "+sourceName+", SHA-256: "+sourceHash);
+            new AbbSnapshot(sourceName, sourceHash, dataTables, dataTablesKeys, 
+                    openedKeysTables, tablesJoinWarnings).write(new File(path));
+        } catch (IOException ex) {
             Logger.getLogger(Auditor.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
     
+    /**
+     * Creates DataTable[] objects of indexed table files, unless tables are 
+     * audited one window after another or results are cached. Warnings of 
+     * the join of table files are printed afterwards. 
+     * @throws AuditException thrown when batch of a table cannot be 
+     * specified. 
+     */
+    private void extractIndexedTables() throws AuditException
+    {
+        if(preCheck)
+            preCheckKeys();
+        if(!preCheckOnly && !isIndexAudited())
+        {
+            System.out.println("Extracting keys from table files...");
+            openedKeysTables = ek.extractDataKeys(tableIndex, 0, tableIndex.size());
+            // opened keys are checked while data tables are extracted
+            openedKeysChecks = keyVerifier.checkTables(executor, openedKeysTables);
+            System.out.println("Extracting data from table files...");
+            DataTable[][] joined = ek.extractData(tableIndex, openedKeysTables, 
+                    projection, tablesJoinWarnings);
+            dataTables = joined[0];
+            dataTablesKeys = joined[1];
+        }
+        reportTablesJoin();
+    }
+    
+    /**
+     * Checks opened keys and key commitments of all indexed tables using 
+     * only keys rows of table files and prints results. Warnings are cleared 
+     * afterwards, so the full audit reports its own results. 
+     * @throws AuditException thrown when a table file cannot be read. 
+     */
+    private void preCheckKeys() throws AuditException
+    {
+        System.out.println("-------- Keys pre-check --------");
+        System.out.println("Extracting keys rows of table files...");
+        DataTable[][] keys = ek.extractKeys(tableIndex);
+        Map<Integer, TableResult> results = new TreeMap<>();
+        checkOpenedKeysCorrectness(keys[1], null, results);
+        checkKeyCommitmentsConsistency(keys[0], keys[1], results);
+        addKeyResults(results.values());
+        reportOpenedKeysCorrectness();
+        reportKeyCommitmentsConsistency();
+        openedKeysWarnings.clear();
+        keyCommitmentsWarnings.clear();
+    }
+    
     /** 
-     * Performs the audit of the elections.
+     * Performs the audit of the elections. The audit passes only if all 
+     * tables were audited and no inconsistency was found. 
      */
     public void audit()
     {
-        // check if H(plain||decomm) = comm
-        checkOpenedKeysCorrectness();
-        // check if commitments in of opened keys match those in data tables
-        checkKeyCommitmentsConsistency();
-        // copy keys to dataTables
-        setDataTableKeys(); // should be called after checkKeyCommitmensConsistency()
-        // decrypting cells 
-        decryptCells();
+        passed = false;
+        if(extractionError != null)
+        {
+            System.out.println("-------- Audit errors --------");
+            System.out.println("Error! Extraction failed! "+extractionError);
+            System.out.println("Error! The audit is not performed, it cannot pass!");
+            return;
+        }
+        if(preCheckOnly)
+            return;
+        boolean keysCorrect;
+        if(isIndexAudited())
+        {
+            Collection<TableResult> results = resultCache != null 
+                    ? auditCached() : auditIndex(tableIndex).values();
+            addKeyResults(results);
+            addDataResults(results);
+            keysCorrect = reportOpenedKeysCorrectness() 
+                    & reportKeyCommitmentsConsistency();
+        }
+        else 
+        {
+            Map<Integer, TableResult> results = new TreeMap<>();
+            // check if H(plain||decomm) = comm
+            checkOpenedKeysCorrectness(openedKeysTables, openedKeysChecks, results);
+            // check if commitments in of opened keys match those in data tables
+            checkKeyCommitmentsConsistency(dataTables, dataTablesKeys, results);
+            addKeyResults(results.values());
+            keysCorrect = reportOpenedKeysCorrectness() 
+                    & reportKeyCommitmentsConsistency();
+            System.out.println("Decrypting data...");
+            auditTablesData(dataTables, dataTablesKeys, results);
+            addDataResults(results.values());
+        }
+        // tables not audited fail the audit
+        boolean complete = reportAuditErrors();
         // check batch consistency
-        checkBatchesConsistency();
+        boolean consistent = checkBatchesConsistency();
+        boolean tallyCorrect = false;
         try {
             // verify tally 
-            verifyTally();
+            tallyCorrect = verifyTally();
         } catch (AuditException ex) {
             Logger.getLogger(Auditor.class.getName()).log(Level.SEVERE, null, ex);
         }
+        passed = keysCorrect && complete && consistent && tallyCorrect;
     }
     
     /**
-     * Checks consistency of opened keys i.e. if H(plain||decomm)=comm.
-     * @return true if consistency kept, false otherwise. 
+     * Tells if the last audit passed. 
+     * @return true if all tables were audited, no inconsistency was found 
+     * and the tally was verified, false otherwise or if only keys were 
+     * pre-checked. 
      */
-    private boolean checkOpenedKeysCorrectness()
+    public boolean isPassed()
     {
-        System.out.println("-------- Opened keys correctness check --------");
-        boolean correct = true;
-        for(DataTable table : dataTablesKeys)
+        return passed;
+    }
+    
+    /**
+     * Tells if tables are audited straight from the index of table files, 
+     * instead of being extracted all at once before the audit. 
+     * @return true in streaming, pipeline and result cache modes. 
+     */
+    private boolean isIndexAudited()
+    {
+        return window > 0 || pipelineWorkers != null || resultCache != null;
+    }
+    
+    /**
+     * Audits indexed tables in pipeline mode or one window after another. 
+     * @param index index of table files to be audited. 
+     * @return results of audited tables in order of table numbers. 
+     */
+    private Map<Integer, TableResult> auditIndex(TableIndex index)
+    {
+        if(pipelineWorkers != null)
+            return auditPipeline(index);
+        return auditWindows(index, window);
+    }
+    
+    /**
+     * Audits indexed tables in a pipeline of parse, verify, decrypt and 
+     * check stages. Each table is audited by a single thread of each stage, 
+     * tables being in the pipeline at the same time are limited by 
+     * capacities of queues. A table which cannot be extracted passes the 
+     * other stages as not audited, if the pipeline fails all tables not 
+     * collected yet are not audited. 
+     * @param index index of table files to be audited. 
+     * @return results of audited tables in order of table numbers. 
+     */
+    private Map<Integer, TableResult> auditPipeline(final TableIndex index)
+    {
+        final Map<Integer, TableResult> results = new TreeMap<>();
+        final ExtractionKit kit = new ExtractionKit();
+        kit.setTableMemory(memory);
+        kit.setMetrics(metrics);
+        System.out.println("Auditing "+index.size()+" table(s) in pipeline...");
+        
+        Pipeline<PipelineItem> pipeline = new Pipeline<>(PIPELINE_QUEUE_CAPACITY);
+        pipeline.addStage(new Pipeline.Stage<PipelineItem>("parse", pipelineWorkers[0]) {
+            @Override
+            public PipelineItem process(PipelineItem item)
+            {
+                try {
+                    item.keys = kit.extractDataKeys(index, item.index, item.index+1);
+                    item.tables = kit.extractData(index, item.index, item.index+1, 
+                            projection ? item.keys : null);
+                } catch (AuditException ex) {
+                    item.error = ex;
+                }
+                return item;
+            }
+        });
+        pipeline.addStage(new Pipeline.Stage<PipelineItem>("verify", pipelineWorkers[1]) {
+            @Override
+            public PipelineItem process(PipelineItem item)
+            {
+                if(item.error != null)
+                    return item;
+                checkOpenedKeysCorrectness(item.keys, 
+                        keyVerifier.checkTables(null, item.keys), item.results);
+                checkKeyCommitmentsConsistency(item.tables, item.keys, item.results);
+                item.batches = setDataTableKeys(item.tables, item.keys, item.results);
+                return item;
+            }
+        });
+        pipeline.addStage(new Pipeline.Stage<PipelineItem>("decrypt", pipelineWorkers[2]) {
+            @Override
+            public PipelineItem process(PipelineItem item)
+            {
+                if(item.error != null)
+                    return item;
+                decryptCells(item.tables, item.keys, null, item.results);
+                removeFailedTables(item.batches, item.results);
+                return item;
+            }
+        });
+        pipeline.addStage(new Pipeline.Stage<PipelineItem>("check", pipelineWorkers[3]) {
+            @Override
+            public PipelineItem process(PipelineItem item)
+            {
+                if(item.error != null)
+                    return item;
+                checkBatch1Consistency(item.batches.get(0), item.results);
+                verifyBatch34Tables(item.batches.get(2), item.batches.get(3), 
+                        item.results, null);
+                return item;
+            }
+        });
+        // results are collected by a single thread, tables are released
+        pipeline.addStage(new Pipeline.Stage<PipelineItem>("collect", 1) {
+            @Override
+            public PipelineItem process(PipelineItem item)
+            {
+                if(item.error != null)
+                    failTables(index, item.index, item.index+1, item.results, 
+                            item.error);
+                results.putAll(item.results);
+                releaseTables(item.tables);
+                return null;
+            }
+        });
+        
+        final int size = index.size();
+        try {
+            pipeline.run(new Iterator<PipelineItem>() {
+                private int next;
+
+                @Override
+                public boolean hasNext() { return next < size; }
+
+                @Override
+                public PipelineItem next() { return new PipelineItem(next++); }
+
+                @Override
+                public void remove() { throw new UnsupportedOperationException(); }
+            });
+        } catch (IllegalStateException ex) {
+            Logger.getLogger(Auditor.class.getName()).log(Level.SEVERE, null, ex);
+            for(int i=0; i<size; i++)
+            {
+                if(!results.containsKey(index.getNumber(i)))
+                    failTables(index, i, i+1, results, ex);
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Audits indexed tables one window after another. Only results of checks 
+     * are kept between windows. Tables of a window which cannot be audited 
+     * are audited again one by one, so only tables which cannot be audited 
+     * on their own are not audited. 
+     * @param index index of table files to be audited. 
+     * @param window int number of tables audited at a time, all tables are 
+     * audited at once if not positive. 
+     * @return results of audited tables in order of table numbers. 
+     */
+    private Map<Integer, TableResult> auditWindows(TableIndex index, int window)
+    {
+        Map<Integer, TableResult> results = new TreeMap<>();
+        int size = index.size();
+        if(window <= 0)
+            window = Math.max(size, 1);
+        for(int from=0; from<size; from+=window)
+        {
+            int to = Math.min(from + window, size);
+            System.out.println("Auditing tables "+from+"-"+(to-1)+" of "+size+"...");
+            if(!auditWindow(index, from, to, results) && to - from > 1)
+            {
+                System.out.println("Auditing tables "+from+"-"+(to-1)
+                        +" one by one...");
+                for(int i=from; i<to; i++)
+                    results.remove(index.getNumber(i));
+                for(int i=from; i<to; i++)
+                    auditWindow(index, i, i+1, results);
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Audits a window of indexed tables. 
+     * @param index index of table files to be audited. 
+     * @param from int index of the first table. 
+     * @param to int index after the last table. 
+     * @param results results of tables, by table numbers. 
+     * @return true if tables were audited, false if they are marked as not 
+     * audited. 
+     */
+    private boolean auditWindow(TableIndex index, int from, int to, 
+            Map<Integer, TableResult> results)
+    {
+        DataTable[] tables = null;
+        try {
+            DataTable[] keys = ek.extractDataKeys(index, from, to);
+            // opened keys are checked while data tables are extracted
+            List<Future<boolean[]>> checks = keyVerifier.checkTables(executor, keys);
+            tables = ek.extractData(index, from, to, projection ? keys : null);
+            checkOpenedKeysCorrectness(keys, checks, results);
+            checkKeyCommitmentsConsistency(tables, keys, results);
+            auditTablesData(tables, keys, results);
+            return true;
+        } catch (AuditException ex) {
+            failTables(index, from, to, results, ex);
+            return false;
+        } finally {
+            // only results are kept, memory of tables is reused by the next window
+            releaseTables(tables);
+        }
+    }
+    
+    /**
+     * Releases column data of tables which were audited. 
+     * @param tables data tables or null. 
+     */
+    private static void releaseTables(DataTable[] tables)
+    {
+        if(tables == null)
+            return;
+        for(DataTable table : tables)
+            table.release();
+    }
+    
+    /**
+     * Marks tables of a range of the index as not audited. 
+     * @param index index of table files. 
+     * @param from int index of the first table. 
+     * @param to int index after the last table. 
+     * @param results results of tables errors are set in. 
+     * @param ex exception which stopped the audit of the tables. 
+     */
+    private static void failTables(TableIndex index, int from, int to, 
+            Map<Integer, TableResult> results, Exception ex)
+    {
+        for(int i=from; i<to; i++)
+        {
+            int number = index.getNumber(i);
+            getResult(results, number).setError("Error! Table: "+number
+                    +" could not be audited! "+ex.getMessage());
+        }
+    }
+    
+    /**
+     * Audits indexed tables using the cache of results. Only tables whose 
+     * files changed since the last audit are audited, results of all tables 
+     * are saved to the cache afterwards. The cache is not saved if any table 
+     * could not be audited or if there are no tables. 
+     * @return results of all tables in order of table numbers. 
+     */
+    private Collection<TableResult> auditCached()
+    {
+        System.out.println("Hashing table files...");
+        byte[][] hashes = resultCache.hashTables(executor, tableIndex);
+        Map<Integer, TableResult> results = new TreeMap<>();
+        List<Integer> changed = new ArrayList<>();
+        for(int i=0; i<hashes.length; i++)
+        {
+            TableResult result = resultCache.get(hashes[i]);
+            if(result != null && result.getNumber() == tableIndex.getNumber(i))
+                results.put(result.getNumber(), result);
+            else
+                changed.add(i);
+        }
+        System.out.println("Reusing cached results of "+results.size()+" of "
+                +hashes.length+" table(s)...");
+        
+        Map<Integer, TableResult> audited = auditIndex(tableIndex.subset(changed));
+        boolean complete = hashes.length > 0;
+        for(int i : changed)
+        {
+            TableResult result = audited.get(tableIndex.getNumber(i));
+            if(result != null && result.getError() == null)
+                resultCache.put(hashes[i], result);
+            else
+                complete = false;
+        }
+        results.putAll(audited);
+        if(!complete)
+        {
+            System.out.println("Not all tables were audited, cache of results "
+                    + "is not saved.");
+            return results.values();
+        }
+        try {
+            resultCache.save();
+        } catch (IOException ex) {
+            Logger.getLogger(Auditor.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return results.values();
+    }
+    
+    /**
+     * Audits data of tables - copies opened keys, decrypts cells and checks 
+     * tables of each batch. 
+     * @param tables data tables. 
+     * @param keys data tables containing opened keys, in the same order as 
+     * data tables. 
+     * @param results results of tables, by table numbers. 
+     */
+    private void auditTablesData(DataTable[] tables, DataTable[] keys, 
+            Map<Integer, TableResult> results)
+    {
+        // copy keys to data tables
+        List<List<DataTable>> batches = setDataTableKeys(tables, keys, results); // should be called after checkKeyCommitmensConsistency()
+        // decrypting cells 
+        decryptCells(tables, keys, executor, results);
+        removeFailedTables(batches, results);
+        checkBatch1Consistency(batches.get(0), results);
+        // single pass over batch 3 and 4 tables 
+        verifyBatch34Tables(batches.get(2), batches.get(3), results, executor);
+    }
+    
+    /**
+     * Returns results of a table, creates them if there are none yet. 
+     * @param results results of tables, by table numbers. 
+     * @param number int table number. 
+     * @return results of the table. 
+     */
+    private static TableResult getResult(Map<Integer, TableResult> results, int number)
+    {
+        TableResult result = results.get(number);
+        if(result == null)
+        {
+            result = new TableResult(number);
+            results.put(number, result);
+        }
+        return result;
+    }
+    
+    /**
+     * Adds warnings of keys checks of tables to the report. 
+     * @param results results of tables in order of table numbers. 
+     */
+    private void addKeyResults(Collection<TableResult> results)
+    {
+        for(TableResult result : results)
         {
+            openedKeysWarnings.addAll(result.getOpenedKeysWarnings());
+            keyCommitmentsWarnings.addAll(result.getKeyCommitmentsWarnings());
+        }
+    }
+    
+    /**
+     * Adds batches, consistency verdicts and tallies of tables to the report, 
+     * the first inconsistent table of each batch is remembered. 
+     * @param results results of tables in order of table numbers. 
+     */
+    private void addDataResults(Collection<TableResult> results)
+    {
+        for(TableResult result : results)
+        {
+            if(result.getError() != null)
+            {
+                auditErrors.add(result.getError());
+                continue;
+            }
+            int batch = result.getBatch();
+            if(batch == 0)
+                continue;
+            batchSizes[batch-1]++;
+            if(!result.isConsistent() && inconsistentTables[batch-1] < 0)
+                inconsistentTables[batch-1] = result.getNumber();
+            if(result.getTally() != null)
+                tallySummary.add(result.getTally());
+        }
+    }
+    
+    /**
+     * Checks consistency of opened keys i.e. if H(plain||decomm)=comm. 
+     * Checks are started as soon as opened keys are extracted, here their 
+     * results are collected. 
+     * @param keys data tables containing opened keys. 
+     * @param checks results of started checks or null if checks should be 
+     * started now. 
+     * @param results results of tables warnings are added to. 
+     */
+    private void checkOpenedKeysCorrectness(DataTable[] keys, 
+            List<Future<boolean[]>> checks, Map<Integer, TableResult> results)
+    {
+        if(checks == null)
+            checks = keyVerifier.checkTables(executor, keys);
+        for(int t=0; t<keys.length; t++)
+        {
+            boolean[] columns = ParallelKit.getResult(checks.get(t));
             for(int i=0; i<Lib.COL_NUMBER; i++)
             {
-                if(table.getCellKeys()[i].isOpened())
-                    if(checkOpenedKeyCorrectness(
-                            table.getCellKeys()[i].getCommitment(),
-                            table.getCellKeys()[i].getDecommitment(),
-                            table.getCellKeys()[i].getPlaintext()))
-                    {
-//                        System.out.println("Table: "+table.getNumber()+" column: "+(i+1)+" key consistency kept!");
-                    }
-                    else
-                    {
-                        correct = false;
-                        System.out.println("Warning! Table: "+table.getNumber()+" column: "+(i+1)+" key inconsistency found!");
-                    }
+                if(!columns[i])
+                {
+                    String warning = "Warning! Table: "+keys[t].getNumber()+" column: "+(i+1)+" key inconsistency found!";
+                    getResult(results, keys[t].getNumber()).getOpenedKeysWarnings().add(warning);
+                    metrics.inconsistency(keys[t].getNumber(), AuditMetrics.batchOf(keys[t]), 
+                            AuditMetrics.KEY_CHECK, warning);
+                }
             }
         }
-        if(correct)
-            System.out.println("Opened keys consistency kept!");
-        else
-            System.out.println("Warning! Inconsistency found in opened keys!");
-        return correct;
     }
     
     /**
-     * Checks consistency of decommitment and plaintext values of an opened key.
-     * @param openedComm String commitment value.
-     * @param openedDecomm String decommitment value.
-     * @param openedPlain String plaintext value. 
-     * @return true if consistency is kept, false otherwise. 
+     * Prints warnings of table files missing or duplicated found when table 
+     * files were joined on table numbers, if there are any. Tables missing 
+     * in some of the types are not audited. 
+     * @return true if all tables were found exactly once, false otherwise. 
      */
-    private boolean checkOpenedKeyCorrectness(String openedComm,
-            String openedDecomm, String openedPlain)
+    private boolean reportTablesJoin()
     {
-        // performs check if H(plain || decomm) = comm
-        byte [] plain = DatatypeConverter.parseBase64Binary(openedPlain);
-        byte [] decomm = DatatypeConverter.parseBase64Binary(openedDecomm);
-        byte [] digestEntry = new byte [plain.length + decomm.length];
-        System.arraycopy(plain, 0, digestEntry, 0, plain.length);
-        System.arraycopy(decomm, 0, digestEntry, plain.length, decomm.length);
-        byte comm [] = md.digest(digestEntry);
-        String computedComm = DatatypeConverter.printBase64Binary(comm);
-        return openedComm.equals(computedComm);
+        if(tablesJoinWarnings.isEmpty())
+            return true;
+        System.out.println("-------- Tables join check --------");
+        for(String warning : tablesJoinWarnings)
+            System.out.println(warning);
+        System.out.println("Warning! Missing, duplicated or inconsistent table files found!");
+        return false;
+    }
+    
+    /**
+     * Prints errors of tables which could not be audited, if there are any. 
+     * Tables missing or duplicated in table files are not audited either, 
+     * and at least one table has to be audited. 
+     * @return true if the audit is complete, false otherwise. 
+     */
+    private boolean reportAuditErrors()
+    {
+        int audited = 0;
+        for(int size : batchSizes)
+            audited += size;
+        if(audited == 0 && auditErrors.isEmpty())
+            auditErrors.add("Error! No tables were audited!");
+        if(isAuditComplete())
+            return true;
+        System.out.println("-------- Audit errors --------");
+        for(String error : auditErrors)
+            System.out.println(error);
+        if(!tablesJoinWarnings.isEmpty())
+            System.out.println("Error! Missing, duplicated or inconsistent table "
+                    + "files were not audited!");
+        System.out.println("Error! The audit is incomplete, it cannot pass!");
+        return false;
+    }
+    
+    /**
+     * Tells if all tables were audited, i.e. there were no errors of tables 
+     * and no tables missing or duplicated. 
+     * @return true if the audit is complete, false otherwise. 
+     */
+    private boolean isAuditComplete()
+    {
+        return auditErrors.isEmpty() && tablesJoinWarnings.isEmpty();
+    }
+    
+    /**
+     * Prints results of opened keys correctness check. 
+     * @return true if consistency kept, false otherwise.
+     */
+    private boolean reportOpenedKeysCorrectness()
+    {
+        System.out.println("-------- Opened keys correctness check --------");
+        boolean correct = openedKeysWarnings.isEmpty();
+        for(String warning : openedKeysWarnings)
+            System.out.println(warning);
+        if(correct)
+            System.out.println("Opened keys consistency kept!");
+        else
+            System.out.println("Warning! Inconsistency found in opened keys!");
+        return correct;
     }
     
     /**
      * Checks consistency of commitments to keys and commitmenets to opened keys.
-     * @return true if consistency is kept, false otherwise.
+     * @param tables data tables. 
+     * @param keys data tables containing opened keys, in the same order as 
+     * data tables. 
+     * @param results results of tables warnings are added to. 
      */
-    private boolean checkKeyCommitmentsConsistency()
+    private void checkKeyCommitmentsConsistency(DataTable[] tables, DataTable[] keys,
+            Map<Integer, TableResult> results)
     {
-        System.out.println("-------- Check keys commitments consistency --------");
-        System.out.println("Checking if commitments of opened keys match those in data tables...");
-        boolean correct = true;
-        for(int i=0; i<dataTablesKeys.length; i++)
+        AuditMetrics.Unit unit = metrics.begin(AuditMetrics.COMMITMENT_CHECK);
+        int opened = 0;
+        for(int i=0; i<keys.length; i++)
         {
             for(int j=0; j<Lib.COL_NUMBER; j++)
             {
-                if(dataTablesKeys[i].getCellKeys()[j].isOpened())
+                if(keys[i].getCellKeys()[j].isOpened())
                 {
-                    if(!dataTablesKeys[i].getCellKeys()[j].getCommitment()
-                            .equals(dataTables[i].getCellKeys()[j].getCommitment()))
+                    opened++;
+                    if(!keys[i].getCellKeys()[j].getCommitment()
+                            .equals(tables[i].getCellKeys()[j].getCommitment()))
                     {
-                        correct = false;
-                        System.out.println("Warning! Table: "+dataTables[i].getNumber()+" column: "+(j+1)+" key commitments to a key"
+                        String warning = "Warning! Table: "+tables[i].getNumber()+" column: "+(j+1)+" key commitments to a key"
                                 + " is different from key commitment to an opened key! Commitment to a key: "
-                            +dataTables[i].getCellKeys()[j].getCommitment()+" commitment to an opened key: "
-                            +dataTablesKeys[i].getCellKeys()[j].getCommitment());
+                            +tables[i].getCellKeys()[j].getCommitment()+" commitment to an opened key: "
+                            +keys[i].getCellKeys()[j].getCommitment();
+                        getResult(results, tables[i].getNumber()).getKeyCommitmentsWarnings()
+                                .add(warning);
+                        metrics.inconsistency(tables[i].getNumber(), AuditMetrics.batchOf(keys[i]), 
+                                AuditMetrics.COMMITMENT_CHECK, warning);
                     } 
-                    else
-                    {
-//                        System.out.println("Table: "+dataTables[i].getNumber()+" column: "+(j+1)+" commitment to a key: "
-//                            +dataTables[i].getCellKeys()[j].getCommitment()+" commitment to an opened key: "
-//                            +dataTablesKeys[i].getCellKeys()[j].getCommitment());
-                    }
                 }
             }
         }
+        unit.end(keys.length, 0, opened, 0);
+    }
+    
+    /**
+     * Prints results of key commitments consistency check. 
+     * @return true if consistency is kept, false otherwise.
+     */
+    private boolean reportKeyCommitmentsConsistency()
+    {
+        System.out.println("-------- Check keys commitments consistency --------");
+        System.out.println("Checking if commitments of opened keys match those in data tables...");
+        boolean correct = keyCommitmentsWarnings.isEmpty();
+        for(String warning : keyCommitmentsWarnings)
+            System.out.println(warning);
         if(correct)
             System.out.println("Consistency of commitments to keys and "
                     + "commitments to opened keys kept!");
@@ -204,152 +1061,262 @@ public class Auditor {
     }
     
     /**
-     * Decrypts columns with opened keys. 
+     * Decrypts columns with opened keys. Tables which cannot be decrypted 
+     * are marked as not audited. 
+     * @param tables data tables to be decrypted. 
+     * @param keys data tables containing opened keys, in the same order as 
+     * data tables. 
+     * @param executor executor used for decryption or null. 
+     * @param results results of tables errors are set in. 
      */
-    private void decryptCells()
+    private void decryptCells(DataTable[] tables, DataTable[] keys, 
+            ExecutorService executor, Map<Integer, TableResult> results)
     {
-        System.out.println("Decrypting data...");
-        DataCellKey[] keys;
-        
-        // for each table
-        for(int i=0; i<dataTables.length; i++)
+        AuditMetrics.Unit unit = metrics.begin(AuditMetrics.DECRYPT);
+        Map<Integer, String> errors = getDecryptionEngine(executor)
+                .decryptTables(tables, keys);
+        for(Map.Entry<Integer, String> error : errors.entrySet())
         {
-            keys = dataTablesKeys[i].getCellKeys();
-            // for each column of a table
-            for(int column=0; column<Lib.COL_NUMBER; column++)
+            getResult(results, error.getKey()).setError("Error! Table: "
+                    +error.getKey()+" could not be audited! "+error.getValue());
+        }
+        long rows = 0;
+        long cells = 0;
+        for(int i=0; i<tables.length; i++)
+        {
+            rows += tables[i].getRowsNumber();
+            for(DataCellKey key : keys[i].getCellKeys())
             {
-                if(keys[column].isOpened())
-                {
-                    DecryptionKit cipher = new DecryptionKit();
-                    cipher.setKey(DatatypeConverter.parseBase64Binary(keys[column].getPlaintext()));
-                    for(DataRow row : dataTables[i].getDataRows())
-                    {
-                        String c = row.getDataCell(column).getCiphertext();
-                        String iv = row.getDataCell(column).getInitialVector();
-                        byte[] byteC = DatatypeConverter.parseBase64Binary(c);
-                        byte[] byteIV = DatatypeConverter.parseBase64Binary(iv);
-                        byte[] out = cipher.decrypt(byteIV,byteC);
-                        String message = DatatypeConverter.printBase64Binary(out);
-                        String messageString = new String(out);
-                        
-//                        row.getDataCell(column).setPlaintext(messageString);
-                        row.getDataCell(column).setPlaintext(message);
-                    }
-                }
+                if(key.isOpened())
+                    cells += tables[i].getRowsNumber();
+            }
+        }
+        unit.end(tables.length, rows, cells, 0);
+    }
+    
+    /**
+     * Returns decryption engine using a specified executor, the engine is 
+     * created when it is used for the first time. 
+     * @param executor executor used for decryption or null. 
+     * @return DecryptionEngine object. 
+     */
+    private synchronized DecryptionEngine getDecryptionEngine(ExecutorService executor)
+    {
+        if(executor == null)
+        {
+            if(serialDecryptionEngine == null)
+            {
+                serialDecryptionEngine = new DecryptionEngine(null, cipherProvider);
+                serialDecryptionEngine.setMetrics(metrics);
+            }
+            return serialDecryptionEngine;
+        }
+        if(decryptionEngine == null)
+        {
+            decryptionEngine = new DecryptionEngine(executor, cipherProvider);
+            decryptionEngine.setMetrics(metrics);
+        }
+        return decryptionEngine;
+    }
+    
+    /**
+     * Removes tables which could not be audited from batches, so they are 
+     * not checked. 
+     * @param batches lists of data tables of each batch. 
+     * @param results results of tables. 
+     */
+    private static void removeFailedTables(List<List<DataTable>> batches, 
+            Map<Integer, TableResult> results)
+    {
+        for(List<DataTable> batch : batches)
+        {
+            Iterator<DataTable> tables = batch.iterator();
+            while(tables.hasNext())
+            {
+                if(results.get(tables.next().getNumber()).getError() != null)
+                    tables.remove();
             }
         }
     }
     
     /**
-     * Copies keys from dataTablesKeys into dataTables and creates batches 
-     * collections.
+     * Copies keys into data tables and splits tables into batches.
+     * @param tables data tables. 
+     * @param keys data tables containing opened keys, in the same order as 
+     * data tables. 
+     * @param results results of tables batches are set in. 
+     * @return lists of data tables of each batch. 
      */
-    private void setDataTableKeys()
+    private List<List<DataTable>> setDataTableKeys(DataTable[] tables, DataTable[] keys,
+            Map<Integer, TableResult> results)
     {
-        for(int i=0; i<dataTables.length; i++)
+        List<List<DataTable>> batches = new ArrayList<>(Lib.BATCHES_NUMBER);
+        for(int i=0; i<Lib.BATCHES_NUMBER; i++)
+            batches.add(new ArrayList<DataTable>());
+        for(int i=0; i<tables.length; i++)
         {
             try {
-                dataTables[i].setCellKeys(dataTablesKeys[i].getCellKeys());
-                batches.get(dataTables[i].getBatch()-1).add(dataTables[i].getNumber());
+                TableResult result = getResult(results, tables[i].getNumber());
+                tables[i].setCellKeys(keys[i].getCellKeys());
+                batches.get(tables[i].getBatch()-1).add(tables[i]);
+                result.setBatch(tables[i].getBatch());
             } catch (AuditException ex) {
                 Logger.getLogger(Auditor.class.getName()).log(Level.SEVERE, null, ex);
             }
         }
+        return batches;
+    }
+    
+    /**
+     * Verifies batch 3 and batch 4 tables in a single pass, results are used 
+     * by consistency checks and tally verification. 
+     * @param batch3Tables data tables of batch 3. 
+     * @param batch4Tables data tables of batch 4. 
+     * @param results results of tables verdicts and tallies are set in. 
+     * @param executor executor used for verification or null. 
+     */
+    private void verifyBatch34Tables(List<DataTable> batch3Tables, 
+            List<DataTable> batch4Tables, Map<Integer, TableResult> results,
+            ExecutorService executor)
+    {
+        AuditMetrics.Unit unit = metrics.begin(AuditMetrics.TALLY);
+        TallyVerifier verifier = new TallyVerifier(executor);
+        setTallies(verifier.verifyTables(batch3Tables, 3), results);
+        setTallies(verifier.verifyTables(batch4Tables, 4), results);
+        unit.end(batch3Tables.size() + batch4Tables.size(), 
+                countRows(batch3Tables) + countRows(batch4Tables), 0, 0);
+    }
+    
+    /**
+     * Sets tallies and consistency verdicts of tables. 
+     * @param tallies tallies of batch 3 or batch 4 tables. 
+     * @param results results of tables. 
+     */
+    private void setTallies(TableTally[] tallies, Map<Integer, TableResult> results)
+    {
+        for(TableTally tally : tallies)
+        {
+            TableResult result = getResult(results, tally.getNumber());
+            result.setTally(tally);
+            result.setConsistent(tally.isConsistent());
+            if(!tally.isConsistent())
+                metrics.inconsistency(tally.getNumber(), result.getBatch(), 
+                        AuditMetrics.TALLY, "Batch "+result.getBatch()
+                        +" table "+tally.getNumber()+" is inconsistent!");
+        }
     }
     
     /**
      * Checks if data for each batch is correct. 
-     * @return true if consistency of data is kept and false otherwise. 
+     * @return true if consistency of data is kept and all tables were 
+     * audited, false otherwise. 
      */
     private boolean checkBatchesConsistency()
     {
         System.out.println("-------- Check batches correctness --------");
         int sum = 0;
-        for(int i=0; i<batches.size(); i++)
+        for(int i=0; i<batchSizes.length; i++)
         {
-            System.out.println("Batch "+(i+1)+" - " + batches.get(i).size()+" table(s)");
-            sum+=batches.get(i).size();
+            System.out.println("Batch "+(i+1)+" - " + batchSizes[i]+" table(s)");
+            sum+=batchSizes[i];
         }
         System.out.println(sum+" table(s) in total");
-        return checkBatch1Consistency() && checkBatch3Consistency() && checkBatch4Consistency();
+        return reportBatchConsistency(1) && reportBatchConsistency(3) 
+                && reportBatchConsistency(4) && isAuditComplete();
     }
     
     /**
-     * Chekcs if data for tables in batch 1 is correct.
+     * Prints result of consistency check of tables of a batch. 
+     * @param batch int value of batch number (1, 3 or 4). 
      * @return true if consistency of data is kept and false otherwise. 
      */
-    private boolean checkBatch1Consistency()
+    private boolean reportBatchConsistency(int batch)
     {
-        DataTable table;
-        System.out.println("Batch 1 tables consistency check...");
-        for(int i=0; i<batches.get(0).size(); i++)
+        System.out.println("Batch "+batch+" tables consistency check...");
+        if(inconsistentTables[batch-1] >= 0)
         {
-            table = dataTables[batches.get(0).get(i)];
-            for(DataRow row : table.getDataRows())
-            {
-                String col1 = row.getDataCell(Lib.COL_HEADER_SN_AND_VC).getPlaintextASCIIEncoded();
-                String col2 = row.getDataCell(Lib.COL_HEADER_P_CHECK).getPlaintextASCIIEncoded();
-                String [] col1Split;
-                col1Split = col1.split(Lib.COL_SN_AND_VC_DELIMITING_CHAR);
-                
-                String voted = row.getDataCell(Lib.COL_HEADER_MARK_VOTED).getPlaintextASCIIEncoded();
-                if(!(col1Split[1].equals(col2) || col2.equals(Lib.COL_VALUE_NOT_CHECKED)))
-                {
-                    System.out.println("Inconsistency found! Batch 1 table "+table.getNumber());
-                    return false;
-                }   
-            }
+            System.out.println("Inconsistency found! Batch "+batch+" table "+inconsistentTables[batch-1]);
+            return false;
         }
-        System.out.println("Batch 1 tables consistency kept!");
+        if(isAuditComplete())
+            System.out.println("Batch "+batch+" tables consistency kept!");
+        else
+            System.out.println("Batch "+batch+" tables consistency kept in "
+                    + "audited tables only!");
         return true;
     }
     
     /**
-     * Checks if data for tables in batch 3 and 4 is correct. 
-     * @param column1 pre summand values column.
-     * @param column2 final summand values column.
-     * @param batch int value of batch number (3 or 4). 
-     * @return true if consistency of data is kept and false otherwise. 
+     * Chekcs if data for tables in batch 1 is correct, checking of a table 
+     * stops at its first inconsistent row. 
+     * @param tables data tables of batch 1. 
+     * @param results results of tables verdicts are set in. 
      */
-    private boolean checkBatch34Consistency(int column1, int column2, int batch)
+    private void checkBatch1Consistency(List<DataTable> tables, 
+            Map<Integer, TableResult> results)
     {
-        DataTable table;
-        System.out.println("Batch "+batch+" tables consistency check...");
-        for(int i=0; i<batches.get(batch-1).size(); i++)
+        AuditMetrics.Unit unit = metrics.begin(AuditMetrics.BATCH_CHECKS);
+        byte notCheckedCode = Lib.valueCode(Lib.COL_VALUE_NOT_CHECKED);
+        byte delimiter = (byte)Lib.COL_SN_AND_VC_DELIMITING_CHAR.charAt(0);
+        for(DataTable table : tables)
         {
-            table = dataTables[batches.get(batch-1).get(i)];
-            for(DataRow row : table.getDataRows())
+            ColumnStore col1 = table.getColumn(Lib.COL_HEADER_SN_AND_VC);
+            ColumnStore col2 = table.getColumn(Lib.COL_HEADER_P_CHECK);
+            for(int row=0; row<table.getRowsNumber(); row++)
             {
-                String col1 = row.getDataCell(column1).getPlaintextASCIIEncoded();
-                String col2 = row.getDataCell(column2).getPlaintextASCIIEncoded();
+                // vote code is the part of column 1 after serial number
+                int end = Math.max(col1.getPlaintextLength(row), 0);
+                int codeStart = indexOf(col1, row, delimiter, 0, end) + 1;
+                int codeEnd = codeStart > 0 ? indexOf(col1, row, delimiter, codeStart, end) : -1;
+                if(codeEnd < 0)
+                    codeEnd = end;
                 
-                if(!(col1.equals(col2) || col1.equals(Lib.COL_VALUE_FAKE_VOTE)))
+                if(!((codeStart > 0 && col2.plaintextRangeEquals(row, col1, row, 
+                        codeStart, codeEnd - codeStart))
+                        || col2.getPlaintextCode(row) == notCheckedCode))
                 {
-                    System.out.println("Inconsistency found! Batch "+batch+" table "+table.getNumber());
-                    return false;
-                }
+                    getResult(results, table.getNumber()).setConsistent(false);
+                    metrics.inconsistency(table.getNumber(), 1, AuditMetrics.BATCH_CHECKS, 
+                            "Batch 1 table "+table.getNumber()+" row "+(row+1)
+                            +" is inconsistent!");
+                    break;
+                }   
             }
         }
-        System.out.println("Batch "+batch+" tables consistency kept!");
-        return true;
+        unit.end(tables.size(), countRows(tables), 0, 0);
     }
     
     /**
-     * Chekcs if data for tables in batch 3 is correct.
-     * @return true if consistency of data is kept and false otherwise. 
+     * Counts rows of data tables. 
+     * @param tables data tables. 
+     * @return long number of rows of all tables. 
      */
-    private boolean checkBatch3Consistency()
+    private static long countRows(List<DataTable> tables)
     {
-        return checkBatch34Consistency(Lib.COL_HEADER_PRE_SUM_A, Lib.COL_HEADER_FINAL_SUM_A, 3);
+        long rows = 0;
+        for(DataTable table : tables)
+            rows += table.getRowsNumber();
+        return rows;
     }
     
     /**
-     * Chekcs if data for tables in batch 4 is correct.
-     * @return true if consistency of data is kept and false otherwise. 
+     * Returns index of the first occurrence of a byte in a range of 
+     * plaintext of a cell.
+     * @param store store of the column. 
+     * @param row int row index of the cell. 
+     * @param b byte to be found. 
+     * @param start int index of range beginning. 
+     * @param end int index of range end (exclusive). 
+     * @return int index of the byte or -1 if not found. 
      */
-    private boolean checkBatch4Consistency()
+    private static int indexOf(ColumnStore store, int row, byte b, int start, int end)
     {
-        return checkBatch34Consistency(Lib.COL_HEADER_PRE_SUM_B, Lib.COL_HEADER_FINAL_SUM_B, 4);
+        for(int i=start; i<end; i++)
+        {
+            if(store.getPlaintextByte(row, i) == b)
+                return i;
+        }
+        return -1;
     }
     
     /**
@@ -359,95 +1326,17 @@ public class Auditor {
      */
     private boolean verifyTally() throws AuditException
     {
-        DataTable table;
-        int size = batches.get(2).size()+batches.get(3).size();
-        int [] yes = new int [size];
-        int [] no = new int [size];
-        int [] real = new int [size];
-        int [] fake = new int [size];
-        int [] realVoted = new int [size];
-        int [] fakeVoted = new int [size];
-        
-        int counter = 0;
-        // batch 3
-        for(int i=0; i<batches.get(2).size(); i++)
-        {
-            yes[counter] = 0;
-            no[counter] = 0;
-            real[counter] = 0;
-            fake[counter] = 0;
-            realVoted[counter] = 0;
-            fakeVoted[counter] = 0;
-            
-            table = dataTables[batches.get(2).get(i)];
-            for(DataRow row : table.getDataRows())
-            {
-                String preA = row.getDataCell(Lib.COL_HEADER_PRE_SUM_A).getPlaintextASCIIEncoded();
-                String finA = row.getDataCell(Lib.COL_HEADER_FINAL_SUM_A).getPlaintextASCIIEncoded();
-                String voted = row.getDataCell(Lib.COL_HEADER_MARK_VOTED).getPlaintextASCIIEncoded();
-                
-                if(preA.equals(finA))
-                {
-                    real[counter]++;
-                    if(voted.equals(Lib.COL_VALUE_VOTED))
-                    {
-                        realVoted[counter]++;
-                        String vote = row.getDataCell(Lib.COL_HEADER_POSS_VOTE).getPlaintextASCIIEncoded();
-                        if(vote.equals(Lib.COL_VALUE_YES_VOTE))
-                            yes[counter]++;
-                        else if (vote.equals(Lib.COL_VALUE_NO_VOTE))
-                            no[counter]++;
-                        else throw new AuditException(("Wrong value in column 3 - possible votes found!"));
-                    }
-                } else
-                {
-                    fake[counter]++;
-                    if(voted.equals(Lib.COL_VALUE_VOTED))
-                        fakeVoted[counter]++;
-                }
-            }
-            counter++;
+        if(!isAuditComplete())
+        {
+            System.out.println("------- Tally verification -------");
+            System.out.println("Warning! Tally cannot be verified, not all "
+                    + "tables were audited!");
+            return false;
         }
+        if(tallySummary.getWrongVoteValueBatch() > 0)
+            throw new AuditException(("Wrong value in column "
+                    +tallySummary.getWrongVoteValueBatch()+" - possible votes found!"));
         
-        // batch 4
-        for(int i=0; i<batches.get(3).size(); i++)
-        {
-            yes[counter] = 0;
-            no[counter] = 0;
-            real[counter] = 0;
-            fake[counter] = 0;
-            realVoted[counter] = 0;
-            fakeVoted[counter] = 0;
-            
-            table = dataTables[batches.get(3).get(i)];
-            for(DataRow row : table.getDataRows())
-            {
-                String preB = row.getDataCell(Lib.COL_HEADER_PRE_SUM_B).getPlaintextASCIIEncoded();
-                String finB = row.getDataCell(Lib.COL_HEADER_FINAL_SUM_B).getPlaintextASCIIEncoded();
-                String voted = row.getDataCell(Lib.COL_HEADER_MARK_VOTED).getPlaintextASCIIEncoded();
-                
-                if(preB.equals(finB))
-                {
-                    real[counter]++;
-                    if(voted.equals(Lib.COL_VALUE_VOTED))
-                    {
-                        realVoted[counter]++;
-                        String vote = row.getDataCell(Lib.COL_HEADER_POSS_VOTE).getPlaintextASCIIEncoded();
-                        if(vote.equals(Lib.COL_VALUE_YES_VOTE))
-                            yes[counter]++;
-                        else if (vote.equals(Lib.COL_VALUE_NO_VOTE))
-                            no[counter]++;
-                        else throw new AuditException(("Wrong value in column 4 - possible votes found!"));
-                    }
-                } else
-                {
-                    fake[counter]++;
-                    if(voted.equals(Lib.COL_VALUE_VOTED))
-                        fakeVoted[counter]++;
-                }
-            }
-            counter++;
-        }
         int yeses = -1;
         int nos = -1;
         int reals = -1;
@@ -456,52 +1345,21 @@ public class Auditor {
         int fakesVoted = -1;
         boolean error = false;
         
-        if(size>0)
+        TableTally reference = tallySummary.getReference();
+        if(reference != null)
         {
-            yeses = yes[0];
-            nos = no[0];
-            reals = real[0];
-            fakes = fake[0];
-            realsVoted = realVoted[0];
-            fakesVoted = fakeVoted[0];
+            yeses = reference.getYes();
+            nos = reference.getNo();
+            reals = reference.getReal();
+            fakes = reference.getFake();
+            realsVoted = reference.getRealVoted();
+            fakesVoted = reference.getFakeVoted();
         }
       
-        try
+        // verify tally from different tables
+        if(tallySummary.getDifference() != null)
         {
-            // verify tally from different tables
-            for(int i=1; i<yes.length; i++)
-            {
-                if(yes[i]!=yeses || no[i]!=nos)
-                    throw new AuditException("Critical error found when verifying "
-                            + "a tally! Different number of YES/NO votes in "
-                            + "different tables!");
-
-
-                if(real[i] != reals)
-                    throw new AuditException("Critical error found when verifying"
-                            + "a tally! Different number of real votes in "
-                            + "different tables!");
-
-                if(fake[i] != fakes)
-                    throw new AuditException("Critical error found when verifying"
-                            + "a tally! Different number of fake votes in "
-                            + "different tables!");
-
-                if(fakeVoted[i] != fakesVoted)
-                    throw new AuditException("Critical error found when verifying"
-                            + "a tally! Different number of real votes voted in "
-                            + "different tables!");
-
-                if(realVoted[i] != realsVoted)
-                    throw new AuditException("Critical error found when verifying"
-                            + "a tally! Different number of fake votes voted in "
-                            + "different tables!");
-
-
-            }
-        } catch(AuditException ae)
-        {
-            System.out.println(ae.getMessage());
+            System.out.println(tallySummary.getDifference());
             error = true;
         }
         if(!error)
@@ -518,4 +1376,27 @@ public class Auditor {
         }
         return !error;
     }
+    
+    /**
+     * Table audited in pipeline mode, passed from one stage to another. 
+     */
+    private static class PipelineItem
+    {
+        private final int index;
+        private final Map<Integer, TableResult> results;
+        private DataTable[] keys;
+        private DataTable[] tables;
+        private List<List<DataTable>> batches;
+        private AuditException error;
+        
+        /**
+         * Default constructor. 
+         * @param index int index of the table in the index of table files. 
+         */
+        PipelineItem(int index)
+        {
+            this.index = index;
+            results = new TreeMap<>();
+        }
+    }
 }
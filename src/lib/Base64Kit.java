@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package lib;
+
+import java.util.Arrays;
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Toolkit used for base64 decoding into existing buffers, without 
+ * allocation of temporary arrays. Decoding is as lenient as 
+ * DatatypeConverter.parseBase64Binary() - characters out of base64 alphabet 
+ * are skipped and incomplete quadruplets at the end are ignored. 
+ * @author Maciej Kosarzecki
+ */
+public class Base64Kit {
+    
+    /**
+     * Value of padding character in decoding map. 
+     */
+    private static final byte PADDING = 64;
+    
+    /**
+     * Value of characters out of base64 alphabet in decoding map. 
+     */
+    private static final byte INVALID = -1;
+    
+    /**
+     * Decoding map of characters to 6 bit values. 
+     */
+    private static final byte[] DECODE_MAP = new byte[128];
+    
+    static
+    {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        Arrays.fill(DECODE_MAP, INVALID);
+        for(int i=0; i<alphabet.length(); i++)
+            DECODE_MAP[alphabet.charAt(i)] = (byte)i;
+        DECODE_MAP['='] = PADDING;
+    }
+    
+    /**
+     * Returns max number of bytes decoded from a base64 String. 
+     * @param s base64 encoded String. 
+     * @return int max length of decoded data. 
+     */
+    public static int maxDecodedLength(String s)
+    {
+        return maxDecodedLength(s.length());
+    }
+    
+    /**
+     * Returns max number of bytes decoded from base64 data. 
+     * @param length int length of base64 encoded data. 
+     * @return int max length of decoded data. 
+     */
+    public static int maxDecodedLength(int length)
+    {
+        return (length/4)*3 + 3;
+    }
+    
+    /**
+     * Decodes base64 String into a specified buffer. 
+     * @param s base64 encoded String. 
+     * @param out destination buffer, it must have at least 
+     * maxDecodedLength(s) bytes from offset. 
+     * @param offset offset in destination buffer. 
+     * @return int number of decoded bytes. 
+     */
+    public static int decode(String s, byte[] out, int offset)
+    {
+        int position = offset;
+        int quadruplet = 0;
+        int count = 0;
+        int paddings = 0;
+        
+        for(int i=0; i<s.length(); i++)
+        {
+            char c = s.charAt(i);
+            byte value = c < 128 ? DECODE_MAP[c] : INVALID;
+            if(value == INVALID)
+                continue;
+            if(value == PADDING)
+            {
+                paddings++;
+                value = 0;
+            }
+            quadruplet = (quadruplet << 6) | value;
+            count++;
+            if(count == 4)
+            {
+                out[position++] = (byte)(quadruplet >> 16);
+                if(paddings < 2)
+                    out[position++] = (byte)(quadruplet >> 8);
+                if(paddings < 1)
+                    out[position++] = (byte)quadruplet;
+                quadruplet = 0;
+                count = 0;
+                paddings = 0;
+            }
+        }
+        return position - offset;
+    }
+    
+    /**
+     * Decodes a range of base64 encoded ASCII bytes into a specified buffer. 
+     * @param in buffer containing base64 encoded data. 
+     * @param start offset of encoded data. 
+     * @param end offset of encoded data end (exclusive). 
+     * @param out destination buffer, it must have at least 
+     * maxDecodedLength(end-start) bytes from offset. 
+     * @param offset offset in destination buffer. 
+     * @return int number of decoded bytes. 
+     */
+    public static int decode(byte[] in, int start, int end, byte[] out, int offset)
+    {
+        int position = offset;
+        int quadruplet = 0;
+        int count = 0;
+        int paddings = 0;
+        
+        for(int i=start; i<end; i++)
+        {
+            int c = in[i] & 0xff;
+            byte value = c < 128 ? DECODE_MAP[c] : INVALID;
+            if(value == INVALID)
+                continue;
+            if(value == PADDING)
+            {
+                paddings++;
+                value = 0;
+            }
+            quadruplet = (quadruplet << 6) | value;
+            count++;
+            if(count == 4)
+            {
+                out[position++] = (byte)(quadruplet >> 16);
+                if(paddings < 2)
+                    out[position++] = (byte)(quadruplet >> 8);
+                if(paddings < 1)
+                    out[position++] = (byte)quadruplet;
+                quadruplet = 0;
+                count = 0;
+                paddings = 0;
+            }
+        }
+        return position - offset;
+    }
+    
+    /**
+     * Encodes a range of bytes into base64 String. 
+     * @param data buffer containing data. 
+     * @param offset offset of data in buffer. 
+     * @param length length of data. 
+     * @return base64 encoded String. 
+     */
+    public static String encode(byte[] data, int offset, int length)
+    {
+        byte[] range = new byte[length];
+        System.arraycopy(data, offset, range, 0, length);
+        return DatatypeConverter.printBase64Binary(range);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only byte arena backed by a byte buffer, e.g. a region of a mapped 
+ * snapshot file. Offsets are positions in the buffer, data is not copied 
+ * when the arena is created. 
+ * @author Maciej Kosarzecki
+ */
+public class BufferArena extends ByteArena {
+    
+    /**
+     * Buffer containing data, its position and limit are not used. 
+     */
+    private final ByteBuffer buffer;
+    
+    /**
+     * Default constructor. 
+     * @param buffer buffer containing data starting at index 0. 
+     */
+    public BufferArena(ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+    }
+    
+    @Override
+    public int append(byte[] buffer, int offset, int length)
+    {
+        throw new UnsupportedOperationException("Buffer arena is read-only");
+    }
+    
+    @Override
+    public byte get(int offset) { return buffer.get(offset); }
+    
+    @Override
+    public void get(int offset, byte[] buffer, int bufferOffset, int length)
+    {
+        // duplicate keeps the arena safe for concurrent readers
+        ByteBuffer view = this.buffer.duplicate();
+        view.position(offset);
+        view.get(buffer, bufferOffset, length);
+    }
+    
+    @Override
+    public void trimToSize()
+    {
+        // buffer is not owned by the arena
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+/**
+ * Append-only storage of bytes of a column store. Data appended to 
+ * the arena is addressed by int offsets returned by append(), offsets are 
+ * meaningful only for the arena that returned them. 
+ * @author Maciej Kosarzecki
+ */
+public abstract class ByteArena {
+    
+    /**
+     * Appends a range of a buffer to the arena. 
+     * @param buffer buffer containing data. 
+     * @param offset offset of data in buffer. 
+     * @param length length of data. 
+     * @return int offset of appended data in the arena. 
+     */
+    public abstract int append(byte[] buffer, int offset, int length);
+    
+    /**
+     * Returns a single byte of the arena. 
+     * @param offset int offset of the byte. 
+     * @return byte value. 
+     */
+    public abstract byte get(int offset);
+    
+    /**
+     * Copies data of the arena to a buffer. 
+     * @param offset int offset of data in the arena. 
+     * @param buffer destination buffer. 
+     * @param bufferOffset offset in destination buffer. 
+     * @param length length of data. 
+     */
+    public abstract void get(int offset, byte[] buffer, int bufferOffset, int length);
+    
+    /**
+     * Releases unused capacity of the arena. 
+     */
+    public abstract void trimToSize();
+    
+    /**
+     * Releases memory of the arena, the arena must not be used afterwards. 
+     * Memory on the heap is left to the garbage collector. 
+     */
+    public void release()
+    {
+        // nothing to release by default
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package lib;
+
+import java.util.Arrays;
+
+/**
+ * Batch of initial vector and ciphertext pairs of a chunk of a column 
+ * decrypted at once.
+ * Decoded bytes of all cells are kept in a single buffer, plaintexts are 
+ * described by offsets and lengths in an output buffer supplied by the caller.
+ * Batch can be cleared and reused for the next chunk. 
+ * @author Maciej Kosarzecki
+ */
+public class CellBatch {
+    
+    /**
+     * Initial capacity of the batch in cells. 
+     */
+    private static final int INITIAL_CAPACITY = 256;
+    
+    /**
+     * Buffer with decoded initial vectors and ciphertexts. 
+     */
+    private byte[] input;
+    
+    /**
+     * Number of used bytes of input buffer. 
+     */
+    private int inputLength;
+    
+    /**
+     * Total length of ciphertexts in the batch. 
+     */
+    private int ciphertextsLength;
+    
+    /**
+     * Offsets of initial vectors in input buffer. 
+     */
+    private int[] ivOffsets;
+    
+    /**
+     * Lengths of initial vectors. 
+     */
+    private int[] ivLengths;
+    
+    /**
+     * Offsets of ciphertexts in input buffer. 
+     */
+    private int[] ciphertextOffsets;
+    
+    /**
+     * Lengths of ciphertexts. 
+     */
+    private int[] ciphertextLengths;
+    
+    /**
+     * Offsets of plaintexts in output buffer. 
+     */
+    private int[] plaintextOffsets;
+    
+    /**
+     * Lengths of plaintexts, -1 if a cell could not be decrypted. 
+     */
+    private int[] plaintextLengths;
+    
+    /**
+     * Number of cells in the batch. 
+     */
+    private int size;
+    
+    /**
+     * Default constructor. 
+     */
+    public CellBatch()
+    {
+        input = new byte[INITIAL_CAPACITY*64];
+        ivOffsets = new int[INITIAL_CAPACITY];
+        ivLengths = new int[INITIAL_CAPACITY];
+        ciphertextOffsets = new int[INITIAL_CAPACITY];
+        ciphertextLengths = new int[INITIAL_CAPACITY];
+        plaintextOffsets = new int[INITIAL_CAPACITY];
+        plaintextLengths = new int[INITIAL_CAPACITY];
+    }
+    
+    /**
+     * Removes all cells from the batch, buffers are kept for reuse. 
+     */
+    public void clear()
+    {
+        size = 0;
+        inputLength = 0;
+        ciphertextsLength = 0;
+    }
+    
+    /**
+     * Adds a cell to the batch. 
+     * @param initialVector base64 encoded initial vector. 
+     * @param ciphertext base64 encoded ciphertext. 
+     */
+    public void add(String initialVector, String ciphertext)
+    {
+        ensureCapacity(Base64Kit.maxDecodedLength(initialVector) 
+                + Base64Kit.maxDecodedLength(ciphertext));
+        ivOffsets[size] = inputLength;
+        ivLengths[size] = Base64Kit.decode(initialVector, input, inputLength);
+        inputLength += ivLengths[size];
+        ciphertextOffsets[size] = inputLength;
+        ciphertextLengths[size] = Base64Kit.decode(ciphertext, input, inputLength);
+        inputLength += ciphertextLengths[size];
+        ciphertextsLength += ciphertextLengths[size];
+        size++;
+    }
+    
+    /**
+     * Adds a cell given as raw bytes to the batch. 
+     * @param initialVector byte representation of initial vector. 
+     * @param ciphertext byte representation of ciphertext. 
+     */
+    public void add(byte[] initialVector, byte[] ciphertext)
+    {
+        ensureCapacity(initialVector.length + ciphertext.length);
+        ivOffsets[size] = inputLength;
+        ivLengths[size] = initialVector.length;
+        System.arraycopy(initialVector, 0, input, inputLength, initialVector.length);
+        inputLength += initialVector.length;
+        ciphertextOffsets[size] = inputLength;
+        ciphertextLengths[size] = ciphertext.length;
+        System.arraycopy(ciphertext, 0, input, inputLength, ciphertext.length);
+        inputLength += ciphertext.length;
+        ciphertextsLength += ciphertext.length;
+        size++;
+    }
+    
+    /**
+     * Adds a cell stored in a byte arena to the batch. 
+     * @param arena arena containing initial vector directly followed by 
+     * ciphertext. 
+     * @param offset offset of initial vector in the arena. 
+     * @param ivLength length of initial vector. 
+     * @param ciphertextLength length of ciphertext. 
+     */
+    public void add(ByteArena arena, int offset, int ivLength, int ciphertextLength)
+    {
+        ensureCapacity(ivLength + ciphertextLength);
+        if(ivLength + ciphertextLength > 0)
+            arena.get(offset, input, inputLength, ivLength + ciphertextLength);
+        ivOffsets[size] = inputLength;
+        ivLengths[size] = ivLength;
+        inputLength += ivLength;
+        ciphertextOffsets[size] = inputLength;
+        ciphertextLengths[size] = ciphertextLength;
+        inputLength += ciphertextLength;
+        ciphertextsLength += ciphertextLength;
+        size++;
+    }
+    
+    /**
+     * Returns number of cells in the batch. 
+     * @return int number of cells. 
+     */
+    public int size() { return size; }
+    
+    /**
+     * Returns total length of ciphertexts, i.e. minimal size of output buffer. 
+     * @return int total length of ciphertexts. 
+     */
+    public int getCiphertextsLength() { return ciphertextsLength; }
+    
+    /**
+     * Returns buffer with decoded initial vectors and ciphertexts. 
+     * @return input buffer. 
+     */
+    byte[] getInput() { return input; }
+    
+    /**
+     * Returns offset of initial vector of a cell in input buffer. 
+     * @param cell int index of a cell. 
+     * @return int offset of initial vector. 
+     */
+    int getInitialVectorOffset(int cell) { return ivOffsets[cell]; }
+    
+    /**
+     * Returns length of initial vector of a cell. 
+     * @param cell int index of a cell. 
+     * @return int length of initial vector. 
+     */
+    int getInitialVectorLength(int cell) { return ivLengths[cell]; }
+    
+    /**
+     * Returns offset of ciphertext of a cell in input buffer. 
+     * @param cell int index of a cell. 
+     * @return int offset of ciphertext. 
+     */
+    int getCiphertextOffset(int cell) { return ciphertextOffsets[cell]; }
+    
+    /**
+     * Returns length of ciphertext of a cell. 
+     * @param cell int index of a cell. 
+     * @return int length of ciphertext. 
+     */
+    int getCiphertextLength(int cell) { return ciphertextLengths[cell]; }
+    
+    /**
+     * Sets location of decrypted plaintext of a cell in output buffer. 
+     * @param cell int index of a cell. 
+     * @param offset int offset of plaintext. 
+     * @param length int length of plaintext, -1 if not decrypted. 
+     */
+    void setPlaintext(int cell, int offset, int length)
+    {
+        plaintextOffsets[cell] = offset;
+        plaintextLengths[cell] = length;
+    }
+    
+    /**
+     * Returns offset of decrypted plaintext of a cell in output buffer. 
+     * @param cell int index of a cell. 
+     * @return int offset of plaintext. 
+     */
+    public int getPlaintextOffset(int cell) { return plaintextOffsets[cell]; }
+    
+    /**
+     * Returns length of decrypted plaintext of a cell. 
+     * @param cell int index of a cell. 
+     * @return int length of plaintext or -1 if cell could not be decrypted. 
+     */
+    public int getPlaintextLength(int cell) { return plaintextLengths[cell]; }
+    
+    /**
+     * Enlarges buffers for one more cell of a specified length. 
+     * @param length int max number of bytes of the cell. 
+     */
+    private void ensureCapacity(int length)
+    {
+        if(size == ivOffsets.length)
+        {
+            int capacity = size*2;
+            ivOffsets = Arrays.copyOf(ivOffsets, capacity);
+            ivLengths = Arrays.copyOf(ivLengths, capacity);
+            ciphertextOffsets = Arrays.copyOf(ciphertextOffsets, capacity);
+            ciphertextLengths = Arrays.copyOf(ciphertextLengths, capacity);
+            plaintextOffsets = Arrays.copyOf(plaintextOffsets, capacity);
+            plaintextLengths = Arrays.copyOf(plaintextLengths, capacity);
+        }
+        if(inputLength + length > input.length)
+            input = Arrays.copyOf(input, Math.max(input.length*2, inputLength + length));
+    }
+}
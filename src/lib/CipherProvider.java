@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package lib;
+
+/**
+ * Providers of ciphers used for cells decryption. 
+ * @author Maciej Kosarzecki
+ */
+public enum CipherProvider {
+    
+    /**
+     * BouncyCastle AES/CBC/ZeroBytePadding cipher. 
+     */
+    BC("AES/CBC/ZeroBytePadding", "AES/ECB/NoPadding", "BC", false),
+    
+    /**
+     * JDK AES/CBC/NoPadding cipher (AES-NI accelerated on most platforms), 
+     * zero byte padding is stripped by DecryptionKit. 
+     */
+    JDK("AES/CBC/NoPadding", "AES/ECB/NoPadding", null, true);
+    
+    /**
+     * String cipher transformation. 
+     */
+    private final String transformation;
+    
+    /**
+     * String transformation of raw block cipher used for batch decryption, 
+     * CBC chaining and padding are handled by DecryptionKit. 
+     */
+    private final String blockTransformation;
+    
+    /**
+     * String name of security provider, null for JDK default. 
+     */
+    private final String provider;
+    
+    /**
+     * Determines if zero byte padding has to be stripped after decryption. 
+     */
+    private final boolean strippingPadding;
+    
+    /**
+     * Default constructor. 
+     * @param transformation String cipher transformation. 
+     * @param blockTransformation String raw block cipher transformation. 
+     * @param provider String name of security provider or null. 
+     * @param strippingPadding true if padding has to be stripped. 
+     */
+    private CipherProvider(String transformation, String blockTransformation,
+            String provider, boolean strippingPadding)
+    {
+        this.transformation = transformation;
+        this.blockTransformation = blockTransformation;
+        this.provider = provider;
+        this.strippingPadding = strippingPadding;
+    }
+    
+    /**
+     * Returns cipher transformation. 
+     * @return String cipher transformation. 
+     */
+    public String getTransformation() { return transformation; }
+    
+    /**
+     * Returns raw block cipher transformation. 
+     * @return String raw block cipher transformation. 
+     */
+    public String getBlockTransformation() { return blockTransformation; }
+    
+    /**
+     * Returns name of security provider. 
+     * @return String name of security provider or null for JDK default. 
+     */
+    public String getProvider() { return provider; }
+    
+    /**
+     * Tells if zero byte padding has to be stripped after decryption. 
+     * @return true if padding has to be stripped, false otherwise. 
+     */
+    public boolean isStrippingPadding() { return strippingPadding; }
+}
@@ -0,0 +1,487 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Storage of a single column of a data table. Decoded initial vectors and 
+ * ciphertexts of all cells are kept in one byte arena, plaintexts of 
+ * the column in another one, cells are described by offsets and lengths 
+ * in primitive arrays. No objects are created per cell - DataRow and 
+ * DataCell are only views of column stores. Arenas are kept on the heap or 
+ * off the heap depending on table memory. 
+ * @author Maciej Kosarzecki
+ */
+public class ColumnStore {
+    
+    /**
+     * Initial capacity of the store in cells. 
+     */
+    private static final int INITIAL_CAPACITY = 64;
+    
+    /**
+     * Initial capacity of data arena in bytes. 
+     */
+    private static final int INITIAL_DATA_CAPACITY = INITIAL_CAPACITY*32;
+    
+    /**
+     * Buffers used for decoding of cells before they are appended to arena. 
+     */
+    private static final ThreadLocal<byte[]> decodingBuffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue()
+        {
+            return new byte[256];
+        }
+    };
+    
+    /**
+     * Memory arenas are created in. 
+     */
+    private final TableMemory memory;
+    
+    /**
+     * Arena with decoded initial vectors and ciphertexts, the initial vector 
+     * of a cell is directly followed by its ciphertext. 
+     */
+    private ByteArena data;
+    
+    /**
+     * Offsets of cells in data arena, null until the first non empty cell 
+     * is added. 
+     */
+    private int[] cellOffsets;
+    
+    /**
+     * Lengths of initial vectors. 
+     */
+    private int[] ivLengths;
+    
+    /**
+     * Lengths of ciphertexts, -1 for empty cells. 
+     */
+    private int[] ciphertextLengths;
+    
+    /**
+     * Arena with plaintexts of decrypted cells. 
+     */
+    private ByteArena plaintexts;
+    
+    /**
+     * Offsets of plaintexts in plaintext arena. 
+     */
+    private int[] plaintextOffsets;
+    
+    /**
+     * Lengths of plaintexts, -1 if a cell is not decrypted. 
+     */
+    private int[] plaintextLengths;
+    
+    /**
+     * Codes of plaintext values (see Lib.valueCode()). 
+     */
+    private byte[] plaintextCodes;
+    
+    /**
+     * Number of cells in the store. 
+     */
+    private int size;
+    
+    /**
+     * Default constructor, arenas are kept on the heap. 
+     */
+    public ColumnStore()
+    {
+        this(TableMemory.HEAP);
+    }
+    
+    /**
+     * Constructor of a store keeping arenas in a specified memory. 
+     * @param memory memory of arenas. 
+     */
+    public ColumnStore(TableMemory memory)
+    {
+        this.memory = memory;
+    }
+    
+    /**
+     * Returns number of cells in the store. 
+     * @return int number of cells. 
+     */
+    public int size() { return size; }
+    
+    /**
+     * Adds an empty cell to the store. 
+     */
+    public void addEmptyCell()
+    {
+        if(ciphertextLengths != null)
+        {
+            ensureCapacity();
+            ciphertextLengths[size] = -1;
+        }
+        size++;
+    }
+    
+    /**
+     * Adds a cell given as base64 encoded initial vector and ciphertext 
+     * ranges of a buffer. 
+     * @param buffer buffer containing data cell. 
+     * @param ivStart offset of initial vector. 
+     * @param ivEnd offset of initial vector end (exclusive). 
+     * @param ciphertextStart offset of ciphertext. 
+     * @param ciphertextEnd offset of ciphertext end (exclusive). 
+     */
+    public void addCell(byte[] buffer, int ivStart, int ivEnd, 
+            int ciphertextStart, int ciphertextEnd)
+    {
+        ensureCapacity();
+        int length = Base64Kit.maxDecodedLength(ivEnd - ivStart)
+                + Base64Kit.maxDecodedLength(ciphertextEnd - ciphertextStart);
+        byte[] decoded = decodingBuffers.get();
+        if(decoded.length < length)
+        {
+            decoded = new byte[length];
+            decodingBuffers.set(decoded);
+        }
+        ivLengths[size] = Base64Kit.decode(buffer, ivStart, ivEnd, decoded, 0);
+        ciphertextLengths[size] = Base64Kit.decode(buffer, ciphertextStart, 
+                ciphertextEnd, decoded, ivLengths[size]);
+        cellOffsets[size] = data.append(decoded, 0, ivLengths[size] + ciphertextLengths[size]);
+        size++;
+    }
+    
+    /**
+     * Tells if a cell is empty. 
+     * @param row int row index. 
+     * @return true if cell is empty or out of the store, false otherwise. 
+     */
+    public boolean isEmpty(int row)
+    {
+        return row >= size || ciphertextLengths == null || ciphertextLengths[row] < 0;
+    }
+    
+    /**
+     * Returns base64 encoded initial vector of a cell. 
+     * @param row int row index. 
+     * @return base64 String initial vector. 
+     */
+    public String getInitialVector(int row)
+    {
+        byte[] initialVector = new byte[ivLengths[row]];
+        data.get(cellOffsets[row], initialVector, 0, initialVector.length);
+        return Base64Kit.encode(initialVector, 0, initialVector.length);
+    }
+    
+    /**
+     * Returns base64 encoded ciphertext of a cell. 
+     * @param row int row index. 
+     * @return base64 String ciphertext. 
+     */
+    public String getCiphertext(int row)
+    {
+        byte[] ciphertext = new byte[ciphertextLengths[row]];
+        data.get(cellOffsets[row] + ivLengths[row], ciphertext, 0, ciphertext.length);
+        return Base64Kit.encode(ciphertext, 0, ciphertext.length);
+    }
+    
+    /**
+     * Adds raw initial vector and ciphertext of a cell to a batch. Empty 
+     * cells are added as cells with no data, so batch indices are equal to 
+     * row indices. 
+     * @param row int row index. 
+     * @param batch batch the cell is added to. 
+     */
+    void copyCell(int row, CellBatch batch)
+    {
+        if(isEmpty(row))
+            batch.add(data, 0, 0, 0);
+        else
+            batch.add(data, cellOffsets[row], ivLengths[row], ciphertextLengths[row]);
+    }
+    
+    /**
+     * Prepares the store for plaintexts of a number of cells, previous 
+     * plaintexts are released. Cells are not decrypted until their 
+     * plaintexts are set. 
+     * @param cells int number of cells. 
+     */
+    void beginPlaintexts(int cells)
+    {
+        if(plaintexts != null)
+            plaintexts.release();
+        // plaintexts are mostly single characters, the arena grows if needed
+        plaintexts = memory.newArena(Math.max(cells, 1));
+        plaintextOffsets = new int[cells];
+        plaintextLengths = new int[cells];
+        plaintextCodes = new byte[cells];
+        Arrays.fill(plaintextLengths, -1);
+        Arrays.fill(plaintextCodes, Lib.CODE_OTHER);
+    }
+    
+    /**
+     * Sets plaintexts of a range of cells decrypted as a batch, the i-th 
+     * cell of the batch is the cell of row first+i. Plaintexts are copied 
+     * from the output buffer to the plaintext arena. 
+     * @param first int row index of the first cell of the batch. 
+     * @param buffer output buffer of decryption. 
+     * @param batch decrypted batch. 
+     */
+    void setPlaintexts(int first, byte[] buffer, CellBatch batch)
+    {
+        for(int i=0; i<batch.size(); i++)
+        {
+            int offset = batch.getPlaintextOffset(i);
+            int length = batch.getPlaintextLength(i);
+            if(length < 0)
+                continue;
+            plaintextLengths[first+i] = length;
+            plaintextOffsets[first+i] = plaintexts.append(buffer, offset, length);
+            plaintextCodes[first+i] = Lib.valueCode(buffer, offset, length);
+        }
+    }
+    
+    /**
+     * Returns length of plaintext of a cell. 
+     * @param row int row index. 
+     * @return int length of plaintext or -1 if cell is not decrypted. 
+     */
+    public int getPlaintextLength(int row)
+    {
+        if(plaintextLengths == null || row >= plaintextLengths.length)
+            return -1;
+        return plaintextLengths[row];
+    }
+    
+    /**
+     * Returns a byte of plaintext of a cell. 
+     * @param row int row index. 
+     * @param index int index of byte in plaintext. 
+     * @return byte of plaintext. 
+     */
+    public byte getPlaintextByte(int row, int index)
+    {
+        return plaintexts.get(plaintextOffsets[row] + index);
+    }
+    
+    /**
+     * Returns code of plaintext value of a cell. 
+     * @param row int row index. 
+     * @return CODE_ZERO, CODE_ONE, CODE_MINUS_ONE or CODE_OTHER of Lib. 
+     */
+    public byte getPlaintextCode(int row)
+    {
+        if(plaintextCodes == null || row >= plaintextCodes.length)
+            return Lib.CODE_OTHER;
+        return plaintextCodes[row];
+    }
+    
+    /**
+     * Returns raw plaintext of a cell. 
+     * @param row int row index. 
+     * @return byte representation of plaintext or null if not decrypted. 
+     */
+    public byte[] getPlaintextBytes(int row)
+    {
+        int length = getPlaintextLength(row);
+        if(length < 0)
+            return null;
+        byte[] plaintext = new byte[length];
+        plaintexts.get(plaintextOffsets[row], plaintext, 0, length);
+        return plaintext;
+    }
+    
+    /**
+     * Tells if plaintext of a cell is equal to plaintext of a cell of other 
+     * column. Codes are compared, raw bytes only if values have no codes. 
+     * Cells not decrypted are not equal to any cell. 
+     * @param row int row index. 
+     * @param store store of the other column. 
+     * @param otherRow int row index in the other column. 
+     * @return true if plaintexts are equal, false otherwise. 
+     */
+    public boolean plaintextEquals(int row, ColumnStore store, int otherRow)
+    {
+        byte code = getPlaintextCode(row);
+        byte otherCode = store.getPlaintextCode(otherRow);
+        if(code != Lib.CODE_OTHER || otherCode != Lib.CODE_OTHER)
+            return code == otherCode;
+        int length = getPlaintextLength(row);
+        return length >= 0 && plaintextRangeEquals(row, store, otherRow, 0, length);
+    }
+    
+    /**
+     * Tells if plaintext of a cell is equal to a range of plaintext of a cell 
+     * of other column. 
+     * @param row int row index. 
+     * @param store store of the other column. 
+     * @param otherRow int row index in the other column. 
+     * @param offset offset of the range in the other plaintext. 
+     * @param length length of the range. 
+     * @return true if plaintext is equal to the range, false otherwise. 
+     */
+    public boolean plaintextRangeEquals(int row, ColumnStore store, int otherRow,
+            int offset, int length)
+    {
+        if(getPlaintextLength(row) != length 
+                || store.getPlaintextLength(otherRow) < offset + length)
+            return false;
+        for(int i=0; i<length; i++)
+        {
+            if(getPlaintextByte(row, i) != store.getPlaintextByte(otherRow, offset + i))
+                return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Writes cells of the store in snapshot format: number of cells, flag of 
+     * non empty cells, lengths of initial vectors and ciphertexts, length of 
+     * data and raw data of all cells one after another. Plaintexts are not 
+     * written. 
+     * @param out output the store is written to. 
+     * @throws IOException thrown when cannot write the store. 
+     */
+    void write(DataOutput out) throws IOException
+    {
+        out.writeInt(size);
+        out.writeBoolean(ciphertextLengths != null);
+        if(ciphertextLengths == null)
+            return;
+        int dataLength = 0;
+        for(int row=0; row<size; row++)
+            out.writeInt(ivLengths[row]);
+        for(int row=0; row<size; row++)
+        {
+            out.writeInt(ciphertextLengths[row]);
+            if(ciphertextLengths[row] >= 0)
+                dataLength += ivLengths[row] + ciphertextLengths[row];
+        }
+        out.writeInt(dataLength);
+        byte[] cell = new byte[256];
+        for(int row=0; row<size; row++)
+        {
+            if(isEmpty(row))
+                continue;
+            int length = ivLengths[row] + ciphertextLengths[row];
+            if(cell.length < length)
+                cell = new byte[length];
+            data.get(cellOffsets[row], cell, 0, length);
+            out.write(cell, 0, length);
+        }
+    }
+    
+    /**
+     * Reads a store written by write() from the current position of 
+     * a buffer, the position is moved past the store. Data of cells is not 
+     * copied, the store keeps a slice of the buffer. 
+     * @param buffer buffer containing the store, e.g. mapped snapshot file. 
+     * @param memory memory of plaintexts arena. 
+     * @return ColumnStore object read. 
+     */
+    static ColumnStore read(ByteBuffer buffer, TableMemory memory)
+    {
+        ColumnStore store = new ColumnStore(memory);
+        store.size = buffer.getInt();
+        if(buffer.get() == 0)
+            return store;
+        store.ivLengths = new int[store.size];
+        store.ciphertextLengths = new int[store.size];
+        store.cellOffsets = new int[store.size];
+        buffer.asIntBuffer().get(store.ivLengths);
+        buffer.position(buffer.position() + 4*store.size);
+        buffer.asIntBuffer().get(store.ciphertextLengths);
+        buffer.position(buffer.position() + 4*store.size);
+        int dataLength = buffer.getInt();
+        int offset = 0;
+        for(int row=0; row<store.size; row++)
+        {
+            store.cellOffsets[row] = offset;
+            if(store.ciphertextLengths[row] >= 0)
+                offset += store.ivLengths[row] + store.ciphertextLengths[row];
+        }
+        ByteBuffer data = buffer.slice();
+        data.limit(dataLength);
+        store.data = new BufferArena(data);
+        buffer.position(buffer.position() + dataLength);
+        return store;
+    }
+    
+    /**
+     * Shrinks arrays and arena to the number of cells and bytes used. 
+     */
+    public void trimToSize()
+    {
+        if(ciphertextLengths == null)
+            return;
+        cellOffsets = Arrays.copyOf(cellOffsets, size);
+        ivLengths = Arrays.copyOf(ivLengths, size);
+        ciphertextLengths = Arrays.copyOf(ciphertextLengths, size);
+        data.trimToSize();
+    }
+    
+    /**
+     * Releases arenas of the store, the store is left empty and not 
+     * decrypted. 
+     */
+    public void release()
+    {
+        if(data != null)
+            data.release();
+        if(plaintexts != null)
+            plaintexts.release();
+        data = null;
+        plaintexts = null;
+        cellOffsets = null;
+        ivLengths = null;
+        ciphertextLengths = null;
+        plaintextOffsets = null;
+        plaintextLengths = null;
+        plaintextCodes = null;
+        size = 0;
+    }
+    
+    /**
+     * Enlarges arrays for one more cell. Arrays and data arena are created 
+     * when the first non empty cell is added. 
+     */
+    private void ensureCapacity()
+    {
+        if(ciphertextLengths == null)
+        {
+            int capacity = Math.max(INITIAL_CAPACITY, size*2);
+            cellOffsets = new int[capacity];
+            ivLengths = new int[capacity];
+            ciphertextLengths = new int[capacity];
+            Arrays.fill(ciphertextLengths, 0, size, -1);
+            data = memory.newArena(INITIAL_DATA_CAPACITY);
+        }
+        else if(size == ciphertextLengths.length)
+        {
+            int capacity = Math.max(INITIAL_CAPACITY, size*2);
+            cellOffsets = Arrays.copyOf(cellOffsets, capacity);
+            ivLengths = Arrays.copyOf(ivLengths, capacity);
+            ciphertextLengths = Arrays.copyOf(ciphertextLengths, capacity);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package lib;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.Security;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * Component managing ciphers used for decryption. BouncyCastle provider is 
+ * registered only once and ready cipher instances are kept in pools, so they 
+ * are not looked up again for every decrypted column. A pooled cipher is 
+ * used by a single thread at a time. 
+ * @author Maciej Kosarzecki
+ */
+public class CryptoEngine {
+    
+    /**
+     * Pools of ready ciphers for each provider. 
+     */
+    private static final Map<CipherProvider, ConcurrentLinkedQueue<Cipher>> pools 
+            = new EnumMap<>(CipherProvider.class);
+    
+    /**
+     * Pools of ready raw block ciphers for each provider. 
+     */
+    private static final Map<CipherProvider, ConcurrentLinkedQueue<Cipher>> blockPools 
+            = new EnumMap<>(CipherProvider.class);
+    
+    static
+    {
+        if(Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null)
+            Security.addProvider(new BouncyCastleProvider());
+        for(CipherProvider provider : CipherProvider.values())
+        {
+            pools.put(provider, new ConcurrentLinkedQueue<Cipher>());
+            blockPools.put(provider, new ConcurrentLinkedQueue<Cipher>());
+        }
+    }
+    
+    /**
+     * Takes a cipher from the pool of a specified provider, a new cipher is 
+     * created if the pool is empty. 
+     * @param provider provider of the cipher. 
+     * @return cipher instance or null if cipher cannot be created. 
+     */
+    public static Cipher acquire(CipherProvider provider)
+    {
+        return acquire(pools.get(provider), provider.getTransformation(),
+                provider.getProvider());
+    }
+    
+    /**
+     * Returns a cipher to the pool of a specified provider. 
+     * @param provider provider of the cipher. 
+     * @param cipher cipher instance no longer used by the caller. 
+     */
+    public static void release(CipherProvider provider, Cipher cipher)
+    {
+        if(cipher != null)
+            pools.get(provider).offer(cipher);
+    }
+    
+    /**
+     * Takes a raw block cipher from the pool of a specified provider, a new 
+     * cipher is created if the pool is empty. 
+     * @param provider provider of the cipher. 
+     * @return cipher instance or null if cipher cannot be created. 
+     */
+    public static Cipher acquireBlockCipher(CipherProvider provider)
+    {
+        return acquire(blockPools.get(provider), 
+                provider.getBlockTransformation(), provider.getProvider());
+    }
+    
+    /**
+     * Returns a raw block cipher to the pool of a specified provider. 
+     * @param provider provider of the cipher. 
+     * @param cipher cipher instance no longer used by the caller. 
+     */
+    public static void releaseBlockCipher(CipherProvider provider, Cipher cipher)
+    {
+        if(cipher != null)
+            blockPools.get(provider).offer(cipher);
+    }
+    
+    /**
+     * Takes a cipher from a pool, a new cipher is created if the pool is 
+     * empty. 
+     * @param pool pool of ciphers. 
+     * @param transformation String cipher transformation. 
+     * @param provider String name of security provider or null. 
+     * @return cipher instance or null if cipher cannot be created. 
+     */
+    private static Cipher acquire(ConcurrentLinkedQueue<Cipher> pool, 
+            String transformation, String provider)
+    {
+        Cipher cipher = pool.poll();
+        if(cipher != null)
+            return cipher;
+        try {
+            if(provider == null)
+                return Cipher.getInstance(transformation);
+            return Cipher.getInstance(transformation, provider);
+        } catch (NoSuchAlgorithmException | NoSuchProviderException | NoSuchPaddingException ex) {
+            Logger.getLogger(CryptoEngine.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return null;
+    }
+}
@@ -15,74 +15,99 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-package lib;
 
-import javax.xml.bind.DatatypeConverter;
+package lib;
 
 /**
- * Class representing a single cell of table data.
+ * Class representing a single cell of table data. Cell is a view of a row 
+ * of a column store, it does not hold any data itself. 
  * @author Maciej Kosarzecki
  */
 public class DataCell {
     /**
-     * Base64 encoded initial vector used for cell encryption.
+     * Store of the column this cell belongs to. 
      */
-    private final String initialVector;
+    private final ColumnStore store;
     
     /**
-     * Base64 encoded ciphertext.
+     * Int row index of this cell in the column. 
      */
-    private final String ciphertext;
-    
-    /**
-     * Base64 encoded plaintext.
-     */
-    private String plaintext;
+    private final int row;
     
     /**
      * Default class constructor. 
-     * @param IV base64 encoded initial vector used fot cell encryption.
-     * @param c base64 encoded ciphertext. 
+     * @param store store of the column this cell belongs to. 
+     * @param row int row index of this cell in the column. 
      */
-    public DataCell(String IV, String c)
+    DataCell(ColumnStore store, int row)
     {
-        this.initialVector = IV;
-        this.ciphertext = c;
-    }
-    
-    /**
-     * Set base64 String plaintext value. 
-     * @param plain base64 String value to be set. 
-     */
-    public void setPlaintext(String plain)
-    {
-        plaintext = plain;
+        this.store = store;
+        this.row = row;
     }
     
     /**
      * Retruns base64 String ciphertext value. 
      * @return base64 String ciphertext value. 
      */
-    public String getCiphertext() { return ciphertext; }
+    public String getCiphertext() { return store.getCiphertext(row); }
     
     /**
      * Returns base64 String initial vector value. 
      * @return base64 String initial vector value. 
      */
-    public String getInitialVector() { return initialVector; }
+    public String getInitialVector() { return store.getInitialVector(row); }
     
     /**
      * Returns base64 String plaintext value. 
-     * @return base64 String plaintext value. 
+     * @return base64 String plaintext value or null if not decrypted. 
+     */
+    public String getPlaintext() 
+    {
+        byte[] plaintext = store.getPlaintextBytes(row);
+        if(plaintext == null)
+            return null;
+        return Base64Kit.encode(plaintext, 0, plaintext.length);
+    }
+    
+    /**
+     * Returns length of raw plaintext value. 
+     * @return int length of raw plaintext or -1 if not decrypted. 
      */
-    public String getPlaintext() { return plaintext; }
+    public int getPlaintextLength() { return store.getPlaintextLength(row); }
+    
+    /**
+     * Returns a byte of raw plaintext value. 
+     * @param index int index of byte in plaintext. 
+     * @return byte of plaintext. 
+     */
+    public byte getPlaintextByte(int index) { return store.getPlaintextByte(row, index); }
+    
+    /**
+     * Returns code of plaintext value. 
+     * @return CODE_ZERO, CODE_ONE, CODE_MINUS_ONE or CODE_OTHER of Lib. 
+     */
+    public byte getPlaintextCode() { return store.getPlaintextCode(row); }
+    
+    /**
+     * Tells if plaintext of this cell is equal to plaintext of other cell. 
+     * Codes are compared, raw bytes only if values have no codes. 
+     * @param cell other cell. 
+     * @return true if plaintexts are equal, false otherwise. 
+     */
+    public boolean plaintextEquals(DataCell cell)
+    {
+        return store.plaintextEquals(row, cell.store, cell.row);
+    }
     
     /**
      * Returns ASCII encoded plaintext value.
-     * @return ASCII encoded plaintext value.
+     * @return ASCII encoded plaintext value or null if not decrypted.
      */
     public String getPlaintextASCIIEncoded() 
     {
-        return new String(DatatypeConverter.parseBase64Binary(plaintext));
+        byte[] plaintext = store.getPlaintextBytes(row);
+        if(plaintext == null)
+            return null;
+        return new String(plaintext);
     }
 }
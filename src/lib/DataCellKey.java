@@ -17,6 +17,8 @@
 
 package lib;
 
+import javax.xml.bind.DatatypeConverter;
+
 /**
  * Class containing information about data cell key. 
  * @author Maciej Kosarzecki
@@ -42,6 +44,21 @@ public class DataCellKey {
      */
     private boolean opened;
     
+    /**
+     * Raw bytes of commitment, decoded once. 
+     */
+    private final byte[] commitmentBytes;
+    
+    /**
+     * Raw bytes of decommitment, decoded once. 
+     */
+    private byte[] decommitmentBytes;
+    
+    /**
+     * Raw bytes of a key, decoded once. 
+     */
+    private byte[] plaintextBytes;
+    
     /**
      * Default constructor of this class. 
      * @param comm base64 encoded commitment to a key value. 
@@ -49,6 +66,7 @@ public class DataCellKey {
     public DataCellKey(String comm)
     {
         this.commitment = comm;
+        this.commitmentBytes = DatatypeConverter.parseBase64Binary(comm);
         opened = false;
     }
     
@@ -64,7 +82,11 @@ public class DataCellKey {
         this.decommitment = decomm;
         this.plaintext = plain;
         if(!decommitment.isEmpty() && !plaintext.isEmpty())
+        {
             opened = true;
+            this.decommitmentBytes = DatatypeConverter.parseBase64Binary(decomm);
+            this.plaintextBytes = DatatypeConverter.parseBase64Binary(plain);
+        }
     }
     
     /**
@@ -90,4 +112,22 @@ public class DataCellKey {
      * @return base64 String plaintext value.
      */
     public String getPlaintext() { return plaintext; } 
+    
+    /**
+     * Returns raw bytes of commitment. 
+     * @return byte representation of commitment. 
+     */
+    public byte[] getCommitmentBytes() { return commitmentBytes; }
+    
+    /**
+     * Returns raw bytes of decommitment. 
+     * @return byte representation of decommitment, null if key is not opened.
+     */
+    public byte[] getDecommitmentBytes() { return decommitmentBytes; }
+    
+    /**
+     * Returns raw bytes of a key. 
+     * @return byte representation of a key, null if key is not opened.
+     */
+    public byte[] getPlaintextBytes() { return plaintextBytes; }
 }
@@ -15,48 +15,49 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+
 package lib;
 
 /**
- * Class representing a single data row in a data table.
+ * Class representing a single data row in a data table. Row is a view of 
+ * column stores of a table, cells are created on demand. 
  * @author Maciej Kosarzecki
  */
 public class DataRow {
     /**
-     * Array of cells in a single row. 
+     * Table this row belongs to. 
      */
-    private DataCell[] cells; 
+    private final DataTable table;
     
     /**
-     * Default constructor of this class. 
+     * Int index of this row in the table. 
      */
-    public DataRow()
-    {
-        cells = new DataCell[Lib.COL_NUMBER];
-    }
+    private final int index;
     
     /**
-     * Adds a data cell to a specified position in this data row. 
-     * @param cell data cell to be added.
-     * @param column column number. 
+     * Default constructor of this class. 
+     * @param table table this row belongs to. 
+     * @param index int index of this row in the table. 
      */
-    public void addCell(DataCell cell, int column)
+    DataRow(DataTable table, int index)
     {
-        if(column>=Lib.COL_NUMBER || column<0)
-            throw new IllegalArgumentException("Column int value must be in range of 0..columns_number-1");
-        cells[column] = cell;
+        this.table = table;
+        this.index = index;
     }
     
     /**
      * Returns a data cell from a specified position.
      * @param column column number.
-     * @return data cell from a specified position. 
+     * @return data cell from a specified position or null if cell is empty. 
      */
     public DataCell getDataCell(int column)
     {
         if(column>=Lib.COL_NUMBER || column<0)
             throw new IllegalArgumentException("Column int value must be in range of 0..columns_number-1");
-        return cells[column];
+        ColumnStore store = table.getColumn(column);
+        if(store.isEmpty(index))
+            return null;
+        return new DataCell(store, index);
     }
             
 }
@@ -17,10 +17,12 @@
 
 package lib;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.List;
 
 /**
- *
+ * Class representing a data table. Data is kept in columns, each column in 
+ * a separate column store, rows and cells are views of column stores. 
  * @author Maciej Kosarzecki
  */
 public class DataTable implements Comparable {
@@ -43,43 +45,108 @@ public class DataTable implements Comparable {
 
     
     /**
-     * An ArrayList containing rows of data. 
+     * An array of column stores. 
      */
-    private ArrayList<DataRow> rows;
+    private final ColumnStore [] columns;
+    
+    /**
+     * Number of rows of data. 
+     */
+    private int rowsNumber;
     
     
     /**
-     * Default constructor.
+     * Default constructor, column data is kept on the heap.
      * @param number int number of a table. 
      */
     public DataTable(int number)
+    {
+        this(number, TableMemory.HEAP);
+    }
+    
+    /**
+     * Constructor of a table keeping column data in a specified memory.
+     * @param number int number of a table. 
+     * @param memory memory of column data. 
+     */
+    public DataTable(int number, TableMemory memory)
     {
         this.number = number;
         cellKeys = new DataCellKey[Lib.COL_NUMBER];
-        rows = new ArrayList<>();
+        columns = new ColumnStore[Lib.COL_NUMBER];
+        for(int i=0; i<Lib.COL_NUMBER; i++)
+            columns[i] = new ColumnStore(memory);
         batch = null;
         
     }
     
     /**
-     * Adds new data row to already existing. 
-     * @param row 
+     * Returns store of a column. 
+     * @param column column number. 
+     * @return column store. 
      */
-    public void addDataRow(DataRow row) { rows.add(row); }
+    public ColumnStore getColumn(int column) { return columns[column]; }
     
+    /**
+     * Sets store of a column. 
+     * @param store column store to be set. 
+     * @param column column number. 
+     */
+    public void setColumn(ColumnStore store, int column)
+    {
+        if(column>=Lib.COL_NUMBER || column<0)
+            throw new IllegalArgumentException("Column int value must be in range of 0..columns_number-1");
+        columns[column] = store;
+    }
+    
+    /**
+     * Releases column data of this table, including column stores shared 
+     * with other tables. The table must not be used afterwards. 
+     */
+    public void release()
+    {
+        for(ColumnStore store : columns)
+            store.release();
+    }
+    
+    /**
+     * Returns number of data rows. 
+     * @return int number of data rows. 
+     */
+    public int getRowsNumber() { return rowsNumber; }
+    
+    /**
+     * Sets number of data rows, cells of rows are added to column stores. 
+     * @param rowsNumber int number of data rows. 
+     */
+    public void setRowsNumber(int rowsNumber) { this.rowsNumber = rowsNumber; }
     
     /**
      * Returns data row at the specified index. 
      * @param index int index of data row. 
      * @return data row at the specified index. 
      */
-    public DataRow getDataRow(int index) { return rows.get(index); }
+    public DataRow getDataRow(int index) 
+    { 
+        if(index>=rowsNumber || index<0)
+            throw new IndexOutOfBoundsException("Index: "+index+", Size: "+rowsNumber);
+        return new DataRow(this, index); 
+    }
     
     /**
      * Returns data rows of this table. 
-     * @return ArrayList of data rows. 
+     * @return List view of data rows. 
      */
-    public ArrayList<DataRow> getDataRows() { return rows; }
+    public List<DataRow> getDataRows() 
+    { 
+        return new AbstractList<DataRow>() {
+            @Override
+            public DataRow get(int index) { return getDataRow(index); }
+            
+            @Override
+            public int size() { return rowsNumber; }
+        };
+    }
  
     /**
      * Adds new cell key to a specidied position. 
@@ -99,6 +166,18 @@ public class DataTable implements Comparable {
      */
     public DataCellKey[] getCellKeys() { return cellKeys; }
     
+    /**
+     * Tells which columns of this table have opened keys. 
+     * @return boolean array, true for columns with opened keys. 
+     */
+    public boolean[] getOpenedColumns()
+    {
+        boolean[] opened = new boolean[Lib.COL_NUMBER];
+        for(int i=0; i<Lib.COL_NUMBER; i++)
+            opened[i] = cellKeys[i] != null && cellKeys[i].isOpened();
+        return opened;
+    }
+    
     /**
      * Sets data cell keys of this table.
      * @param keys
@@ -154,6 +233,13 @@ public class DataTable implements Comparable {
      */
     public int getBatch() { return batch; }
     
+    /**
+     * Checks if batch is specified, it is not for tables whose batch was 
+     * never specified from opened keys. 
+     * @return true if batch is specified, false otherwise. 
+     */
+    public boolean hasBatch() { return batch != null; }
+    
     /**
      * compareTo method used to sort array of this objects according to their
      * numbers. 
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package lib;
+
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Engine used for decryption of opened columns of data tables. Each opened 
+ * column of each table is a separate unit of work, units are split across 
+ * worker threads. A unit of work takes a cipher from CryptoEngine pool and 
+ * returns it when the column is decrypted, so cipher instances are never 
+ * used by two threads at the same time. A table with a column which cannot 
+ * be decrypted fails. 
+ * @author Maciej Kosarzecki
+ */
+public class DecryptionEngine {
+    
+    /**
+     * Max number of cells of a column decrypted at a time. 
+     */
+    private static final int CHUNK_CELLS = 4096;
+    
+    /**
+     * Number of ciphertext bytes after which no more cells are added to 
+     * a chunk. 
+     */
+    private static final int CHUNK_BYTES = 64*1024;
+    
+    /**
+     * Executor used for decryption, null if columns are decrypted one after 
+     * another in the calling thread. 
+     */
+    private final ExecutorService executor;
+    
+    /**
+     * Provider of ciphers used for decryption. 
+     */
+    private final CipherProvider provider;
+    
+    /**
+     * Cell batches reused by worker threads for following columns. 
+     */
+    private final ThreadLocal<CellBatch> batches = new ThreadLocal<CellBatch>() {
+        @Override
+        protected CellBatch initialValue()
+        {
+            return new CellBatch();
+        }
+    };
+    
+    /**
+     * Output buffers of decryption reused by worker threads for following 
+     * chunks of columns, enlarged when a chunk does not fit. 
+     */
+    private final ThreadLocal<byte[]> outputs = new ThreadLocal<>();
+    
+    /**
+     * Metrics decrypted columns are sent to, null if not recorded. 
+     */
+    private AuditMetrics metrics;
+    
+    /**
+     * Default constructor, BouncyCastle ciphers are used. 
+     * @param executor executor used for decryption or null if columns should 
+     * be decrypted in the calling thread. 
+     */
+    public DecryptionEngine(ExecutorService executor)
+    {
+        this(executor, CipherProvider.BC);
+    }
+    
+    /**
+     * Constructor using ciphers of a specified provider. 
+     * @param executor executor used for decryption or null if columns should 
+     * be decrypted in the calling thread. 
+     * @param provider provider of ciphers used for decryption. 
+     */
+    public DecryptionEngine(ExecutorService executor, CipherProvider provider)
+    {
+        this.executor = executor;
+        this.provider = provider;
+    }
+    
+    /**
+     * Sets metrics events of decrypted columns are sent to. 
+     * @param metrics metrics to be used or null if columns should not be 
+     * recorded. 
+     */
+    public void setMetrics(AuditMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+    
+    /**
+     * Decrypts columns with opened keys. 
+     * @param dataTables data tables to be decrypted. 
+     * @param dataTablesKeys data tables containing opened keys, in the same 
+     * order as data tables. 
+     * @return errors of tables which cannot be decrypted, by table numbers; 
+     * the error of the first such column of a table is kept. 
+     */
+    public Map<Integer, String> decryptTables(DataTable[] dataTables, 
+            DataTable[] dataTablesKeys)
+    {
+        ArrayList<Callable<String>> tasks = new ArrayList<>();
+        
+        // for each table
+        for(int i=0; i<dataTables.length; i++)
+        {
+            DataCellKey[] keys = dataTablesKeys[i].getCellKeys();
+            // for each column of a table
+            for(int column=0; column<Lib.COL_NUMBER; column++)
+            {
+                if(keys[column].isOpened())
+                    tasks.add(new ColumnDecryption(dataTables[i], keys[column], column));
+            }
+        }
+        Map<Integer, String> errors = new TreeMap<>();
+        List<String> columnErrors = ParallelKit.invokeAll(executor, tasks);
+        for(int i=0; i<tasks.size(); i++)
+        {
+            int number = ((ColumnDecryption)tasks.get(i)).table.getNumber();
+            if(columnErrors.get(i) != null && !errors.containsKey(number))
+                errors.put(number, columnErrors.get(i));
+        }
+        return errors;
+    }
+    
+    /**
+     * Decrypts a single column of a table. Cells are copied from the column 
+     * store to the cell batch of the thread and decrypted into its output 
+     * buffer in chunks of at most CHUNK_CELLS cells and about CHUNK_BYTES 
+     * bytes, plaintexts of each chunk are appended to the plaintext arena 
+     * of the column store, so heap used does not grow with the column. 
+     * @param table data table to be decrypted. 
+     * @param key opened key of the column. 
+     * @param column int column number. 
+     * @throws AuditException thrown when the key is invalid or a cell 
+     * cannot be decrypted. 
+     */
+    public void decryptColumn(DataTable table, DataCellKey key, int column) 
+            throws AuditException
+    {
+        Object event = metrics != null ? metrics.beginColumnDecrypted() : null;
+        ColumnStore store = table.getColumn(column);
+        CellBatch batch = batches.get();
+        int rows = table.getRowsNumber();
+        store.beginPlaintexts(rows);
+        
+        DecryptionKit cipher = new DecryptionKit(provider);
+        cipher.setKey(DatatypeConverter.parseBase64Binary(key.getPlaintext()));
+        int failed = 0;
+        long bytes = 0;
+        try {
+            int first = 0;
+            while(first < rows)
+            {
+                batch.clear();
+                int row = first;
+                while(row < rows && batch.size() < CHUNK_CELLS 
+                        && batch.getCiphertextsLength() < CHUNK_BYTES)
+                    store.copyCell(row++, batch);
+                byte[] out = outputs.get();
+                if(out == null || out.length < batch.getCiphertextsLength())
+                {
+                    out = new byte[batch.getCiphertextsLength()];
+                    outputs.set(out);
+                }
+                failed += cipher.decrypt(batch, out);
+                store.setPlaintexts(first, out, batch);
+                bytes += batch.getCiphertextsLength();
+                first = row;
+            }
+        } catch (InvalidKeyException ex) {
+            throw new AuditException("Table: "+table.getNumber()+" column: "
+                    +(column+1)+" cannot be decrypted! "+ex.getMessage());
+        } finally {
+            cipher.release();
+        }
+        
+        if(metrics != null)
+            metrics.endColumnDecrypted(event, table.getNumber(), 
+                    AuditMetrics.batchOf(table), column, rows, bytes);
+        if(failed > 0)
+            throw new AuditException("Table: "+table.getNumber()+" column: "
+                    +(column+1)+" cannot be decrypted! "+failed+" cell(s) failed!");
+    }
+    
+    /**
+     * Unit of work - decryption of a single column of a table. 
+     */
+    private class ColumnDecryption implements Callable<String>
+    {
+        private final DataTable table;
+        private final DataCellKey key;
+        private final int column;
+        
+        /**
+         * Default constructor. 
+         * @param table data table to be decrypted. 
+         * @param key opened key of the column. 
+         * @param column int column number. 
+         */
+        ColumnDecryption(DataTable table, DataCellKey key, int column)
+        {
+            this.table = table;
+            this.key = key;
+            this.column = column;
+        }
+        
+        /**
+         * Decrypts the column. 
+         * @return String error of the column, null if it is decrypted. 
+         */
+        @Override
+        public String call()
+        {
+            try {
+                decryptColumn(table, key, column);
+            } catch (AuditException ex) {
+                return ex.getMessage();
+            }
+            return null;
+        }
+    }
+}
@@ -19,18 +19,14 @@ package lib;
 
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
-import java.security.Security;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
 /**
  * Toolkit used for columns decryption. 
@@ -38,6 +34,11 @@ import org.bouncycastle.jce.provider.BouncyCastleProvider;
  */
 public class DecryptionKit {
     
+    /**
+     * AES block size in bytes. 
+     */
+    private static final int BLOCK_SIZE = 16;
+    
     /**
      * Secret key. 
      */
@@ -49,25 +50,60 @@ public class DecryptionKit {
     private Cipher cipher;
     
     /**
-     * Default constructor. 
+     * Raw block cipher used for batch decryption. 
+     */
+    private Cipher blockCipher;
+    
+    /**
+     * Determines if block cipher has to be initialized with the current key. 
+     */
+    private boolean blockCipherInitialized;
+    
+    /**
+     * Provider of the cipher used. 
+     */
+    private final CipherProvider provider;
+    
+    /**
+     * Default constructor, BouncyCastle cipher is used. 
      */
     public DecryptionKit()
     {
-        Security.addProvider(new BouncyCastleProvider());
+        this(CipherProvider.BC);
+    }
+    
+    /**
+     * Constructor using cipher of a specified provider. 
+     * @param provider provider of the cipher. 
+     */
+    public DecryptionKit(CipherProvider provider)
+    {
+        this.provider = provider;
     }
     
     /**
-     * Sets secret key used for decryption. 
+     * Sets secret key used for decryption. Cipher instances are taken from 
+     * the pool when they are used for the first time and reused for 
+     * the following keys. 
      * @param key byte representation of a key. 
      */
     public void setKey(byte[] key)
     {
-        try {
-            keySpec = new SecretKeySpec(key, Lib.ENCRYPTION_ALGORITHM);
-            cipher = Cipher.getInstance("AES/CBC/ZeroBytePadding", "BC");
-        } catch (NoSuchAlgorithmException | NoSuchProviderException | NoSuchPaddingException ex) {
-            Logger.getLogger(DecryptionKit.class.getName()).log(Level.SEVERE, null, ex);
-        }
+        keySpec = new SecretKeySpec(key, Lib.ENCRYPTION_ALGORITHM);
+        blockCipherInitialized = false;
+    }
+    
+    /**
+     * Returns ciphers used by this kit to the pool. Kit can be used again 
+     * after setting a key. 
+     */
+    public void release()
+    {
+        CryptoEngine.release(provider, cipher);
+        CryptoEngine.releaseBlockCipher(provider, blockCipher);
+        cipher = null;
+        blockCipher = null;
+        blockCipherInitialized = false;
     }
     
     /**
@@ -79,12 +115,103 @@ public class DecryptionKit {
     public byte[] decrypt(byte[] initialVector, byte[] ciphertext)
     {
         byte [] plaintext = null;
+        if(cipher == null)
+            cipher = CryptoEngine.acquire(provider);
         try {
             cipher.init(Cipher.DECRYPT_MODE, keySpec, new IvParameterSpec(initialVector));
             plaintext = cipher.doFinal(ciphertext);
+            if(provider.isStrippingPadding())
+                plaintext = stripPadding(plaintext);
         } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException ex) {
             Logger.getLogger(DecryptionKit.class.getName()).log(Level.SEVERE, null, ex);
         }
         return plaintext;
     }
+    
+    /**
+     * Decrypts all cells of a batch into a single output buffer. Cipher is 
+     * initialized once for the whole batch, CBC chaining is done directly 
+     * in the output buffer and zero byte padding is stripped by adjusting 
+     * plaintext lengths, so no objects are created per cell. Plaintext 
+     * length of a cell which cannot be decrypted is set to -1. 
+     * @param batch batch of cells encrypted with the current key. 
+     * @param out output buffer, at least batch.getCiphertextsLength() long. 
+     * @return int number of cells which cannot be decrypted. 
+     * @throws InvalidKeyException thrown when the current key is invalid, 
+     * no cell is decrypted then. 
+     */
+    public int decrypt(CellBatch batch, byte[] out) throws InvalidKeyException
+    {
+        if(blockCipher == null)
+            blockCipher = CryptoEngine.acquireBlockCipher(provider);
+        if(!blockCipherInitialized)
+        {
+            blockCipher.init(Cipher.DECRYPT_MODE, keySpec);
+            blockCipherInitialized = true;
+        }
+        
+        byte[] in = batch.getInput();
+        int offset = 0;
+        int failed = 0;
+        for(int i=0; i<batch.size(); i++)
+        {
+            int ivOffset = batch.getInitialVectorOffset(i);
+            int cOffset = batch.getCiphertextOffset(i);
+            int cLength = batch.getCiphertextLength(i);
+            try {
+                if(batch.getInitialVectorLength(i) != BLOCK_SIZE)
+                    throw new InvalidAlgorithmParameterException("Wrong IV length: must be "
+                            +BLOCK_SIZE+" bytes long");
+                if(cLength == 0 || cLength%BLOCK_SIZE != 0)
+                    throw new IllegalBlockSizeException("Ciphertext length must be "
+                            + "a multiple of "+BLOCK_SIZE+" bytes");
+                blockCipher.doFinal(in, cOffset, cLength, out, offset);
+            } catch (InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException | ShortBufferException ex) {
+                Logger.getLogger(DecryptionKit.class.getName()).log(Level.SEVERE, null, ex);
+                batch.setPlaintext(i, offset, -1);
+                failed++;
+                continue;
+            }
+            // CBC chaining - xor with initial vector and previous blocks
+            for(int j=0; j<BLOCK_SIZE; j++)
+                out[offset+j] ^= in[ivOffset+j];
+            for(int j=BLOCK_SIZE; j<cLength; j++)
+                out[offset+j] ^= in[cOffset+j-BLOCK_SIZE];
+            batch.setPlaintext(i, offset, unpaddedLength(out, offset, cLength));
+            offset += cLength;
+        }
+        return failed;
+    }
+    
+    /**
+     * Returns length of plaintext without zero byte padding of the last 
+     * block, the same way as BouncyCastle ZeroBytePadding strips it. 
+     * @param plaintext buffer with padded plaintext. 
+     * @param offset offset of plaintext in buffer. 
+     * @param length length of padded plaintext. 
+     * @return int length of plaintext without padding. 
+     */
+    private static int unpaddedLength(byte[] plaintext, int offset, int length)
+    {
+        int lastBlock = Math.max(0, length - BLOCK_SIZE);
+        while(length > lastBlock && plaintext[offset+length-1] == 0)
+            length--;
+        return length;
+    }
+    
+    /**
+     * Strips zero byte padding from the last block of plaintext, the same 
+     * way as BouncyCastle ZeroBytePadding does. 
+     * @param plaintext byte representation of padded plaintext. 
+     * @return byte representation of plaintext without padding. 
+     */
+    private static byte[] stripPadding(byte[] plaintext)
+    {
+        int length = unpaddedLength(plaintext, 0, plaintext.length);
+        if(length == plaintext.length)
+            return plaintext;
+        byte[] stripped = new byte[length];
+        System.arraycopy(plaintext, 0, stripped, 0, length);
+        return stripped;
+    }
 }
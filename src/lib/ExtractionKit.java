@@ -17,20 +17,24 @@
 
 package lib;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import net.lingala.zip4j.core.ZipFile;
 import net.lingala.zip4j.exception.ZipException;
+import net.lingala.zip4j.io.ZipInputStream;
+import net.lingala.zip4j.model.FileHeader;
 
 /**
  * Class used for data extraction from ABB.zip file. 
@@ -39,7 +43,61 @@ import net.lingala.zip4j.exception.ZipException;
 public class ExtractionKit {
     
     /**
-     * Extract files from a specified .zip file. 
+     * Executor used for parsing table files in parallel, null if files are 
+     * parsed one after another. 
+     */
+    private ExecutorService executor;
+    
+    /**
+     * Names of table file types used in warnings of the join, in order of 
+     * TableIndex types. 
+     */
+    private static final String[] TABLE_TYPE_NAMES = {
+        Lib.ABB_PREPARE_A_FILES_NAME, Lib.ABB_PREPARE_B_FILES_NAME,
+        Lib.ABB_FINALIZE_FILES_NAME, Lib.ABB_AUDIT_FILES_NAME };
+    
+    /**
+     * Memory of column data of parsed tables. 
+     */
+    private TableMemory memory = TableMemory.HEAP;
+    
+    /**
+     * Metrics parsing of table files is recorded in, null if not recorded. 
+     */
+    private AuditMetrics metrics;
+    
+    /**
+     * Sets metrics parsing of table files is recorded in. 
+     * @param metrics metrics to be used or null if parsing should not be 
+     * recorded. 
+     */
+    public void setMetrics(AuditMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+    
+    /**
+     * Sets memory of column data of parsed tables. 
+     * @param memory memory of column data (heap by default). 
+     */
+    public void setTableMemory(TableMemory memory)
+    {
+        this.memory = memory;
+    }
+    
+    /**
+     * Sets executor used for parsing table files in parallel. 
+     * @param executor executor to be used or null if table files should be 
+     * parsed one after another. 
+     */
+    public void setExecutor(ExecutorService executor)
+    {
+        this.executor = executor;
+    }
+    
+    /**
+     * Extract files from a specified .zip file. Entries are inflated in 
+     * parallel if executor is set. 
      * @param abbPath String path of the ABB.zip file.  
      * @param destPath String destination path. 
      * @throws net.lingala.zip4j.exception.ZipException thrown when cannot 
@@ -55,14 +113,28 @@ public class ExtractionKit {
     
     /**
      * Creates DataTable objects from .csv table files in from 
-     * a specified directory. 
+     * a specified directory and joins them with their opened keys. 
      * @param destPath String path of a directory with .csv files. 
-     * @return array of DataTable objects representing .csv table files. 
+     * @param keys data tables containing opened keys. 
+     * @param warnings list warnings of duplicated and missing tables are 
+     * added to. 
+     * @return two arrays of DataTable objects: merged data tables and their 
+     * opened keys, in the same order. 
+     * @throws lib.AuditException thrown when a table file cannot be read. 
      */
-    public DataTable[] extractData(String destPath)
+    public DataTable[][] extractData(String destPath, DataTable[] keys,
+            List<String> warnings) throws AuditException
     {
-        // parses .csv table files
-        return parseTableFiles(destPath + Lib.ABB_EXTRACTION_DESTINATION_FOLDER);   
+        File directory = new File(destPath + Lib.ABB_EXTRACTION_DESTINATION_FOLDER);
+        TableJoin<DataTable> join = newKeysJoin(keys, warnings);
+        
+        // parse prepare A, prepare B and finalize .csv files
+        parseTableGroups(false, null, join,
+                listTableFiles(directory, new TableFilesFilter(Lib.ABB_PREPARE_A_FILES_NAME)),
+                listTableFiles(directory, new TableFilesFilter(Lib.ABB_PREPARE_B_FILES_NAME)),
+                listTableFiles(directory, new TableFilesFilter(Lib.ABB_FINALIZE_FILES_NAME)));
+        
+        return joinTables(join, warnings);
     }
     
     /**
@@ -75,278 +147,718 @@ public class ExtractionKit {
      */
     public DataTable[] extractDataKeys(String destPath) throws AuditException
     {
-        DataTable[] auditTables;
+        File directory = new File(destPath+Lib.ABB_EXTRACTION_DESTINATION_FOLDER);
+        return parseAuditTables(listTableFiles(directory, 
+                new TableFilesFilter(Lib.ABB_AUDIT_FILES_NAME)));
+    }
+    
+    /**
+     * Creates DataTable objects straight from .csv table files packed in 
+     * a specified .zip file, without extracting them to disk, and joins 
+     * them with their opened keys. 
+     * @param abbPath String path of the ABB.zip file. 
+     * @param keys data tables containing opened keys. 
+     * @param warnings list warnings of duplicated and missing tables are 
+     * added to. 
+     * @return two arrays of DataTable objects: merged data tables and their 
+     * opened keys, in the same order. 
+     * @throws net.lingala.zip4j.exception.ZipException thrown when cannot 
+     * read specified .zip file. 
+     * @throws lib.AuditException thrown when a table entry cannot be read. 
+     */
+    public DataTable[][] extractDataFromArchive(String abbPath, 
+            DataTable[] keys, List<String> warnings) 
+            throws ZipException, AuditException
+    {
+        ZipFile zipFile = new ZipFile(abbPath);
+        TableJoin<DataTable> join = newKeysJoin(keys, warnings);
         
-        TableFilesFilter auditTablesFilter 
-                = new TableFilesFilter(Lib.ABB_AUDIT_FILES_NAME);
+        // parse prepare A, prepare B and finalize .csv entries
+        parseTableGroups(false, null, join,
+                listTableEntries(zipFile, new TableFilesFilter(Lib.ABB_PREPARE_A_FILES_NAME)),
+                listTableEntries(zipFile, new TableFilesFilter(Lib.ABB_PREPARE_B_FILES_NAME)),
+                listTableEntries(zipFile, new TableFilesFilter(Lib.ABB_FINALIZE_FILES_NAME)));
         
+        return joinTables(join, warnings);
+    }
+    
+    /**
+     * Creates DataTable objects containing opened keys for audit of 
+     * the elections straight from a specified .zip file, without extracting 
+     * it to disk. 
+     * @param abbPath String path of the ABB.zip file. 
+     * @return array of DataTable objects containing opened keys for audit of
+     * the elections.
+     * @throws net.lingala.zip4j.exception.ZipException thrown when cannot 
+     * read specified .zip file. 
+     * @throws lib.AuditException
+     */
+    public DataTable[] extractDataKeysFromArchive(String abbPath) 
+            throws ZipException, AuditException
+    {
+        ZipFile zipFile = new ZipFile(abbPath);
+        return parseAuditTables(listTableEntries(zipFile, 
+                new TableFilesFilter(Lib.ABB_AUDIT_FILES_NAME)));
+    }
+    
+    /**
+     * Creates index of .csv table files in a specified directory. Only 
+     * table numbers are read, table files are joined on table numbers. 
+     * @param destPath String path of a directory with .csv files. 
+     * @param warnings list warnings of duplicated and missing tables are 
+     * added to. 
+     * @return TableIndex object created. 
+     * @throws lib.AuditException thrown when a table number cannot be read. 
+     */
+    public TableIndex indexTables(String destPath, List<String> warnings) 
+            throws AuditException
+    {
         File directory = new File(destPath+Lib.ABB_EXTRACTION_DESTINATION_FOLDER);
-        auditTables = parseTableFielsGroup(directory, auditTablesFilter);
-        
-        // specify batch
+        return indexTables(warnings,
+                listTableFiles(directory, new TableFilesFilter(Lib.ABB_PREPARE_A_FILES_NAME)),
+                listTableFiles(directory, new TableFilesFilter(Lib.ABB_PREPARE_B_FILES_NAME)),
+                listTableFiles(directory, new TableFilesFilter(Lib.ABB_FINALIZE_FILES_NAME)),
+                listTableFiles(directory, new TableFilesFilter(Lib.ABB_AUDIT_FILES_NAME)));
+    }
+    
+    /**
+     * Creates index of .csv table entries of a specified .zip file, without 
+     * extracting it to disk. 
+     * @param abbPath String path of the ABB.zip file. 
+     * @param warnings list warnings of duplicated and missing tables are 
+     * added to. 
+     * @return TableIndex object created. 
+     * @throws net.lingala.zip4j.exception.ZipException thrown when cannot 
+     * read specified .zip file. 
+     * @throws lib.AuditException thrown when a table number cannot be read. 
+     */
+    public TableIndex indexTablesInArchive(String abbPath, List<String> warnings) 
+            throws ZipException, AuditException
+    {
+        ZipFile zipFile = new ZipFile(abbPath);
+        return indexTables(warnings,
+                listTableEntries(zipFile, new TableFilesFilter(Lib.ABB_PREPARE_A_FILES_NAME)),
+                listTableEntries(zipFile, new TableFilesFilter(Lib.ABB_PREPARE_B_FILES_NAME)),
+                listTableEntries(zipFile, new TableFilesFilter(Lib.ABB_FINALIZE_FILES_NAME)),
+                listTableEntries(zipFile, new TableFilesFilter(Lib.ABB_AUDIT_FILES_NAME)));
+    }
+    
+    /**
+     * Creates DataTable objects of a range of indexed tables. 
+     * @param index index of table files. 
+     * @param from int index of the first table (inclusive). 
+     * @param to int index of the last table (exclusive). 
+     * @param keys data tables containing opened keys of the range, only 
+     * cells of opened columns are created; null if all cells should be 
+     * created. 
+     * @return array of merged DataTable objects. 
+     * @throws lib.AuditException thrown when a table file cannot be read. 
+     */
+    public DataTable[] extractData(TableIndex index, int from, int to, 
+            DataTable[] keys) throws AuditException
+    {
+        DataTable[][] groups = parseTableGroups(false, projectionOf(keys), null,
+                index.getSources(TableIndex.PREPARE_A, from, to),
+                index.getSources(TableIndex.PREPARE_B, from, to),
+                index.getSources(TableIndex.FINALIZE, from, to));
+        return mergeTables(groups[0], groups[1], groups[2]);
+    }
+    
+    /**
+     * Creates DataTable objects of all indexed tables. Tables whose files 
+     * have different numbers of rows are left out, as tables missing in 
+     * the join are. 
+     * @param index index of table files. 
+     * @param keys data tables containing opened keys of all indexed tables, 
+     * in order of the index. 
+     * @param projected true if only cells of opened columns should be 
+     * created. 
+     * @param warnings list warnings of tables left out are added to. 
+     * @return two arrays of DataTable objects: merged data tables and their 
+     * opened keys, in the same order. 
+     * @throws lib.AuditException thrown when a table file cannot be read. 
+     */
+    public DataTable[][] extractData(TableIndex index, DataTable[] keys, 
+            boolean projected, List<String> warnings) throws AuditException
+    {
+        int size = index.size();
+        DataTable[][] groups = parseTableGroups(false, 
+                projected ? projectionOf(keys) : null, null,
+                index.getSources(TableIndex.PREPARE_A, 0, size),
+                index.getSources(TableIndex.PREPARE_B, 0, size),
+                index.getSources(TableIndex.FINALIZE, 0, size));
+        List<DataTable> tables = new ArrayList<>(size);
+        List<DataTable> tablesKeys = new ArrayList<>(size);
+        for(int i=0; i<size; i++)
+            mergeOrLeaveOut(groups[0][i], groups[1][i], groups[2][i], keys[i], 
+                    tables, tablesKeys, warnings);
+        return new DataTable[][] {
+            tables.toArray(new DataTable[tables.size()]), 
+            tablesKeys.toArray(new DataTable[tablesKeys.size()]) };
+    }
+    
+    /**
+     * Returns opened columns of tables. 
+     * @param keys data tables containing opened keys, may be null. 
+     * @return opened columns of each table, null if keys are null. 
+     */
+    private static boolean[][] projectionOf(DataTable[] keys)
+    {
+        if(keys == null)
+            return null;
+        boolean[][] projection = new boolean[keys.length][];
+        for(int i=0; i<keys.length; i++)
+            projection[i] = keys[i].getOpenedColumns();
+        return projection;
+    }
+    
+    /**
+     * Creates DataTable objects containing opened keys of a range of 
+     * indexed tables. 
+     * @param index index of table files. 
+     * @param from int index of the first table (inclusive). 
+     * @param to int index of the last table (exclusive). 
+     * @return array of DataTable objects containing opened keys. 
+     * @throws lib.AuditException thrown when batch of a table cannot be 
+     * specified. 
+     */
+    public DataTable[] extractDataKeys(TableIndex index, int from, int to) 
+            throws AuditException
+    {
+        DataTable[] auditTables = parseTableGroups(false, null, null,
+                index.getSources(TableIndex.AUDIT, from, to))[0];
         for(DataTable table : auditTables)
             table.specifyBatch();
-            
-        Arrays.sort(auditTables);
         return auditTables;
     }
     
     /**
-     * Extracts a .zip file. 
+     * Creates DataTable objects containing only keys of all indexed tables. 
+     * Only table number and keys rows of table files are parsed, data rows 
+     * are skipped. 
+     * @param index index of table files. 
+     * @return two arrays of DataTable objects: merged data tables with 
+     * commitments to keys and audit tables with opened keys. 
+     * @throws lib.AuditException thrown when a table file cannot be read. 
+     */
+    public DataTable[][] extractKeys(TableIndex index) throws AuditException
+    {
+        DataTable[][] groups = parseTableGroups(true, null, null,
+                index.getSources(TableIndex.PREPARE_A, 0, index.size(TableIndex.PREPARE_A)),
+                index.getSources(TableIndex.PREPARE_B, 0, index.size(TableIndex.PREPARE_B)),
+                index.getSources(TableIndex.FINALIZE, 0, index.size(TableIndex.FINALIZE)),
+                index.getSources(TableIndex.AUDIT, 0, index.size(TableIndex.AUDIT)));
+        return new DataTable[][] {
+            mergeTables(groups[0], groups[1], groups[2]), groups[3] };
+    }
+    
+    /**
+     * Extracts a .zip file, CRC of every entry is checked. If executor is 
+     * set, each entry is inflated by a separate task reading the file from 
+     * the offset of the entry in the central directory; largest entries are 
+     * inflated first. 
      * @param filePath file path.
      * @param destPath destination directory. 
+     * @throws ZipException thrown when cannot read the file or an entry of 
+     * it is corrupt. 
      */
     private void extractZipFile(String filePath, String destPath) throws ZipException
     {
-        ZipFile zipFile = new ZipFile(filePath);
-        zipFile.extractAll(destPath);
+        final ZipFile zipFile = new ZipFile(filePath);
+        List<FileHeader> entries = new ArrayList<>();
+        for(Object header : zipFile.getFileHeaders())
+        {
+            FileHeader fileHeader = (FileHeader)header;
+            File file = new File(destPath, fileHeader.getFileName());
+            if(fileHeader.isDirectory())
+                file.mkdirs();
+            else
+                entries.add(fileHeader);
+        }
+        Collections.sort(entries, new Comparator<FileHeader>() {
+            @Override
+            public int compare(FileHeader a, FileHeader b)
+            {
+                return Long.compare(b.getCompressedSize(), a.getCompressedSize());
+            }
+        });
+        
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        for(final FileHeader fileHeader : entries)
+        {
+            final File file = new File(destPath, fileHeader.getFileName());
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws ZipException
+                {
+                    inflateEntry(zipFile, fileHeader, file);
+                    return null;
+                }
+            });
+        }
+        ParallelKit.invokeAll(executor, tasks, ZipException.class);
+    }
+    
+    /**
+     * Inflates a single .zip file entry to disk. CRC of the entry is 
+     * checked when the entry is closed, a file of a corrupt entry is 
+     * deleted. 
+     * @param zipFile .zip file containing the entry. 
+     * @param fileHeader header of the entry. 
+     * @param file destination file. 
+     * @throws ZipException thrown when cannot read the entry, write the 
+     * file or CRC of the entry does not match, message names the entry. 
+     */
+    private static void inflateEntry(ZipFile zipFile, FileHeader fileHeader, 
+            File file) throws ZipException
+    {
+        File parent = file.getParentFile();
+        if(parent != null)
+            parent.mkdirs();
+        ZipInputStream zis = zipFile.getInputStream(fileHeader);
+        boolean finished = false;
+        IOException error = null;
+        try (OutputStream out = new FileOutputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int count;
+            while((count = zis.read(buffer)) >= 0)
+                out.write(buffer, 0, count);
+            finished = true;
+        } catch (IOException ex) {
+            error = ex;
+        } finally {
+            try {
+                zis.close(!finished);
+            } catch (IOException ex) {
+                if(error == null)
+                    error = ex;
+            }
+        }
+        if(error != null)
+        {
+            file.delete();
+            throw new ZipException("Entry "+fileHeader.getFileName()
+                    +" is corrupt! "+error.getMessage(), error);
+        }
     }
     
     /**
-     * Parses .csv table files in which are in directory specified. 
-     * @param path 
+     * Parses audit tables, specifies their batches and sorts them. 
+     * @param sources sources of audit .csv table files. 
+     * @return sorted array of DataTable objects containing opened keys. 
+     * @throws lib.AuditException thrown when batch of a table cannot be 
+     * specified. 
      */
-    private DataTable[] parseTableFiles(String path)
+    private DataTable[] parseAuditTables(List<TableSource> sources) 
+            throws AuditException
     {
-        DataTable[] prepareATables;
-        DataTable[] prepareBTables;
-        DataTable[] finalizeTables;
-        DataTable[] tables;
-        
-        File directory = new File(path);
-        
-        TableFilesFilter prepareATablesFilter
-                = new TableFilesFilter(Lib.ABB_PREPARE_A_FILES_NAME);
-        TableFilesFilter prepareBTablesFilter
-                = new TableFilesFilter(Lib.ABB_PREPARE_B_FILES_NAME);
-        TableFilesFilter finalizeTablesFilter
-                = new TableFilesFilter(Lib.ABB_FINALIZE_FILES_NAME);
-
-        // parse prepare A type .csv files
-        prepareATables = parseTableFielsGroup(directory, prepareATablesFilter);
+        DataTable[] auditTables = parseTableGroups(false, null, null, sources)[0];
         
-        // parse prepare B type .csv files
-        prepareBTables = parseTableFielsGroup(directory, prepareBTablesFilter);
-        
-        // parse finalize .csv files
-        finalizeTables = parseTableFielsGroup(directory, finalizeTablesFilter);
-        
-        Arrays.sort(prepareATables);
-        Arrays.sort(prepareBTables);
-        Arrays.sort(finalizeTables);
+        // specify batch
+        for(DataTable table : auditTables)
+            table.specifyBatch();
+            
+        Arrays.sort(auditTables);
+        return auditTables;
+    }
+    
+    /**
+     * Creates a join of data tables of all types with opened keys already 
+     * added to it. 
+     * @param keys data tables containing opened keys. 
+     * @param warnings list warnings of duplicated and missing tables are 
+     * added to. 
+     * @return TableJoin object created. 
+     */
+    private TableJoin<DataTable> newKeysJoin(DataTable[] keys, List<String> warnings)
+    {
+        TableJoin<DataTable> join = new TableJoin<>(warnings, TABLE_TYPE_NAMES);
+        for(DataTable table : keys)
+            join.add(TableIndex.AUDIT, table.getNumber(), table);
+        return join;
+    }
+    
+    /**
+     * Completes a join of data tables and merges tables found in all types. 
+     * Tables whose files have different numbers of rows are left out. 
+     * @param join join of prepare A, prepare B, finalize and audit tables. 
+     * @param warnings list warnings of tables left out are added to. 
+     * @return two arrays of DataTable objects: merged data tables and their 
+     * opened keys, in the same order. 
+     */
+    private DataTable[][] joinTables(TableJoin<DataTable> join, List<String> warnings)
+    {
+        int[] numbers = join.join();
+        List<DataTable> tables = new ArrayList<>(numbers.length);
+        List<DataTable> keys = new ArrayList<>(numbers.length);
+        for(int number : numbers)
+            mergeOrLeaveOut(join.get(number, TableIndex.PREPARE_A),
+                    join.get(number, TableIndex.PREPARE_B), 
+                    join.get(number, TableIndex.FINALIZE), 
+                    join.get(number, TableIndex.AUDIT), tables, keys, warnings);
+        return new DataTable[][] {
+            tables.toArray(new DataTable[tables.size()]), 
+            keys.toArray(new DataTable[keys.size()]) };
+    }
+    
+    /**
+     * Merges tables of the same number and adds the merged table and its 
+     * opened keys to lists. If files of the table have different numbers 
+     * of rows, the table is left out and released and a warning is added 
+     * instead. 
+     * @param prepareATable ABB prepare type A data table
+     * @param prepareBTable ABB prepare type B data table
+     * @param finalizeTable ABB finalize data table
+     * @param key data table containing opened keys of the table. 
+     * @param tables list of merged tables. 
+     * @param keys list of opened keys of merged tables. 
+     * @param warnings list of warnings. 
+     */
+    private void mergeOrLeaveOut(DataTable prepareATable, DataTable prepareBTable, 
+            DataTable finalizeTable, DataTable key, List<DataTable> tables, 
+            List<DataTable> keys, List<String> warnings)
+    {
+        try {
+            tables.add(mergeTable(prepareATable, prepareBTable, finalizeTable));
+            keys.add(key);
+        } catch (AuditException ex) {
+            warnings.add("Warning! "+ex.getMessage()+" It is not audited!");
+            prepareATable.release();
+            prepareBTable.release();
+            finalizeTable.release();
+        }
+    }
+    
+    /**
+     * Creates index of groups of table files. Table numbers of all files are 
+     * read in parallel if executor is set, table files are joined on table 
+     * numbers, tables missing in some of the groups are left out. 
+     * @param warnings list warnings of duplicated and missing tables are 
+     * added to. 
+     * @param prepareA sources of prepare A .csv table files. 
+     * @param prepareB sources of prepare B .csv table files. 
+     * @param finalize sources of finalize .csv table files. 
+     * @param audit sources of audit .csv table files. 
+     * @return TableIndex object created. 
+     * @throws lib.AuditException thrown when a table number cannot be read. 
+     */
+    private TableIndex indexTables(List<String> warnings, List<TableSource> prepareA, 
+            List<TableSource> prepareB, List<TableSource> finalize, 
+            List<TableSource> audit) throws AuditException
+    {
+        List<List<TableSource>> groups = Arrays.asList(prepareA, prepareB, finalize, audit);
+        DataTable[][] headers = parseTableGroups(true, null, null, prepareA, prepareB, finalize, audit);
+        TableJoin<TableSource> join = new TableJoin<>(warnings, TABLE_TYPE_NAMES);
         
-        // merge tables 
-        tables = mergeTables(prepareATables, prepareBTables, finalizeTables);
-        return tables;
+        for(int i=0; i<groups.size(); i++)
+        {
+            for(int j=0; j<headers[i].length; j++)
+            {
+                if(headers[i][j] == null)
+                    throw new AuditException("Cannot read table number of a table file "
+                            +groups.get(i).get(j).getName());
+                join.add(i, headers[i][j].getNumber(), groups.get(i).get(j));
+            }
+        }
+        int[] numbers = join.join();
+        TableSource[][] joined = new TableSource[groups.size()][numbers.length];
+        for(int i=0; i<groups.size(); i++)
+        {
+            for(int j=0; j<numbers.length; j++)
+                joined[i][j] = join.get(numbers[j], i);
+        }
+        return new TableIndex(numbers, joined[0], joined[1], joined[2], joined[3]);
+    }
+    
+    /**
+     * Lists .csv table files of a directory specified by a filter. 
+     * @param directory directory to be searched. 
+     * @param filter filter to be used to choose table files. 
+     * @return list of sources of table files. 
+     */
+    private List<TableSource> listTableFiles(File directory, TableFilesFilter filter)
+    {
+        List<TableSource> sources = new ArrayList<>();
+        for(File tableFile : directory.listFiles(filter))
+            sources.add(TableSource.of(tableFile));
+        return sources;
     }
     
     /**
-     * Parses a group of table files specified by filter parameter. 
-     * @param directory directory to be extracted. 
-     * @param filter filter to be used to choose tables to be extracted. 
-     * @return array of data tables of a specified group.
+     * Lists .csv table entries of a .zip file specified by a filter. 
+     * @param zipFile .zip file to be searched. 
+     * @param filter filter to be used to choose table entries. 
+     * @return list of sources of table entries. 
+     * @throws net.lingala.zip4j.exception.ZipException thrown when cannot 
+     * read specified .zip file. 
      */
-    private DataTable[] parseTableFielsGroup(File directory, TableFilesFilter filter)
+    private List<TableSource> listTableEntries(ZipFile zipFile, TableFilesFilter filter)
+            throws ZipException
     {
-        // parse prepare A type .csv files
-        DataTable[] tables;
-        File [] tableFiles = directory.listFiles(filter);
-        tables = new DataTable[tableFiles.length];
+        List<TableSource> sources = new ArrayList<>();
+        for(Object header : zipFile.getFileHeaders())
+        {
+            FileHeader fileHeader = (FileHeader)header;
+            if(filter.accept(fileHeader))
+                sources.add(TableSource.of(zipFile, fileHeader));
+        }
+        return sources;
+    }
+    
+    /**
+     * Parses groups of table files. All files of all groups are parsed in 
+     * parallel if executor is set. 
+     * @param keysOnly true if only table number and keys rows should be 
+     * parsed, false if the whole files should be parsed. 
+     * @param projection columns to be parsed, the i-th array is used for 
+     * the i-th file of each group; null if all columns should be parsed. 
+     * @param join join each table is added to as soon as it is parsed, 
+     * the i-th group is added as the i-th type; null if tables should not 
+     * be joined. 
+     * @param groups sources of table files of each group. 
+     * @return arrays of data tables of specified groups, in the same order 
+     * as groups. 
+     * @throws lib.AuditException thrown when a table file cannot be read. 
+     */
+    @SafeVarargs
+    private final DataTable[][] parseTableGroups(final boolean keysOnly, 
+            boolean[][] projection, final TableJoin<DataTable> join, 
+            List<TableSource>... groups) throws AuditException
+    {
+        ArrayList<Callable<DataTable>> tasks = new ArrayList<>();
+        int[] groupSizes = new int[groups.length];
         
-        for(int i=0; i<tables.length; i++)
+        for(int i=0; i<groups.length; i++)
         {
-            tables[i] = parseTableFile(tableFiles[i]);
+            groupSizes[i] = groups[i].size();
+            final int type = i;
+            for(int j=0; j<groups[i].size(); j++)
+            {
+                final TableSource source = groups[i].get(j);
+                final boolean[] columns = projection != null 
+                        && j < projection.length ? projection[j] : null;
+                tasks.add(new Callable<DataTable>() {
+                    @Override
+                    public DataTable call() throws AuditException
+                    {
+                        DataTable table = parseTableSource(source, keysOnly, columns);
+                        if(join != null && table != null)
+                            join.add(type, table.getNumber(), table);
+                        return table;
+                    }
+                });
+            }
         }
-        return tables;
+        return splitGroups(ParallelKit.invokeAll(executor, tasks, 
+                AuditException.class), groupSizes);
     }
     
     /**
-     * Parses a single .csv table file. 
-     * @param file .csv file.
+     * Splits list of parsed data tables into groups. 
+     * @param tables list of data tables of all groups one after another.
+     * @param groupSizes int sizes of groups. 
+     * @return arrays of data tables of each group. 
+     */
+    private DataTable[][] splitGroups(List<DataTable> tables, int[] groupSizes)
+    {
+        DataTable[][] groups = new DataTable[groupSizes.length][];
+        int index = 0;
+        for(int i=0; i<groupSizes.length; i++)
+        {
+            groups[i] = tables.subList(index, index + groupSizes[i])
+                    .toArray(new DataTable[groupSizes[i]]);
+            index += groupSizes[i];
+        }
+        return groups;
+    }
+    
+    /**
+     * Parses a single .csv table file or entry. 
+     * @param source source of .csv table data.
+     * @param keysOnly true if only table number and keys rows should be 
+     * parsed. 
+     * @param columns columns whose cells should be created, null for all 
+     * columns. 
      * @return DataTable object created. 
+     * @throws lib.AuditException thrown when the table file cannot be read 
+     * or is corrupted, e.g. CRC of a .zip entry does not match. 
      */
-    private DataTable parseTableFile(File file)
+    private DataTable parseTableSource(TableSource source, boolean keysOnly,
+            boolean[] columns) throws AuditException
+    {
+        DataTable table = null;
+        AuditMetrics.Unit unit = metrics != null 
+                ? metrics.begin(AuditMetrics.PARSE) : null;
+        Object event = metrics != null ? metrics.beginTableParsed() : null;
+        
+        try (TableLineReader reader = source.open()) {
+            table = parseTable(reader, keysOnly, columns);
+            if(metrics != null && table != null)
+            {
+                metrics.endTableParsed(event, table.getNumber(), source.getName(), 
+                        table.getRowsNumber(), reader.getBytesRead());
+                unit.end(1, table.getRowsNumber(), 0, reader.getBytesRead());
+            }
+        } catch (IOException ex) {
+            // a table which cannot be read completely is never audited
+            throw new AuditException("Table file "+source.getName()
+                    +" cannot be read! "+ex.getMessage());
+        }
+        
+        return table;
+    }
+    
+    /**
+     * Parses .csv table data read by a specified line reader. 
+     * @param reader reader of .csv table data lines. 
+     * @param keysOnly true if reading should stop after the keys row. 
+     * @param columns columns whose cells should be created, null for all 
+     * columns. Cells of other columns are left empty, rows are still 
+     * validated as a whole. 
+     * @return DataTable object created. 
+     * @throws IOException thrown when cannot read table data. 
+     */
+    private DataTable parseTable(TableLineReader reader, boolean keysOnly,
+            boolean[] columns) throws IOException
     {
         DataTable table = null;
         int tableNumber;
+        int row = 1;
         
+        TableRowTokenizer tokenizer = new TableRowTokenizer();
         
-        try {
-            BufferedReader br = new BufferedReader(new FileReader(file));
-            String line;
-            String linePattern;
-            int row = 1;
-            String[] fields;
-            String comm, plain, decomm;
-                        
-            
-            linePattern = "([ \\w\\+\\=/]*,){23}[ \\w\\+\\=/]*";
-            Pattern dataRowPattern = Pattern.compile(linePattern);
-            
-            while((line = br.readLine())!=null)
+        while(reader.readLine())
+        {
+            if(tokenizer.tokenize(reader.getBuffer(), reader.getLineOffset(),
+                    reader.getLineLength()))
             {
-                Matcher matcher = dataRowPattern.matcher(line);
-                
-                if(matcher.matches())
+                if(row == 1)
                 {
-                    fields = line.split(",",-1);
-                    
-                    if(row == 1)
-                    {
-                        // handling table number row
-                        tableNumber = Integer.parseInt(fields[0]);
-                        table = new DataTable(tableNumber);
-                    } else if(row == 2)  
+                    // handling table number row
+                    tableNumber = Integer.parseInt(tokenizer.getField(0));
+                    table = new DataTable(tableNumber, memory);
+                } else if(row == 2)  
+                {
+                    // keys row handling
+                    for(int column=0; column<Lib.COL_NUMBER; column++)
                     {
-                        // keys row handling
-                        comm = "";
-                        plain = "";
-                        decomm = "";
-                        
-                        for(int j=0; j<fields.length; j++)
-                        {
-                            switch(j%Lib.COL_CELLS_NUMBER)
-                            {
-                                    case 0: 
-                                        comm = "";
-                                        plain = "";
-                                        decomm = "";
-                                        comm = fields[j];
-                                        break;
-                                    case 1: 
-                                        plain = fields[j];
-                                        break;
-                                    case 2: 
-                                        decomm = fields[j];
-                                        table.addCellKey(new DataCellKey(comm, decomm, plain), j/Lib.COL_CELLS_NUMBER);
-                                        break;
-                            }
-                            
-                        }
-                    } else
+                        int field = column*Lib.COL_CELLS_NUMBER;
+                        String comm = tokenizer.getField(field);
+                        String plain = tokenizer.getField(field+1);
+                        String decomm = tokenizer.getField(field+2);
+                        table.addCellKey(new DataCellKey(comm, decomm, plain), column);
+                    }
+                    if(keysOnly)
+                        break;
+                } else
+                {
+                    // data rows handling - cells are decoded into column stores
+                    for(int column=0; column<Lib.COL_NUMBER; column++)
                     {
-                        // data rows handling
-                        DataRow dataRow = new DataRow();
-                        String initialVector, cipherText;
-                        String [] data;
-                        
-                        for(int j=0; j<fields.length; j++)
+                        if(columns != null && !columns[column])
+                            continue;
+                        int field = column*Lib.COL_CELLS_NUMBER;
+                        ColumnStore store = table.getColumn(column);
+                        if(tokenizer.isEmpty(field))
+                            store.addEmptyCell();
+                        else
                         {
-                            switch(j%Lib.COL_CELLS_NUMBER)
-                            {
-                                    case 0: 
-                                        if(!fields[j].isEmpty())
-                                        {
-                                            data = fields[j].split(
-                                            Lib.IV_CIPHERTEXT_DELIMITING_STRING);
-                                            initialVector = data[0];
-                                            cipherText = data[1];
-                                            dataRow.addCell(new DataCell(initialVector,cipherText), j/Lib.COL_CELLS_NUMBER);
-                                        }
-                                        
-                                        break;
-                                    case 1: 
-                                    case 2: 
-                                        break;
-                            }
-                            
+                            store.addCell(reader.getBuffer(),
+                                    tokenizer.getFieldStart(field),
+                                    tokenizer.getInitialVectorEnd(field),
+                                    tokenizer.getCiphertextStart(field),
+                                    tokenizer.getCiphertextEnd(field));
                         }
-                        table.addDataRow(dataRow);
                     }
-                    row++;
+                    table.setRowsNumber(row - 2);
                 }
+                row++;
             }
-            
-
-//            System.out.println(tableNumber + " " + file.getName());
-        } catch (FileNotFoundException ex) {
-            Logger.getLogger(ExtractionKit.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (IOException ex) {
-            Logger.getLogger(ExtractionKit.class.getName()).log(Level.SEVERE, null, ex);
         }
         
+        if(table != null)
+        {
+            for(int column=0; column<Lib.COL_NUMBER; column++)
+                table.getColumn(column).trimToSize();
+        }
         return table;
     }
     
     /**
      * Function used for merging data tables of different type published 
-     * separately by EA. 
+     * separately by EA. Tables of all types should be joined already, 
+     * the i-th tables of all types are merged. 
      * @param prepareATables ABB prepare type A data tables
      * @param prepareBTables ABB prepare type B data tables
      * @param finalizeTables ABB finalize data tables
      * @return merged data tables
+     * @throws lib.AuditException thrown when files of a table have different 
+     * numbers of rows. 
      */
     private DataTable[] mergeTables(DataTable[] prepareATables,
-            DataTable[] prepareBTables, DataTable[] finalizeTables)
+            DataTable[] prepareBTables, DataTable[] finalizeTables) 
+            throws AuditException
     {
-        ArrayList<DataRow> prepareADataRows;
-        ArrayList<DataRow> prepareBDataRows;
-        ArrayList<DataRow> finalizeDataRows;
-        
         DataTable [] tables = new DataTable[prepareATables.length];
         
         for(int i=0; i<tables.length; i++)
-        {
-            DataCellKey[] cellKeys = new DataCellKey[Lib.COL_NUMBER];
-            
-            // get data rows if possible
-            // get prepare A data rows
-            if(i < prepareATables.length)
-            {
-                prepareADataRows = prepareATables[i].getDataRows();
-                cellKeys[Lib.COL_HEADER_SN_AND_VC] = prepareATables[i].getCellKeys()[Lib.COL_HEADER_SN_AND_VC];
-                cellKeys[Lib.COL_HEADER_POSS_VOTE] = prepareATables[i].getCellKeys()[Lib.COL_HEADER_POSS_VOTE];
-                cellKeys[Lib.COL_HEADER_PRE_SUM_A] = prepareATables[i].getCellKeys()[Lib.COL_HEADER_PRE_SUM_A];
-                cellKeys[Lib.COL_HEADER_PRE_SUM_B] = prepareATables[i].getCellKeys()[Lib.COL_HEADER_PRE_SUM_B];
-                
-                if(i < prepareBTables.length)
-                {
-                    prepareBDataRows = prepareBTables[i].getDataRows();
-                    cellKeys[Lib.COL_HEADER_FINAL_SUM_A] = prepareBTables[i].getCellKeys()[Lib.COL_HEADER_FINAL_SUM_A];
-                    cellKeys[Lib.COL_HEADER_FINAL_SUM_B] = prepareBTables[i].getCellKeys()[Lib.COL_HEADER_FINAL_SUM_B];
-                    for(int j=0; j<prepareBDataRows.size(); j++)
-                    {
-                        prepareADataRows.get(j).addCell(
-                                prepareBDataRows.get(j).getDataCell(Lib.COL_HEADER_FINAL_SUM_A),
-                                Lib.COL_HEADER_FINAL_SUM_A);
-                        prepareADataRows.get(j).addCell(
-                                prepareBDataRows.get(j).getDataCell(Lib.COL_HEADER_FINAL_SUM_B),
-                                Lib.COL_HEADER_FINAL_SUM_B);
-                    }
-                    if(i < finalizeTables.length)
-                    {
-                        finalizeDataRows = finalizeTables[i].getDataRows();
-                        cellKeys[Lib.COL_HEADER_P_CHECK] = finalizeTables[i].getCellKeys()[Lib.COL_HEADER_P_CHECK];
-                        cellKeys[Lib.COL_HEADER_MARK_VOTED] = finalizeTables[i].getCellKeys()[Lib.COL_HEADER_MARK_VOTED];
-                        for(int j=0; j<prepareBDataRows.size(); j++)
-                        {
-                            prepareADataRows.get(j).addCell(
-                                    finalizeDataRows.get(j).getDataCell(Lib.COL_HEADER_P_CHECK),
-                                    Lib.COL_HEADER_P_CHECK);
-                            prepareADataRows.get(j).addCell(
-                                    finalizeDataRows.get(j).getDataCell(Lib.COL_HEADER_MARK_VOTED),
-                                    Lib.COL_HEADER_MARK_VOTED);
-                        }
-                    }
-                    
-                }
-                
-                // create new table from prepare A data rows 
-                DataTable table = new DataTable(i);
-                // add filled data rows 
-                for(DataRow row : prepareADataRows)
-                    table.addDataRow(row);
-                // add cell keys
-                for(int j=0; j<Lib.COL_NUMBER; j++)
-                {
-                    table.addCellKey(cellKeys[j], j);
-                }
-                tables[i] = table;
-            }
-        }
+            tables[i] = mergeTable(prepareATables[i], prepareBTables[i], finalizeTables[i]);
         return tables;
     }
     
+    /**
+     * Merges prepare A, prepare B and finalize tables of the same number. 
+     * Column stores are shared, so all tables must have the same number of 
+     * rows. 
+     * @param prepareATable ABB prepare type A data table
+     * @param prepareBTable ABB prepare type B data table
+     * @param finalizeTable ABB finalize data table
+     * @return merged data table
+     * @throws lib.AuditException thrown when tables have different numbers 
+     * of rows. 
+     */
+    private DataTable mergeTable(DataTable prepareATable,
+            DataTable prepareBTable, DataTable finalizeTable) 
+            throws AuditException
+    {
+        int rows = prepareATable.getRowsNumber();
+        if(prepareBTable.getRowsNumber() != rows 
+                || finalizeTable.getRowsNumber() != rows)
+            throw new AuditException("Table: "+prepareATable.getNumber()
+                    +" has "+rows+" rows in "+Lib.ABB_PREPARE_A_FILES_NAME+", "
+                    +prepareBTable.getRowsNumber()+" in "+Lib.ABB_PREPARE_B_FILES_NAME
+                    +" and "+finalizeTable.getRowsNumber()+" in "
+                    +Lib.ABB_FINALIZE_FILES_NAME+" table files!");
+        
+        // create new table with columns of prepare A table
+        DataTable table = new DataTable(prepareATable.getNumber(), memory);
+        table.setRowsNumber(prepareATable.getRowsNumber());
+        copyColumn(prepareATable, table, Lib.COL_HEADER_SN_AND_VC);
+        copyColumn(prepareATable, table, Lib.COL_HEADER_POSS_VOTE);
+        copyColumn(prepareATable, table, Lib.COL_HEADER_PRE_SUM_A);
+        copyColumn(prepareATable, table, Lib.COL_HEADER_PRE_SUM_B);
+        
+        // add columns of prepare B and finalize tables
+        copyColumn(prepareBTable, table, Lib.COL_HEADER_FINAL_SUM_A);
+        copyColumn(prepareBTable, table, Lib.COL_HEADER_FINAL_SUM_B);
+        copyColumn(finalizeTable, table, Lib.COL_HEADER_P_CHECK);
+        copyColumn(finalizeTable, table, Lib.COL_HEADER_MARK_VOTED);
+        return table;
+    }
+    
+    /**
+     * Copies a column (store and cell key) from one table to another. Column 
+     * store is shared, no data is copied. 
+     * @param source table the column is copied from. 
+     * @param destination table the column is copied to. 
+     * @param column column number. 
+     */
+    private static void copyColumn(DataTable source, DataTable destination, int column)
+    {
+        destination.setColumn(source.getColumn(column), column);
+        destination.addCellKey(source.getCellKeys()[column], column);
+    }
+    
 
     
     
@@ -390,6 +902,28 @@ class TableFilesFilter implements FileFilter
         }
     }
     
+    /**
+     * Tells if a .zip file entry is a .csv data table file of a type 
+     * specified, placed in the ABB tables folder of the archive. 
+     * @param fileHeader header of a .zip file entry. 
+     * @return true if entry should be accepted, false otherwise. 
+     */
+    public boolean accept(FileHeader fileHeader)
+    {
+        if(fileHeader.isDirectory())
+            return false;
+        else
+        {
+            String path = fileHeader.getFileName().replace('\\', '/');
+            int index = path.lastIndexOf('/');
+            String folder = path.substring(0, index+1);
+            String name = path.substring(index+1);
+            return folder.equals(Lib.ABB_ARCHIVE_TABLES_FOLDER)
+                    && path.toLowerCase().endsWith(".csv") 
+                    && name.contains("xyz_table") && name.contains(type);
+        }
+    }
+    
 }
 
 /**
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+import java.util.Arrays;
+
+/**
+ * Byte arena kept in a single byte array on the Java heap. 
+ * @author Maciej Kosarzecki
+ */
+public class HeapArena extends ByteArena {
+    
+    /**
+     * Array containing data. 
+     */
+    private byte[] data;
+    
+    /**
+     * Number of used bytes of data array. 
+     */
+    private int length;
+    
+    /**
+     * Default constructor. 
+     * @param capacity int initial capacity in bytes. 
+     */
+    public HeapArena(int capacity)
+    {
+        data = new byte[capacity];
+    }
+    
+    @Override
+    public int append(byte[] buffer, int offset, int length)
+    {
+        if(this.length + length > data.length)
+            data = Arrays.copyOf(data, Math.max(data.length*2, this.length + length));
+        System.arraycopy(buffer, offset, data, this.length, length);
+        this.length += length;
+        return this.length - length;
+    }
+    
+    @Override
+    public byte get(int offset) { return data[offset]; }
+    
+    @Override
+    public void get(int offset, byte[] buffer, int bufferOffset, int length)
+    {
+        System.arraycopy(data, offset, buffer, bufferOffset, length);
+    }
+    
+    @Override
+    public void trimToSize()
+    {
+        if(length < data.length)
+            data = Arrays.copyOf(data, length);
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sink committing audit events as Java Flight Recorder events: 
+ * lib.AuditPhase, lib.TableParsed, lib.ColumnDecrypted and 
+ * lib.Inconsistency in category "RSE Audit". The tool is compiled for old 
+ * JVMs, so event types are defined at runtime by jdk.jfr.EventFactory 
+ * through reflection, on any JVM providing the jdk.jfr API (JDK 11 and 
+ * later, JDK 8 updates with backported JFR). Events are built only if their 
+ * type is enabled in a running recording. Events of work are begun when the 
+ * work starts and committed when it ends, so they carry its duration. 
+ * @author Maciej Kosarzecki
+ */
+public class JfrEventSink implements AuditEventSink {
+    
+    /**
+     * Category of audit events. 
+     */
+    private static final String CATEGORY = "RSE Audit";
+    
+    private final EventType phase;
+    private final EventType tableParsed;
+    private final EventType columnDecrypted;
+    private final EventType inconsistency;
+    
+    /**
+     * Default constructor, registers event types. 
+     * @throws ReflectiveOperationException thrown when JFR event factory is 
+     * not available. 
+     */
+    private JfrEventSink() throws ReflectiveOperationException
+    {
+        Jfr jfr = new Jfr();
+        phase = jfr.define("lib.AuditPhase", "Audit Phase", 
+                "Unit of work of an audit phase", 
+                jfr.field(String.class, "phase", "Phase"),
+                jfr.field(long.class, "tables", "Tables"),
+                jfr.field(long.class, "rows", "Rows"),
+                jfr.field(long.class, "cells", "Cells"),
+                jfr.bytesField("bytes", "Bytes Read"));
+        tableParsed = jfr.define("lib.TableParsed", "Table Parsed", 
+                "Table file parsed", 
+                jfr.field(int.class, "table", "Table"),
+                jfr.field(String.class, "file", "File"),
+                jfr.field(int.class, "rows", "Rows"),
+                jfr.bytesField("bytes", "Bytes Read"));
+        columnDecrypted = jfr.define("lib.ColumnDecrypted", "Column Decrypted", 
+                "Column of a table decrypted with its opened key", 
+                jfr.field(int.class, "table", "Table"),
+                jfr.field(int.class, "batch", "Batch"),
+                jfr.field(int.class, "column", "Column"),
+                jfr.field(int.class, "rows", "Rows"),
+                jfr.bytesField("bytes", "Ciphertext Bytes"));
+        inconsistency = jfr.define("lib.Inconsistency", "Inconsistency", 
+                "Inconsistency found by the audit", 
+                jfr.field(int.class, "table", "Table"),
+                jfr.field(int.class, "batch", "Batch"),
+                jfr.field(String.class, "check", "Check"),
+                jfr.field(String.class, "message", "Message"));
+    }
+    
+    /**
+     * Creates sink committing JFR events. 
+     * @return sink created or null if JFR event factory is not available 
+     * in this JVM. 
+     */
+    public static AuditEventSink create()
+    {
+        try {
+            return new JfrEventSink();
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError ex) {
+            return null;
+        }
+    }
+    
+    @Override
+    public Object beginPhase()
+    {
+        return phase.begin();
+    }
+    
+    @Override
+    public void endPhase(Object event, String phase, long tables, long rows, 
+            long cells, long bytes)
+    {
+        this.phase.commit(event, phase, tables, rows, cells, bytes);
+    }
+    
+    @Override
+    public Object beginTableParsed()
+    {
+        return tableParsed.begin();
+    }
+    
+    @Override
+    public void endTableParsed(Object event, int table, String file, int rows, 
+            long bytes)
+    {
+        tableParsed.commit(event, table, file, rows, bytes);
+    }
+    
+    @Override
+    public Object beginColumnDecrypted()
+    {
+        return columnDecrypted.begin();
+    }
+    
+    @Override
+    public void endColumnDecrypted(Object event, int table, int batch, 
+            int column, int rows, long bytes)
+    {
+        columnDecrypted.commit(event, table, batch, column, rows, bytes);
+    }
+    
+    @Override
+    public void inconsistency(int table, int batch, String check, String message)
+    {
+        inconsistency.commit(inconsistency.begin(), table, batch, check, message);
+    }
+    
+    /**
+     * JFR event type defined by an event factory. 
+     */
+    private static class EventType
+    {
+        private final Object factory;
+        private final Object type;
+        private final Method newEvent;
+        private final Method isEnabled;
+        private final Method set;
+        private final Method begin;
+        private final Method end;
+        private final Method commit;
+        
+        /**
+         * Default constructor. 
+         * @param factory jdk.jfr.EventFactory of the event type. 
+         * @throws ReflectiveOperationException thrown when JFR classes do 
+         * not match. 
+         */
+        EventType(Object factory) throws ReflectiveOperationException
+        {
+            this.factory = factory;
+            type = factory.getClass().getMethod("getEventType").invoke(factory);
+            newEvent = factory.getClass().getMethod("newEvent");
+            isEnabled = type.getClass().getMethod("isEnabled");
+            Class<?> event = Class.forName("jdk.jfr.Event");
+            set = event.getMethod("set", int.class, Object.class);
+            begin = event.getMethod("begin");
+            end = event.getMethod("end");
+            commit = event.getMethod("commit");
+        }
+        
+        /**
+         * Creates and begins an event if its type is enabled. 
+         * @return jdk.jfr.Event begun or null if the type is not enabled. 
+         */
+        Object begin()
+        {
+            try {
+                if(!(Boolean)isEnabled.invoke(type))
+                    return null;
+                Object event = newEvent.invoke(factory);
+                begin.invoke(event);
+                return event;
+            } catch (ReflectiveOperationException ex) {
+                // events are best effort, the audit goes on without them
+                return null;
+            }
+        }
+        
+        /**
+         * Ends and commits an event. 
+         * @param event jdk.jfr.Event returned by begin(), null is ignored. 
+         * @param values values of fields. 
+         */
+        void commit(Object event, Object... values)
+        {
+            if(event == null)
+                return;
+            try {
+                end.invoke(event);
+                for(int i=0; i<values.length; i++)
+                    set.invoke(event, i, values[i]);
+                commit.invoke(event);
+            } catch (ReflectiveOperationException ex) {
+                // events are best effort, the audit goes on without them
+            }
+        }
+    }
+    
+    /**
+     * Reflective access to JFR event factory, annotations and value 
+     * descriptors. 
+     */
+    private static class Jfr
+    {
+        private final Constructor<?> annotationElement;
+        private final Constructor<?> valueDescriptor;
+        private final Method create;
+        private final Class<?> name;
+        private final Class<?> label;
+        private final Class<?> description;
+        private final Class<?> category;
+        private final Class<?> stackTrace;
+        private final Class<?> dataAmount;
+        
+        /**
+         * Default constructor. 
+         * @throws ReflectiveOperationException thrown when JFR event factory 
+         * is not available. 
+         */
+        Jfr() throws ReflectiveOperationException
+        {
+            Class<?> annotationClass = Class.forName("jdk.jfr.AnnotationElement");
+            annotationElement = annotationClass.getConstructor(Class.class, Object.class);
+            valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor")
+                    .getConstructor(Class.class, String.class, List.class);
+            create = Class.forName("jdk.jfr.EventFactory")
+                    .getMethod("create", List.class, List.class);
+            name = Class.forName("jdk.jfr.Name");
+            label = Class.forName("jdk.jfr.Label");
+            description = Class.forName("jdk.jfr.Description");
+            category = Class.forName("jdk.jfr.Category");
+            stackTrace = Class.forName("jdk.jfr.StackTrace");
+            dataAmount = Class.forName("jdk.jfr.DataAmount");
+        }
+        
+        /**
+         * Defines an event type. Stack traces are not recorded, they would 
+         * show only reflective calls of the sink. 
+         * @param eventName String name of the event type. 
+         * @param eventLabel String label of the event type. 
+         * @param eventDescription String description of the event type. 
+         * @param fields value descriptors of fields. 
+         * @return event type created. 
+         * @throws ReflectiveOperationException thrown when JFR classes do 
+         * not match. 
+         */
+        EventType define(String eventName, String eventLabel, 
+                String eventDescription, Object... fields) 
+                throws ReflectiveOperationException
+        {
+            List<Object> annotations = Arrays.asList(
+                    annotation(name, eventName),
+                    annotation(label, eventLabel),
+                    annotation(description, eventDescription),
+                    annotation(category, new String[] { CATEGORY }),
+                    annotation(stackTrace, false));
+            Object factory = create.invoke(null, annotations, Arrays.asList(fields));
+            return new EventType(factory);
+        }
+        
+        /**
+         * Creates descriptor of a field. 
+         * @param type type of the field. 
+         * @param fieldName String name of the field. 
+         * @param fieldLabel String label of the field. 
+         * @return jdk.jfr.ValueDescriptor created. 
+         * @throws ReflectiveOperationException thrown when JFR classes do 
+         * not match. 
+         */
+        Object field(Class<?> type, String fieldName, String fieldLabel) 
+                throws ReflectiveOperationException
+        {
+            return field(type, fieldName, fieldLabel, null, null);
+        }
+        
+        /**
+         * Creates descriptor of a field of a number of bytes. 
+         * @param fieldName String name of the field. 
+         * @param fieldLabel String label of the field. 
+         * @return jdk.jfr.ValueDescriptor created. 
+         * @throws ReflectiveOperationException thrown when JFR classes do 
+         * not match. 
+         */
+        Object bytesField(String fieldName, String fieldLabel) 
+                throws ReflectiveOperationException
+        {
+            return field(long.class, fieldName, fieldLabel, dataAmount, "BYTES");
+        }
+        
+        /**
+         * Creates descriptor of a field. 
+         * @param type type of the field. 
+         * @param fieldName String name of the field. 
+         * @param fieldLabel String label of the field. 
+         * @param unit annotation of unit of the field or null. 
+         * @param unitValue String value of unit annotation. 
+         * @return jdk.jfr.ValueDescriptor created. 
+         * @throws ReflectiveOperationException thrown when JFR classes do 
+         * not match. 
+         */
+        private Object field(Class<?> type, String fieldName, String fieldLabel,
+                Class<?> unit, String unitValue) throws ReflectiveOperationException
+        {
+            List<Object> annotations = new ArrayList<>();
+            annotations.add(annotation(label, fieldLabel));
+            if(unit != null)
+                annotations.add(annotation(unit, unitValue));
+            return valueDescriptor.newInstance(type, fieldName, 
+                    Collections.unmodifiableList(annotations));
+        }
+        
+        /**
+         * Creates an annotation element. 
+         * @param type annotation type. 
+         * @param value value of the annotation. 
+         * @return jdk.jfr.AnnotationElement created. 
+         * @throws ReflectiveOperationException thrown when JFR classes do 
+         * not match. 
+         */
+        private Object annotation(Class<?> type, Object value) 
+                throws ReflectiveOperationException
+        {
+            return annotationElement.newInstance(type.asSubclass(Annotation.class), value);
+        }
+    }
+}
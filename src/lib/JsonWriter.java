@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Minimal writer of JSON documents used for machine-readable reports. 
+ * Objects and arrays are written one nested level per line. 
+ * @author Maciej Kosarzecki
+ */
+public class JsonWriter {
+    
+    private final StringBuilder json = new StringBuilder();
+    
+    /**
+     * Numbers of values written to open objects and arrays, used for 
+     * separating values with commas. 
+     */
+    private final Deque<int[]> counts = new ArrayDeque<>();
+    
+    /**
+     * Determines if the last written token is a name of an object member. 
+     */
+    private boolean afterName;
+    
+    /**
+     * Starts an object. 
+     * @return this writer. 
+     */
+    public JsonWriter beginObject()
+    {
+        return begin('{');
+    }
+    
+    /**
+     * Ends the last started object. 
+     * @return this writer. 
+     */
+    public JsonWriter endObject()
+    {
+        return end('}');
+    }
+    
+    /**
+     * Starts an array. 
+     * @return this writer. 
+     */
+    public JsonWriter beginArray()
+    {
+        return begin('[');
+    }
+    
+    /**
+     * Ends the last started array. 
+     * @return this writer. 
+     */
+    public JsonWriter endArray()
+    {
+        return end(']');
+    }
+    
+    /**
+     * Writes name of the next member of an object. 
+     * @param name String name of the member. 
+     * @return this writer. 
+     */
+    public JsonWriter name(String name)
+    {
+        separate();
+        quote(name);
+        json.append(": ");
+        afterName = true;
+        return this;
+    }
+    
+    /**
+     * Writes a String value. 
+     * @param value String value, null is written as JSON null. 
+     * @return this writer. 
+     */
+    public JsonWriter value(String value)
+    {
+        separate();
+        if(value == null)
+            json.append("null");
+        else
+            quote(value);
+        return this;
+    }
+    
+    /**
+     * Writes an integer value. 
+     * @param value long value. 
+     * @return this writer. 
+     */
+    public JsonWriter value(long value)
+    {
+        separate();
+        json.append(value);
+        return this;
+    }
+    
+    /**
+     * Writes a floating point value, rounded to three decimal places. 
+     * Infinite and NaN values are written as JSON null. 
+     * @param value double value. 
+     * @return this writer. 
+     */
+    public JsonWriter value(double value)
+    {
+        separate();
+        if(Double.isNaN(value) || Double.isInfinite(value))
+            json.append("null");
+        else
+            json.append(Math.round(value * 1000) / 1000.0);
+        return this;
+    }
+    
+    /**
+     * Writes a boolean value. 
+     * @param value boolean value. 
+     * @return this writer. 
+     */
+    public JsonWriter value(boolean value)
+    {
+        separate();
+        json.append(value);
+        return this;
+    }
+    
+    /**
+     * Returns written JSON document. 
+     * @return String JSON document. 
+     */
+    @Override
+    public String toString()
+    {
+        return json.toString();
+    }
+    
+    /**
+     * Starts an object or an array. 
+     * @param bracket char opening bracket. 
+     * @return this writer. 
+     */
+    private JsonWriter begin(char bracket)
+    {
+        separate();
+        json.append(bracket);
+        counts.push(new int[1]);
+        return this;
+    }
+    
+    /**
+     * Ends an object or an array. 
+     * @param bracket char closing bracket. 
+     * @return this writer. 
+     */
+    private JsonWriter end(char bracket)
+    {
+        int[] count = counts.pop();
+        if(count[0] > 0)
+            newLine();
+        json.append(bracket);
+        return this;
+    }
+    
+    /**
+     * Separates the next value or name from the previous one. Values of 
+     * object members follow their names on the same line. 
+     */
+    private void separate()
+    {
+        if(afterName)
+        {
+            afterName = false;
+            return;
+        }
+        if(counts.isEmpty())
+            return;
+        int[] count = counts.peek();
+        if(count[0]++ > 0)
+            json.append(',');
+        newLine();
+    }
+    
+    /**
+     * Starts a new line indented to the current nesting level. 
+     */
+    private void newLine()
+    {
+        json.append('\n');
+        for(int i=0; i<counts.size(); i++)
+            json.append("  ");
+    }
+    
+    /**
+     * Writes a quoted and escaped String. 
+     * @param value String to be written. 
+     */
+    private void quote(String value)
+    {
+        json.append('"');
+        for(int i=0; i<value.length(); i++)
+        {
+            char c = value.charAt(i);
+            switch(c)
+            {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if(c < 0x20)
+                        json.append(String.format("\\u%04x", (int)c));
+                    else
+                        json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package lib;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class used for checking correctness of opened keys i.e. if 
+ * H(plain||decomm)=comm. Tables are checked in parallel, each thread uses 
+ * its own message digest and digests are compared with raw bytes of 
+ * commitments. 
+ * @author Maciej Kosarzecki
+ */
+public class KeyVerifier {
+    
+    /**
+     * Message digests confined to threads. 
+     */
+    private final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue()
+        {
+            try {
+                return MessageDigest.getInstance(Lib.HASH_FUNCTION);
+            } catch (NoSuchAlgorithmException ex) {
+                Logger.getLogger(KeyVerifier.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            return null;
+        }
+    };
+    
+    /**
+     * Buffers for computed digests confined to threads. 
+     */
+    private final ThreadLocal<byte[]> digestBuffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue()
+        {
+            return new byte[digests.get().getDigestLength()];
+        }
+    };
+    
+    /**
+     * Metrics checks are recorded in, null if not recorded. 
+     */
+    private AuditMetrics metrics;
+    
+    /**
+     * Sets metrics checks of opened keys are recorded in. 
+     * @param metrics metrics to be used or null if checks should not be 
+     * recorded. 
+     */
+    public void setMetrics(AuditMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+    
+    /**
+     * Starts checks of opened keys of data tables. Each table is checked 
+     * by a separate task, if executor is null tables are checked before this 
+     * method returns. 
+     * @param executor executor used for checks or null. 
+     * @param keyTables data tables containing opened keys. 
+     * @return list of results of checks in the same order as tables, see 
+     * checkTable(). 
+     */
+    public List<Future<boolean[]>> checkTables(ExecutorService executor, 
+            DataTable[] keyTables)
+    {
+        List<Future<boolean[]>> results = new ArrayList<>(keyTables.length);
+        for(final DataTable table : keyTables)
+        {
+            FutureTask<boolean[]> task = new FutureTask<>(new Callable<boolean[]>() {
+                @Override
+                public boolean[] call()
+                {
+                    return checkTable(table);
+                }
+            });
+            if(executor == null)
+                task.run();
+            else
+                executor.execute(task);
+            results.add(task);
+        }
+        return results;
+    }
+    
+    /**
+     * Checks opened keys of a table. 
+     * @param keyTable data table containing opened keys. 
+     * @return boolean array, false for columns with inconsistent opened keys.
+     */
+    public boolean[] checkTable(DataTable keyTable)
+    {
+        AuditMetrics.Unit unit = metrics != null 
+                ? metrics.begin(AuditMetrics.KEY_CHECK) : null;
+        int opened = 0;
+        boolean[] correct = new boolean[Lib.COL_NUMBER];
+        for(int i=0; i<Lib.COL_NUMBER; i++)
+        {
+            DataCellKey key = keyTable.getCellKeys()[i];
+            correct[i] = !key.isOpened() || checkOpenedKey(key);
+            if(key.isOpened())
+                opened++;
+        }
+        if(unit != null)
+            unit.end(1, 0, opened, 0);
+        return correct;
+    }
+    
+    /**
+     * Checks consistency of decommitment and plaintext values of an opened key.
+     * @param key opened key. 
+     * @return true if consistency is kept, false otherwise. 
+     */
+    public boolean checkOpenedKey(DataCellKey key)
+    {
+        // performs check if H(plain || decomm) = comm
+        MessageDigest md = digests.get();
+        byte[] comm = digestBuffers.get();
+        md.update(key.getPlaintextBytes());
+        md.update(key.getDecommitmentBytes());
+        try {
+            md.digest(comm, 0, comm.length);
+        } catch (DigestException ex) {
+            Logger.getLogger(KeyVerifier.class.getName()).log(Level.SEVERE, null, ex);
+            return false;
+        }
+        return MessageDigest.isEqual(comm, key.getCommitmentBytes());
+    }
+}
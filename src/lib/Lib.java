@@ -92,6 +92,12 @@ public class Lib {
     public static String ABB_EXTRACTION_DESTINATION_FOLDER = "Archives"
             + File.separator;
     
+    /**
+     * String name of the folder holding .csv table files inside 
+     * the ABB.zip archive.
+     */
+    public static String ABB_ARCHIVE_TABLES_FOLDER = "Archives/";
+    
     /**
      * String that is included in ABB prepare type A .csv files name.
      */
@@ -157,6 +163,26 @@ public class Lib {
      */
     public static String COL_VALUE_FAKE_VOTE = "-1";
     
+    /**
+     * Code of a decrypted value other than "0", "1" and "-1".
+     */
+    public static final byte CODE_OTHER = 0;
+    
+    /**
+     * Code of a decrypted "0" value.
+     */
+    public static final byte CODE_ZERO = 1;
+    
+    /**
+     * Code of a decrypted "1" value.
+     */
+    public static final byte CODE_ONE = 2;
+    
+    /**
+     * Code of a decrypted "-1" value.
+     */
+    public static final byte CODE_MINUS_ONE = 3;
+    
     /**
      * Column serial number & vote code delimiting character.
      */
@@ -167,4 +193,33 @@ public class Lib {
      */
     public static int SERIAL_NUM_PER_BALLOT = 4;
     
+    /**
+     * Returns code of an ASCII encoded value. 
+     * @param value buffer containing value. 
+     * @param offset offset of value in buffer. 
+     * @param length length of value. 
+     * @return CODE_ZERO, CODE_ONE, CODE_MINUS_ONE or CODE_OTHER. 
+     */
+    public static byte valueCode(byte[] value, int offset, int length)
+    {
+        if(length == 1 && value[offset] == '0')
+            return CODE_ZERO;
+        if(length == 1 && value[offset] == '1')
+            return CODE_ONE;
+        if(length == 2 && value[offset] == '-' && value[offset+1] == '1')
+            return CODE_MINUS_ONE;
+        return CODE_OTHER;
+    }
+    
+    /**
+     * Returns code of a value. 
+     * @param value String value e.g. COL_VALUE_VOTED. 
+     * @return CODE_ZERO, CODE_ONE, CODE_MINUS_ONE or CODE_OTHER. 
+     */
+    public static byte valueCode(String value)
+    {
+        byte[] bytes = value.getBytes();
+        return valueCode(bytes, 0, bytes.length);
+    }
+    
 }
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Allocator of off-heap memory for byte arenas. Memory is taken in large 
+ * slabs, either direct buffers or regions of a temporary file mapped into 
+ * memory, and split into chunks handed to arenas. Memory of mapped slabs 
+ * is paged out to the file by the operating system, so data may be larger 
+ * than RAM. A slab whose chunks were all released is reused for following 
+ * chunks, so memory and the temporary file grow only with data in use. 
+ * Slabs are unmapped and the file is deleted when the allocator is closed. 
+ * @author Maciej Kosarzecki
+ */
+public class OffHeapAllocator implements Closeable {
+    
+    /**
+     * Size of a slab. 
+     */
+    private static final int SLAB_SIZE = 64*1024*1024;
+    
+    /**
+     * Temporary file, null if direct buffers are used. 
+     */
+    private final File file;
+    
+    /**
+     * Channel of temporary file, null if direct buffers are used. 
+     */
+    private final FileChannel channel;
+    
+    /**
+     * Size of mapped part of temporary file. 
+     */
+    private long fileLength;
+    
+    /**
+     * Current slab chunks are taken from. 
+     */
+    private Slab slab;
+    
+    /**
+     * All slabs of the allocator. 
+     */
+    private final List<Slab> slabs = new ArrayList<>();
+    
+    /**
+     * Slabs with no chunks in use, ready to be reused. 
+     */
+    private final List<Slab> freeSlabs = new ArrayList<>();
+    
+    /**
+     * Slabs of chunks in use. 
+     */
+    private final Map<ByteBuffer, Slab> chunks = new IdentityHashMap<>();
+    
+    /**
+     * Determines if the allocator was closed. 
+     */
+    private boolean closed;
+    
+    /**
+     * Constructor of allocator using direct buffers. 
+     */
+    public OffHeapAllocator()
+    {
+        file = null;
+        channel = null;
+    }
+    
+    /**
+     * Constructor of allocator using memory-mapped temporary file. 
+     * @param directory directory of temporary file or null for default 
+     * temporary directory. 
+     * @throws IOException thrown when cannot create temporary file. 
+     */
+    public OffHeapAllocator(File directory) throws IOException
+    {
+        file = File.createTempFile("abb-tables", ".tmp", directory);
+        file.deleteOnExit();
+        channel = new RandomAccessFile(file, "rw").getChannel();
+    }
+    
+    /**
+     * Allocates a chunk of memory. 
+     * @param size int size of a chunk in bytes. 
+     * @return ByteBuffer of a specified capacity, its position is 0. 
+     */
+    public synchronized ByteBuffer allocate(int size)
+    {
+        if(closed)
+            throw new IllegalStateException("Off-heap allocator is closed");
+        if(slab == null || slab.buffer.remaining() < size)
+        {
+            Slab previous = slab;
+            slab = takeSlab(Math.max(size, SLAB_SIZE));
+            if(previous != null && previous.chunks == 0)
+                freeSlab(previous);
+        }
+        ByteBuffer buffer = slab.buffer;
+        int position = buffer.position();
+        buffer.limit(position + size);
+        ByteBuffer chunk = buffer.slice();
+        buffer.limit(buffer.capacity());
+        buffer.position(position + size);
+        slab.chunks++;
+        chunks.put(chunk, slab);
+        return chunk;
+    }
+    
+    /**
+     * Releases a chunk allocated by this allocator, it must not be used 
+     * afterwards. 
+     * @param chunk ByteBuffer chunk. 
+     */
+    public synchronized void release(ByteBuffer chunk)
+    {
+        Slab owner = chunks.remove(chunk);
+        if(owner != null && --owner.chunks == 0 && owner != slab)
+            freeSlab(owner);
+    }
+    
+    /**
+     * Unmaps or frees all slabs and deletes temporary file. Chunks of 
+     * the allocator must not be used afterwards. 
+     */
+    @Override
+    public synchronized void close()
+    {
+        if(closed)
+            return;
+        closed = true;
+        for(Slab owned : slabs)
+            unmap(owned.buffer);
+        slabs.clear();
+        freeSlabs.clear();
+        chunks.clear();
+        slab = null;
+        if(channel != null)
+        {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                Logger.getLogger(OffHeapAllocator.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            file.delete();
+        }
+    }
+    
+    /**
+     * Returns a free slab of a specified size at least, a new slab is 
+     * created if there is none. 
+     * @param size int size of a slab in bytes. 
+     * @return Slab with no chunks. 
+     */
+    private Slab takeSlab(int size)
+    {
+        for(int i=0; i<freeSlabs.size(); i++)
+        {
+            if(freeSlabs.get(i).buffer.capacity() >= size)
+                return freeSlabs.remove(i);
+        }
+        Slab created = new Slab(newSlab(size));
+        slabs.add(created);
+        return created;
+    }
+    
+    /**
+     * Makes a slab with no chunks available for reuse. 
+     * @param free slab with no chunks. 
+     */
+    private void freeSlab(Slab free)
+    {
+        free.buffer.clear();
+        freeSlabs.add(free);
+    }
+    
+    /**
+     * Creates a new slab buffer. 
+     * @param size int size of a slab in bytes. 
+     * @return ByteBuffer slab. 
+     */
+    private ByteBuffer newSlab(int size)
+    {
+        if(channel == null)
+            return ByteBuffer.allocateDirect(size);
+        try {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, fileLength, size);
+            fileLength += size;
+            return mapped;
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot map temporary table file", ex);
+        }
+    }
+    
+    /**
+     * Unmaps a mapped buffer or frees a direct buffer at once, instead of 
+     * waiting for the garbage collector. Unsafe.invokeCleaner() is used on 
+     * JDK 9 and later, the cleaner of the buffer on earlier JDKs. If neither 
+     * is available the buffer is left to the garbage collector. 
+     * @param buffer direct or mapped buffer, not a slice of one. 
+     */
+    private static void unmap(ByteBuffer buffer)
+    {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException ex) {
+                invokeCleaner = null;
+            }
+            if(invokeCleaner != null)
+            {
+                Field unsafe = unsafeClass.getDeclaredField("theUnsafe");
+                unsafe.setAccessible(true);
+                invokeCleaner.invoke(unsafe.get(null), buffer);
+                return;
+            }
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if(cleaner != null)
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            Logger.getLogger(OffHeapAllocator.class.getName()).log(Level.FINE, null, ex);
+        }
+    }
+    
+    /**
+     * Slab of memory with a number of its chunks in use. 
+     */
+    private static class Slab
+    {
+        private final ByteBuffer buffer;
+        private int chunks;
+        
+        /**
+         * Default constructor. 
+         * @param buffer ByteBuffer of the slab. 
+         */
+        Slab(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+    }
+}
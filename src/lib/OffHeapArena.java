@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Byte arena kept outside of the Java heap in chunks of memory taken from 
+ * an off-heap allocator. Chunk sizes are doubled up to MAX_CHUNK_SIZE, data 
+ * appended at once never spans two chunks. An offset consists of a chunk 
+ * index (high bits) and a position in the chunk (low CHUNK_BITS bits). 
+ * @author Maciej Kosarzecki
+ */
+public class OffHeapArena extends ByteArena {
+    
+    /**
+     * Number of offset bits used for a position in a chunk. 
+     */
+    private static final int CHUNK_BITS = 24;
+    
+    /**
+     * Max size of a chunk. 
+     */
+    private static final int MAX_CHUNK_SIZE = 1 << CHUNK_BITS;
+    
+    /**
+     * Max number of chunks, offsets must be non negative ints. 
+     */
+    private static final int MAX_CHUNKS = 1 << (31 - CHUNK_BITS);
+    
+    /**
+     * Initial length of chunks array. 
+     */
+    private static final int INITIAL_CHUNKS = 4;
+    
+    /**
+     * Allocator of chunks. 
+     */
+    private final OffHeapAllocator allocator;
+    
+    /**
+     * Chunks of the arena. 
+     */
+    private ByteBuffer[] chunks = new ByteBuffer[INITIAL_CHUNKS];
+    
+    /**
+     * Number of chunks. 
+     */
+    private int chunksNumber;
+    
+    /**
+     * Size of the next chunk. 
+     */
+    private int nextChunkSize;
+    
+    /**
+     * Default constructor. 
+     * @param allocator allocator of chunks. 
+     * @param capacity int initial capacity in bytes. 
+     */
+    public OffHeapArena(OffHeapAllocator allocator, int capacity)
+    {
+        this.allocator = allocator;
+        this.nextChunkSize = Math.min(Math.max(capacity, 1), MAX_CHUNK_SIZE);
+    }
+    
+    @Override
+    public int append(byte[] buffer, int offset, int length)
+    {
+        if(length > MAX_CHUNK_SIZE)
+            throw new IllegalArgumentException("Data longer than "
+                    +MAX_CHUNK_SIZE+" bytes cannot be appended at once");
+        ByteBuffer chunk = chunksNumber > 0 ? chunks[chunksNumber-1] : null;
+        if(chunk == null || chunk.remaining() < length)
+        {
+            if(chunksNumber == MAX_CHUNKS)
+                throw new IllegalStateException("Off-heap arena is full");
+            chunk = allocator.allocate(Math.max(nextChunkSize, length));
+            if(chunksNumber == chunks.length)
+                chunks = Arrays.copyOf(chunks, Math.min(chunksNumber*2, MAX_CHUNKS));
+            chunks[chunksNumber++] = chunk;
+            nextChunkSize = Math.min(nextChunkSize*2, MAX_CHUNK_SIZE);
+        }
+        int position = chunk.position();
+        chunk.put(buffer, offset, length);
+        return ((chunksNumber-1) << CHUNK_BITS) | position;
+    }
+    
+    @Override
+    public byte get(int offset)
+    {
+        return chunks[offset >>> CHUNK_BITS].get(offset & (MAX_CHUNK_SIZE-1));
+    }
+    
+    @Override
+    public void get(int offset, byte[] buffer, int bufferOffset, int length)
+    {
+        ByteBuffer chunk = chunks[offset >>> CHUNK_BITS];
+        int position = offset & (MAX_CHUNK_SIZE-1);
+        for(int i=0; i<length; i++)
+            buffer[bufferOffset+i] = chunk.get(position+i);
+    }
+    
+    @Override
+    public void trimToSize()
+    {
+        // chunks are parts of allocator slabs and cannot be shrunk
+    }
+    
+    @Override
+    public void release()
+    {
+        for(int i=0; i<chunksNumber; i++)
+            allocator.release(chunks[i]);
+        chunks = new ByteBuffer[INITIAL_CHUNKS];
+        chunksNumber = 0;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package lib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Toolkit used for running independent audit tasks in parallel. 
+ * @author Maciej Kosarzecki
+ */
+public class ParallelKit {
+    
+    /**
+     * Creates executor with a specified number of worker threads. Worker 
+     * threads are daemon threads, so the executor does not need to be shut 
+     * down before the application exits. 
+     * @param threads int number of worker threads. 
+     * @return executor created or null if threads number is less than 2,
+     * which means that tasks are run in the calling thread. 
+     */
+    public static ExecutorService newExecutor(int threads)
+    {
+        if(threads < 2)
+            return null;
+        
+        final AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) 
+            {
+                Thread thread = new Thread(r, "audit-worker-"+counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+    
+    /**
+     * Runs tasks and waits for all of them to finish. 
+     * @param <T> type of tasks results. 
+     * @param executor executor used to run tasks, if null tasks are run 
+     * one after another in the calling thread. 
+     * @param tasks list of tasks to be run. 
+     * @return list of results in the same order as tasks. 
+     */
+    public static <T> List<T> invokeAll(ExecutorService executor, 
+            List<? extends Callable<T>> tasks)
+    {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            if(executor == null)
+            {
+                for(Callable<T> task : tasks)
+                    results.add(task.call());
+            }
+            else
+            {
+                for(Future<T> future : executor.invokeAll(tasks))
+                    results.add(future.get());
+            }
+        } catch (ExecutionException ex) {
+            throw rethrow(ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for "
+                    + "audit tasks!", ex);
+        } catch (Exception ex) {
+            throw rethrow(ex);
+        }
+        return results;
+    }
+    
+    /**
+     * Runs tasks and waits for all of them to finish, a checked exception 
+     * of a specified type thrown by a task is rethrown as it is. 
+     * @param <T> type of tasks results. 
+     * @param <E> type of checked exception thrown by tasks. 
+     * @param executor executor used to run tasks, if null tasks are run 
+     * one after another in the calling thread. 
+     * @param tasks list of tasks to be run. 
+     * @param checked class of checked exception thrown by tasks. 
+     * @return list of results in the same order as tasks. 
+     * @throws E thrown when a task fails with it. 
+     */
+    public static <T, E extends Exception> List<T> invokeAll(ExecutorService executor, 
+            List<? extends Callable<T>> tasks, Class<E> checked) throws E
+    {
+        try {
+            return invokeAll(executor, tasks);
+        } catch (IllegalStateException ex) {
+            if(checked.isInstance(ex.getCause()))
+                throw checked.cast(ex.getCause());
+            throw ex;
+        }
+    }
+    
+    /**
+     * Waits for a result of a task. 
+     * @param <T> type of task result. 
+     * @param future future result of a task. 
+     * @return result of a task. 
+     */
+    public static <T> T getResult(Future<T> future)
+    {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            throw rethrow(ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for "
+                    + "audit tasks!", ex);
+        }
+    }
+    
+    /**
+     * Rethrows unchecked exceptions and wraps checked ones. 
+     * @param cause exception thrown by a task. 
+     * @return exception to be thrown. 
+     */
+    private static RuntimeException rethrow(Throwable cause)
+    {
+        if(cause instanceof RuntimeException)
+            return (RuntimeException)cause;
+        if(cause instanceof Error)
+            throw (Error)cause;
+        return new IllegalStateException(cause);
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pipeline of stages connected by bounded queues. Each stage has its own 
+ * worker threads taking items from its input queue, processing them and 
+ * putting them into the input queue of the next stage. Queues are bounded, 
+ * so a stage waits when the next one falls behind and the number of items 
+ * in flight is limited. Stages run at the same time, e.g. parsing of some 
+ * tables overlaps with decryption of others. An item which cannot be 
+ * processed cancels the whole pipeline, items are never dropped silently. 
+ * @param <T> type of items processed by stages. 
+ * @author Maciej Kosarzecki
+ */
+public class Pipeline<T> {
+    
+    /**
+     * Marker of the end of items in a queue, each worker of a stage takes 
+     * one marker. 
+     */
+    private static final Object END = new Object();
+    
+    /**
+     * Stage of a pipeline processing one item at a time. 
+     * @param <T> type of items processed by the stage. 
+     */
+    public static abstract class Stage<T>
+    {
+        private final String name;
+        private final int workers;
+        
+        /**
+         * Default constructor. 
+         * @param name String name of the stage used in names of threads. 
+         * @param workers int number of worker threads of the stage. 
+         */
+        public Stage(String name, int workers)
+        {
+            this.name = name;
+            this.workers = Math.max(workers, 1);
+        }
+        
+        /**
+         * Processes an item. Called concurrently by all workers of the stage. 
+         * @param item item to be processed. 
+         * @return item passed to the next stage, null if it should be dropped. 
+         * @throws Exception thrown when the item cannot be processed, 
+         * the pipeline is cancelled and run() throws. 
+         */
+        public abstract T process(T item) throws Exception;
+    }
+    
+    /**
+     * Stages in order of processing. 
+     */
+    private final List<Stage<T>> stages;
+    
+    /**
+     * Capacity of input queues of stages per worker of a stage. 
+     */
+    private final int queueCapacity;
+    
+    /**
+     * The first error thrown by a worker, null if there is none. 
+     */
+    private volatile Throwable failure;
+    
+    /**
+     * Default constructor. 
+     * @param queueCapacity int number of items waiting in the input queue of 
+     * a stage per worker of the stage. 
+     */
+    public Pipeline(int queueCapacity)
+    {
+        this.queueCapacity = Math.max(queueCapacity, 1);
+        stages = new ArrayList<>();
+    }
+    
+    /**
+     * Adds a stage at the end of the pipeline. Items returned by the last 
+     * stage are dropped. 
+     * @param stage stage to be added. 
+     */
+    public void addStage(Stage<T> stage)
+    {
+        stages.add(stage);
+    }
+    
+    /**
+     * Runs items through all stages and waits for all of them to finish. 
+     * Items are put into the first queue by the calling thread. If a stage 
+     * fails, all workers are stopped before the failure is thrown. 
+     * @param items items to be processed. 
+     * @throws IllegalStateException thrown when a stage failed to process 
+     * an item, with the exception of the stage as the cause. 
+     */
+    public void run(Iterator<T> items)
+    {
+        List<BlockingQueue<Object>> queues = new ArrayList<>(stages.size());
+        for(Stage<T> stage : stages)
+            queues.add(new ArrayBlockingQueue<>(queueCapacity*stage.workers));
+        
+        List<Thread> threads = new ArrayList<>();
+        for(int i=0; i<stages.size(); i++)
+        {
+            AtomicInteger running = new AtomicInteger(stages.get(i).workers);
+            for(int w=0; w<stages.get(i).workers; w++)
+            {
+                Thread thread = new Thread(new Worker(i, queues, running, 
+                        Thread.currentThread()), 
+                        "audit-"+stages.get(i).name+"-"+(w+1));
+                thread.setDaemon(true);
+                threads.add(thread);
+            }
+        }
+        for(Thread thread : threads)
+            thread.start();
+        
+        try {
+            BlockingQueue<Object> first = queues.get(0);
+            while(items.hasNext() && failure == null)
+                first.put(items.next());
+            for(int w=0; w<stages.get(0).workers; w++)
+                first.put(END);
+            for(Thread thread : threads)
+                thread.join();
+        } catch (InterruptedException ex) {
+            for(Thread thread : threads)
+                thread.interrupt();
+            boolean interrupted = false;
+            // items are not touched by workers once run() returns
+            for(Thread thread : threads)
+            {
+                while(thread.isAlive())
+                {
+                    try {
+                        thread.join();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if(failure == null)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for "
+                        + "audit pipeline!", ex);
+            }
+            if(interrupted)
+                Thread.currentThread().interrupt();
+        }
+        if(failure instanceof Error)
+            throw (Error)failure;
+        if(failure != null)
+            throw new IllegalStateException("Audit pipeline failed! "
+                    +failure.getMessage(), failure);
+    }
+    
+    /**
+     * Remembers the first failure of a worker and interrupts the thread 
+     * running the pipeline, which cancels all workers. 
+     * @param ex failure of a worker. 
+     * @param caller thread running the pipeline. 
+     */
+    private synchronized void fail(Throwable ex, Thread caller)
+    {
+        if(failure != null)
+            return;
+        failure = ex;
+        caller.interrupt();
+    }
+    
+    /**
+     * Worker of a stage. 
+     */
+    private class Worker implements Runnable
+    {
+        private final int stageIndex;
+        private final List<BlockingQueue<Object>> queues;
+        private final AtomicInteger running;
+        private final Thread caller;
+        
+        /**
+         * Default constructor. 
+         * @param stageIndex int index of the stage. 
+         * @param queues input queues of all stages. 
+         * @param running number of running workers of the stage. 
+         * @param caller thread running the pipeline, interrupted when 
+         * a worker fails. 
+         */
+        Worker(int stageIndex, List<BlockingQueue<Object>> queues, 
+                AtomicInteger running, Thread caller)
+        {
+            this.stageIndex = stageIndex;
+            this.queues = queues;
+            this.running = running;
+            this.caller = caller;
+        }
+        
+        @Override
+        @SuppressWarnings("unchecked")
+        public void run()
+        {
+            Stage<T> stage = stages.get(stageIndex);
+            BlockingQueue<Object> next = stageIndex+1 < queues.size() 
+                    ? queues.get(stageIndex+1) : null;
+            try {
+                while(true)
+                {
+                    Object item = queues.get(stageIndex).take();
+                    if(item == END)
+                        break;
+                    T output = stage.process((T)item);
+                    if(output != null && next != null)
+                        next.put(output);
+                }
+                // the last worker of the stage ends the next stage
+                if(running.decrementAndGet() == 0 && next != null)
+                {
+                    for(int w=0; w<stages.get(stageIndex+1).workers; w++)
+                        next.put(END);
+                }
+            } catch (InterruptedException ex) {
+                // pipeline is stopped
+            } catch (Throwable ex) {
+                fail(ex, caller);
+            }
+        }
+    }
+}
@@ -17,6 +17,10 @@
 
 package lib;
 
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 /**
  * Class used for running this auditing tool. 
  * @author Maciej Kosarzecki
@@ -27,10 +31,43 @@ public class Starter {
      * Main function for running this tool. 
      * @param args input parameters:
      *  -in file - path to ABB.zip file 
+     *  -extraction disk|archive - extract ABB.zip to disk before parsing 
+     *  (default) or parse table files straight from the archive 
+     *  -threads n - number of worker threads (default: number of processors)
+     *  -crypto bc|jdk - BouncyCastle (default) or JDK AES ciphers
+     *  -storage heap|direct|mapped - table data kept on the heap (default), 
+     *  in direct buffers or in a memory-mapped temporary file
+     *  -projection on|off - parse only columns with opened keys (default off)
+     *  -precheck off|on|only - check keys using only keys rows of table 
+     *  files before the audit, or instead of it (default off)
+     *  -cache file - reuse results of tables whose files did not change 
+     *  since the last audit using the same cache file
+     *  -write-snapshot file - write extracted tables to a binary snapshot
+     *  -read-snapshot file - load tables from a binary snapshot instead of 
+     *  extracting ABB.zip
+     *  -metrics file - write timing and throughput of audit phases to 
+     *  a JSON file
+     *  -pipeline p,v,d,c - audit tables in a pipeline with p parse, v verify, 
+     *  d decrypt and c check worker threads, a single number sets all stages 
+     *  (default off)
+     *  -streaming n - audit tables n at a time instead of loading the whole 
+     *  ABB (default 0 - all tables at once)
      */
     public static void main(String args[])
     {
         String inputPath = "";
+        boolean inArchive = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        CipherProvider cipherProvider = CipherProvider.BC;
+        TableStorage storage = TableStorage.HEAP;
+        int window = 0;
+        boolean projection = false;
+        String preCheck = "off";
+        String cachePath = null;
+        String writeSnapshotPath = null;
+        String readSnapshotPath = null;
+        int[] pipelineWorkers = null;
+        String metricsPath = null;
         // handling input parameters
         if(args.length>=2)
         {
@@ -41,11 +78,95 @@ public class Starter {
                     case "-in":
                         inputPath = args[i+1];
                         break;
+                    case "-extraction":
+                        inArchive = args[i+1].equals("archive");
+                        break;
+                    case "-threads":
+                        threads = Integer.parseInt(args[i+1]);
+                        break;
+                    case "-crypto":
+                        cipherProvider = CipherProvider.valueOf(args[i+1].toUpperCase());
+                        break;
+                    case "-storage":
+                        storage = TableStorage.valueOf(args[i+1].toUpperCase());
+                        break;
+                    case "-projection":
+                        projection = args[i+1].equals("on");
+                        break;
+                    case "-precheck":
+                        preCheck = args[i+1];
+                        break;
+                    case "-cache":
+                        cachePath = args[i+1];
+                        break;
+                    case "-write-snapshot":
+                        writeSnapshotPath = args[i+1];
+                        break;
+                    case "-read-snapshot":
+                        readSnapshotPath = args[i+1];
+                        break;
+                    case "-metrics":
+                        metricsPath = args[i+1];
+                        break;
+                    case "-pipeline":
+                        pipelineWorkers = parsePipelineWorkers(args[i+1]);
+                        break;
+                    case "-streaming":
+                        window = Integer.parseInt(args[i+1]);
+                        break;
                 }
             }
             Auditor auditor = new Auditor();
-            auditor.extractABB(inputPath);
+            auditor.setInArchiveExtraction(inArchive);
+            auditor.setThreads(threads);
+            auditor.setCipherProvider(cipherProvider);
+            auditor.setTableStorage(storage);
+            auditor.setStreamingWindow(window);
+            auditor.setColumnProjection(projection);
+            auditor.setResultCache(cachePath);
+            auditor.setPipeline(pipelineWorkers);
+            auditor.setKeysPreCheck(preCheck.equals("on"), preCheck.equals("only"));
+            if(readSnapshotPath != null)
+                auditor.readSnapshot(readSnapshotPath);
+            else
+                auditor.extractABB(inputPath);
+            if(writeSnapshotPath != null)
+                auditor.writeSnapshot(writeSnapshotPath);
             auditor.audit();
+            auditor.close();
+            if(metricsPath != null)
+                writeMetrics(auditor, metricsPath);
+        }
+    }
+    
+    /**
+     * Writes metrics of audit phases to a JSON file. 
+     * @param auditor auditor which performed the audit. 
+     * @param path String path of the file. 
+     */
+    private static void writeMetrics(Auditor auditor, String path)
+    {
+        try {
+            auditor.getMetrics().writeJson(path);
+        } catch (IOException ex) {
+            Logger.getLogger(Starter.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
+    
+    /**
+     * Parses numbers of worker threads of pipeline stages. 
+     * @param value String "off", a single number for all stages or numbers 
+     * of parse, verify, decrypt and check workers separated by commas. 
+     * @return int numbers of workers of four stages, null for "off". 
+     */
+    private static int[] parsePipelineWorkers(String value)
+    {
+        if(value.equals("off"))
+            return null;
+        String[] parts = value.split(",");
+        int[] workers = new int[4];
+        for(int i=0; i<workers.length; i++)
+            workers[i] = Integer.parseInt(parts[Math.min(i, parts.length-1)].trim());
+        return workers;
+    }
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Index of .csv table files of an ABB. Files of all types are joined on 
+ * table numbers and ordered by them, so the i-th files of all types make 
+ * the i-th merged table and its opened keys. Tables can be parsed from 
+ * the index one window after another. 
+ * @author Maciej Kosarzecki
+ */
+public class TableIndex {
+    
+    /**
+     * Index of prepare A table files. 
+     */
+    public static final int PREPARE_A = 0;
+    
+    /**
+     * Index of prepare B table files. 
+     */
+    public static final int PREPARE_B = 1;
+    
+    /**
+     * Index of finalize table files. 
+     */
+    public static final int FINALIZE = 2;
+    
+    /**
+     * Index of audit table files. 
+     */
+    public static final int AUDIT = 3;
+    
+    /**
+     * Joined sources of table files of each type. 
+     */
+    private final TableSource[][] sources;
+    
+    /**
+     * Table numbers of joined table files, in ascending order. 
+     */
+    private final int[] numbers;
+    
+    /**
+     * Default constructor. 
+     * @param numbers int table numbers of joined table files. 
+     * @param prepareA joined sources of prepare A table files. 
+     * @param prepareB joined sources of prepare B table files. 
+     * @param finalize joined sources of finalize table files. 
+     * @param audit joined sources of audit table files. 
+     */
+    public TableIndex(int[] numbers, TableSource[] prepareA, TableSource[] prepareB, 
+            TableSource[] finalize, TableSource[] audit)
+    {
+        this.numbers = numbers;
+        sources = new TableSource[][] {prepareA, prepareB, finalize, audit};
+    }
+    
+    /**
+     * Returns number of merged tables i.e. number of prepare A table files. 
+     * @return int number of tables. 
+     */
+    public int size() { return sources[PREPARE_A].length; }
+    
+    /**
+     * Returns number of table files of a type. 
+     * @param type int type of table files e.g. AUDIT. 
+     * @return int number of table files. 
+     */
+    public int size(int type) { return sources[type].length; }
+    
+    /**
+     * Returns table number of indexed table files. 
+     * @param index int index of a table. 
+     * @return int table number. 
+     */
+    public int getNumber(int index) { return numbers[index]; }
+    
+    /**
+     * Creates index of a subset of indexed tables. 
+     * @param indexes int indexes of tables, in ascending order. 
+     * @return TableIndex object created. 
+     */
+    public TableIndex subset(List<Integer> indexes)
+    {
+        int[] subsetNumbers = new int[indexes.size()];
+        TableSource[][] subsetSources = new TableSource[sources.length][indexes.size()];
+        for(int i=0; i<indexes.size(); i++)
+        {
+            subsetNumbers[i] = numbers[indexes.get(i)];
+            for(int type=0; type<sources.length; type++)
+                subsetSources[type][i] = sources[type][indexes.get(i)];
+        }
+        return new TableIndex(subsetNumbers, subsetSources[PREPARE_A], 
+                subsetSources[PREPARE_B], subsetSources[FINALIZE], 
+                subsetSources[AUDIT]);
+    }
+    
+    /**
+     * Returns sources of a range of table files of a type. Range is limited 
+     * to the number of files of the type. 
+     * @param type int type of table files e.g. AUDIT. 
+     * @param from int index of the first table (inclusive). 
+     * @param to int index of the last table (exclusive). 
+     * @return list of sources of table files. 
+     */
+    public List<TableSource> getSources(int type, int from, int to)
+    {
+        TableSource[] typeSources = sources[type];
+        int end = Math.min(to, typeSources.length);
+        if(from >= end)
+            return Arrays.asList(new TableSource[0]);
+        return Arrays.asList(Arrays.copyOfRange(typeSources, from, end));
+    }
+}
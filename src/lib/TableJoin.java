@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hash join of table files of different types on table numbers read from 
+ * their first rows. Items can be added in any order and from many threads, 
+ * e.g. as soon as they are parsed, no sorting of table files is needed. 
+ * A table number is joined only if exactly one item of each type was added 
+ * for it. Tables missing in some of the types and tables duplicated in some 
+ * of the types are left out and reported when the join is completed, in 
+ * ascending order of table numbers, so neither the result nor warnings 
+ * depend on the order items were added in. 
+ * @param <T> type of joined items e.g. DataTable or TableSource. 
+ * @author Maciej Kosarzecki
+ */
+public class TableJoin<T> {
+    
+    /**
+     * Names of joined types used in warnings, e.g. "prepare A". 
+     */
+    private final String[] typeNames;
+    
+    /**
+     * Items of all types of each table number. 
+     */
+    private final Map<Integer, Row> rows;
+    
+    /**
+     * List warnings of duplicated and missing tables are added to. 
+     */
+    private final List<String> warnings;
+    
+    /**
+     * Default constructor. 
+     * @param warnings list warnings of duplicated and missing tables should 
+     * be added to. 
+     * @param typeNames names of joined types, the i-th name is used for 
+     * items of the i-th type. 
+     */
+    public TableJoin(List<String> warnings, String... typeNames)
+    {
+        this.warnings = warnings;
+        this.typeNames = typeNames;
+        rows = new HashMap<>();
+    }
+    
+    /**
+     * Adds an item of a table. If an item of the same table number and type 
+     * was already added, the table number is duplicated and it is not 
+     * joined at all. 
+     * @param type int type of the item, index of its type name. 
+     * @param number int table number. 
+     * @param item item to be added. 
+     */
+    public synchronized void add(int type, int number, T item)
+    {
+        Row row = rows.get(number);
+        if(row == null)
+        {
+            row = new Row(typeNames.length);
+            rows.put(number, row);
+        }
+        row.items[type] = item;
+        row.counts[type]++;
+    }
+    
+    /**
+     * Completes the join. Tables missing or duplicated in some of the types 
+     * are reported and left out. Should be called once all items are added. 
+     * @return int numbers of tables found exactly once in all types, in 
+     * ascending order. 
+     */
+    public synchronized int[] join()
+    {
+        int[] numbers = new int[rows.size()];
+        int count = 0;
+        for(Map.Entry<Integer, Row> entry : rows.entrySet())
+        {
+            if(entry.getValue().isJoined())
+                numbers[count++] = entry.getKey();
+        }
+        numbers = Arrays.copyOf(numbers, count);
+        Arrays.sort(numbers);
+        reportLeftOut();
+        return numbers;
+    }
+    
+    /**
+     * Returns an item of a table. 
+     * @param number int table number. 
+     * @param type int type of the item. 
+     * @return item added for the table number and type, null if there is 
+     * none. 
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T get(int number, int type)
+    {
+        Row row = rows.get(number);
+        return row != null ? (T)row.items[type] : null;
+    }
+    
+    /**
+     * Adds warnings of tables missing or duplicated in some of the types, 
+     * in ascending order of table numbers. 
+     */
+    private void reportLeftOut()
+    {
+        int[] numbers = new int[rows.size()];
+        int count = 0;
+        for(Map.Entry<Integer, Row> entry : rows.entrySet())
+        {
+            if(!entry.getValue().isJoined())
+                numbers[count++] = entry.getKey();
+        }
+        numbers = Arrays.copyOf(numbers, count);
+        Arrays.sort(numbers);
+        for(int number : numbers)
+        {
+            Row row = rows.get(number);
+            for(int type=0; type<row.counts.length; type++)
+            {
+                if(row.counts[type] == 0)
+                    warnings.add("Warning! Table: "+number+" is missing in "
+                            +typeNames[type]+" table files!");
+                else if(row.counts[type] > 1)
+                    warnings.add("Warning! Table: "+number+" found in "
+                            +row.counts[type]+" "+typeNames[type]
+                            +" table files, it is not audited!");
+            }
+        }
+    }
+    
+    /**
+     * Items of a table number and numbers of items added of each type. 
+     */
+    private static class Row
+    {
+        private final Object[] items;
+        private final int[] counts;
+        
+        /**
+         * Default constructor. 
+         * @param types int number of joined types. 
+         */
+        Row(int types)
+        {
+            items = new Object[types];
+            counts = new int[types];
+        }
+        
+        /**
+         * Tells if exactly one item of each type was added. 
+         * @return true if the table number can be joined. 
+         */
+        boolean isJoined()
+        {
+            for(int count : counts)
+            {
+                if(count != 1)
+                    return false;
+            }
+            return true;
+        }
+    }
+}
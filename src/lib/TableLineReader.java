@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package lib;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Class used for reading lines of ASCII .csv table data from a stream. 
+ * The stream is read straight into an internal byte buffer, so it does not 
+ * need to be buffered. Lines are not decoded, they are exposed as ranges 
+ * of the buffer which is reused for the whole input. Lines are 
+ * terminated the same way as in BufferedReader.readLine() i.e. by '\n', 
+ * '\r' or "\r\n". 
+ * @author Maciej Kosarzecki
+ */
+public class TableLineReader implements Closeable {
+    
+    /**
+     * Initial size of the buffer.
+     */
+    private static final int BUFFER_SIZE = 64*1024;
+    
+    /**
+     * Stream read. 
+     */
+    private final InputStream in;
+    
+    /**
+     * Buffer containing bytes read from the stream. 
+     */
+    private byte[] buffer;
+    
+    /**
+     * Position of the first byte not consumed yet.
+     */
+    private int position;
+    
+    /**
+     * Number of valid bytes in the buffer. 
+     */
+    private int limit;
+    
+    /**
+     * Offset of the current line in the buffer. 
+     */
+    private int lineOffset;
+    
+    /**
+     * Length of the current line. 
+     */
+    private int lineLength;
+    
+    /**
+     * Determines if '\n' following '\r' should be skipped. 
+     */
+    private boolean skipLF;
+    
+    /**
+     * Number of bytes read from the input. 
+     */
+    private long bytesRead;
+    
+    /**
+     * Default constructor. 
+     * @param in stream of ASCII .csv table data. 
+     */
+    public TableLineReader(InputStream in)
+    {
+        this.in = in;
+        buffer = new byte[BUFFER_SIZE];
+    }
+    
+    /**
+     * Closes the stream read. 
+     * @throws IOException thrown when cannot close the stream. 
+     */
+    @Override
+    public void close() throws IOException
+    {
+        in.close();
+    }
+    
+    /**
+     * Reads next line of data. 
+     * @return true if a line was read, false if end of the stream is reached. 
+     * @throws IOException thrown when cannot read the stream. 
+     */
+    public boolean readLine() throws IOException
+    {
+        if(skipLF)
+        {
+            if(position == limit && !fill())
+                return false;
+            if(buffer[position] == '\n')
+                position++;
+            skipLF = false;
+        }
+        
+        int scan = position;
+        while(true)
+        {
+            for(; scan<limit; scan++)
+            {
+                byte b = buffer[scan];
+                if(b == '\n' || b == '\r')
+                {
+                    lineOffset = position;
+                    lineLength = scan - position;
+                    position = scan + 1;
+                    skipLF = (b == '\r');
+                    return true;
+                }
+            }
+            
+            int consumed = position;
+            if(!fill())
+            {
+                // last line without terminator 
+                if(position < limit)
+                {
+                    lineOffset = position;
+                    lineLength = limit - position;
+                    position = limit;
+                    return true;
+                }
+                return false;
+            }
+            scan -= consumed;
+        }
+    }
+    
+    /**
+     * Returns buffer containing current line. 
+     * @return byte buffer containing current line. 
+     */
+    public byte[] getBuffer() { return buffer; }
+    
+    /**
+     * Returns offset of current line in the buffer. 
+     * @return int offset of current line. 
+     */
+    public int getLineOffset() { return lineOffset; }
+    
+    /**
+     * Returns length of current line, without line terminator. 
+     * @return int length of current line. 
+     */
+    public int getLineLength() { return lineLength; }
+    
+    /**
+     * Returns number of bytes read from the input so far. 
+     * @return long number of bytes. 
+     */
+    public long getBytesRead() { return bytesRead; }
+    
+    /**
+     * Moves not consumed bytes to the beginning of the buffer and reads 
+     * more bytes from the stream. Buffer is enlarged if it is full. 
+     * @return true if any bytes were read, false at the end of the stream.
+     * @throws IOException thrown when cannot read the stream. 
+     */
+    private boolean fill() throws IOException
+    {
+        if(position > 0)
+        {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        if(limit == buffer.length)
+        {
+            byte[] enlarged = new byte[buffer.length*2];
+            System.arraycopy(buffer, 0, enlarged, 0, limit);
+            buffer = enlarged;
+        }
+        
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if(read < 0)
+            return false;
+        limit += read;
+        bytesRead += read;
+        return true;
+    }
+}
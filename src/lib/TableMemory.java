@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package lib;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Memory of column data of data tables of a single audit. Arenas are 
+ * created in the storage of the memory. Off-heap memory is taken from 
+ * an allocator created when the first arena is needed and returned to 
+ * the operating system when the memory is closed, tables of the memory 
+ * must not be used afterwards. 
+ * @author Maciej Kosarzecki
+ */
+public class TableMemory implements Closeable {
+    
+    /**
+     * Memory keeping arenas on the heap, it holds no resources. 
+     */
+    public static final TableMemory HEAP = new TableMemory(TableStorage.HEAP);
+    
+    /**
+     * Storage of arenas. 
+     */
+    private final TableStorage storage;
+    
+    /**
+     * Allocator of off-heap memory, null until the first arena is needed. 
+     */
+    private OffHeapAllocator allocator;
+    
+    /**
+     * Determines if the memory was closed. 
+     */
+    private boolean closed;
+    
+    /**
+     * Default constructor. 
+     * @param storage storage of arenas. 
+     */
+    public TableMemory(TableStorage storage)
+    {
+        this.storage = storage;
+    }
+    
+    /**
+     * Returns storage of arenas. 
+     * @return TableStorage of this memory. 
+     */
+    public TableStorage getStorage() { return storage; }
+    
+    /**
+     * Creates a new byte arena. 
+     * @param capacity int initial capacity in bytes. 
+     * @return ByteArena created. 
+     */
+    public ByteArena newArena(int capacity)
+    {
+        if(storage == TableStorage.HEAP)
+            return new HeapArena(capacity);
+        return new OffHeapArena(getAllocator(), capacity);
+    }
+    
+    /**
+     * Releases off-heap memory of arenas created by this memory, temporary 
+     * table file is deleted. 
+     */
+    @Override
+    public synchronized void close()
+    {
+        closed = true;
+        if(allocator != null)
+            allocator.close();
+        allocator = null;
+    }
+    
+    /**
+     * Returns allocator of off-heap memory. 
+     * @return allocator of this memory. 
+     */
+    private synchronized OffHeapAllocator getAllocator()
+    {
+        if(closed)
+            throw new IllegalStateException("Table memory is closed");
+        if(allocator == null)
+        {
+            try {
+                allocator = storage.newAllocator();
+            } catch (IOException ex) {
+                throw new IllegalStateException("Cannot create temporary table file", ex);
+            }
+        }
+        return allocator;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Results of the audit of a single table - warnings of keys checks, batch, 
+ * consistency verdict and tally of batch 3 and batch 4 tables, or error if 
+ * the table could not be audited. Results of all tables are added to the 
+ * report one table after another. 
+ * @author Maciej Kosarzecki
+ */
+public class TableResult {
+    
+    /**
+     * Int number of a table. 
+     */
+    private final int number;
+    
+    /**
+     * Int number of a batch, 0 if batch of the table was not specified. 
+     */
+    private int batch;
+    
+    /**
+     * Determines if data of the table is consistent. 
+     */
+    private boolean consistent;
+    
+    /**
+     * Tally of a batch 3 or batch 4 table, null for other batches. 
+     */
+    private TableTally tally;
+    
+    /**
+     * Error which stopped the audit of the table, null if it was audited. 
+     */
+    private String error;
+    
+    private final List<String> openedKeysWarnings;
+    private final List<String> keyCommitmentsWarnings;
+    
+    /**
+     * Default constructor. 
+     * @param number int number of a table. 
+     */
+    public TableResult(int number)
+    {
+        this.number = number;
+        consistent = true;
+        openedKeysWarnings = new ArrayList<>();
+        keyCommitmentsWarnings = new ArrayList<>();
+    }
+    
+    /**
+     * Returns number of a table. 
+     * @return int table number. 
+     */
+    public int getNumber() { return number; }
+    
+    /**
+     * Returns number of a batch. 
+     * @return int batch number, 0 if batch was not specified. 
+     */
+    public int getBatch() { return batch; }
+    
+    /**
+     * Sets number of a batch. 
+     * @param batch int batch number. 
+     */
+    public void setBatch(int batch) { this.batch = batch; }
+    
+    /**
+     * Tells if data of the table is consistent. 
+     * @return true if consistency of data is kept and false otherwise. 
+     */
+    public boolean isConsistent() { return consistent; }
+    
+    /**
+     * Sets consistency verdict of data of the table. 
+     * @param consistent true if consistency of data is kept. 
+     */
+    public void setConsistent(boolean consistent) { this.consistent = consistent; }
+    
+    /**
+     * Returns tally of the table. 
+     * @return tally of a batch 3 or batch 4 table, null for other batches. 
+     */
+    public TableTally getTally() { return tally; }
+    
+    /**
+     * Sets tally of the table. 
+     * @param tally tally of a batch 3 or batch 4 table. 
+     */
+    public void setTally(TableTally tally) { this.tally = tally; }
+    
+    /**
+     * Returns error which stopped the audit of the table. 
+     * @return String error, null if the table was audited. 
+     */
+    public String getError() { return error; }
+    
+    /**
+     * Marks the table as not audited because of an error. 
+     * @param error String description of the error. 
+     */
+    public void setError(String error) { this.error = error; }
+    
+    /**
+     * Returns warnings of opened keys correctness check. 
+     * @return list of warnings. 
+     */
+    public List<String> getOpenedKeysWarnings() { return openedKeysWarnings; }
+    
+    /**
+     * Returns warnings of key commitments consistency check. 
+     * @return list of warnings. 
+     */
+    public List<String> getKeyCommitmentsWarnings() { return keyCommitmentsWarnings; }
+    
+    /**
+     * Writes results of the table, results of tables not audited are not 
+     * meant to be written. 
+     * @param out output results are written to. 
+     * @throws IOException thrown when cannot write results. 
+     */
+    public void write(DataOutput out) throws IOException
+    {
+        out.writeInt(number);
+        out.writeInt(batch);
+        out.writeBoolean(consistent);
+        writeWarnings(out, openedKeysWarnings);
+        writeWarnings(out, keyCommitmentsWarnings);
+        out.writeBoolean(tally != null);
+        if(tally != null)
+            tally.write(out);
+    }
+    
+    /**
+     * Reads results of a table written by write(). 
+     * @param in input results are read from. 
+     * @return TableResult object read. 
+     * @throws IOException thrown when cannot read results. 
+     */
+    public static TableResult read(DataInput in) throws IOException
+    {
+        TableResult result = new TableResult(in.readInt());
+        result.batch = in.readInt();
+        result.consistent = in.readBoolean();
+        readWarnings(in, result.openedKeysWarnings);
+        readWarnings(in, result.keyCommitmentsWarnings);
+        if(in.readBoolean())
+            result.tally = TableTally.read(in);
+        return result;
+    }
+    
+    /**
+     * Writes a list of warnings. 
+     * @param out output warnings are written to. 
+     * @param warnings list of warnings. 
+     * @throws IOException thrown when cannot write warnings. 
+     */
+    private static void writeWarnings(DataOutput out, List<String> warnings) 
+            throws IOException
+    {
+        out.writeInt(warnings.size());
+        for(String warning : warnings)
+            out.writeUTF(warning);
+    }
+    
+    /**
+     * Reads a list of warnings. 
+     * @param in input warnings are read from. 
+     * @param warnings list read warnings are added to. 
+     * @throws IOException thrown when cannot read warnings. 
+     */
+    private static void readWarnings(DataInput in, List<String> warnings) 
+            throws IOException
+    {
+        int size = in.readInt();
+        for(int i=0; i<size; i++)
+            warnings.add(in.readUTF());
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package lib;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Single pass tokenizer of ASCII .csv table rows. A row is accepted only 
+ * if it has exactly Lib.COL_NUMBER*Lib.COL_CELLS_NUMBER fields made of 
+ * characters [ A-Za-z0-9_+=/] i.e. the same rows that are matched by 
+ * ([ \w\+\=/]*,){23}[ \w\+\=/]* pattern. Fields are kept as ranges of 
+ * the tokenized buffer, Strings are created only on request. 
+ * @author Maciej Kosarzecki
+ */
+public class TableRowTokenizer {
+    
+    /**
+     * Int number of fields in a row. 
+     */
+    public static final int FIELDS_NUMBER = Lib.COL_NUMBER*Lib.COL_CELLS_NUMBER;
+    
+    /**
+     * Characters allowed in fields. 
+     */
+    private static final boolean[] ALLOWED = new boolean[256];
+    
+    static
+    {
+        for(char c='a'; c<='z'; c++)
+            ALLOWED[c] = true;
+        for(char c='A'; c<='Z'; c++)
+            ALLOWED[c] = true;
+        for(char c='0'; c<='9'; c++)
+            ALLOWED[c] = true;
+        ALLOWED[' '] = true;
+        ALLOWED['_'] = true;
+        ALLOWED['+'] = true;
+        ALLOWED['='] = true;
+        ALLOWED['/'] = true;
+    }
+    
+    /**
+     * Bytes delimiting initial vector from ciphertext in data cells. 
+     */
+    private final byte[] delimiter 
+            = Lib.IV_CIPHERTEXT_DELIMITING_STRING.getBytes(StandardCharsets.US_ASCII);
+    
+    /**
+     * Offsets of fields beginnings. 
+     */
+    private final int[] fieldStart = new int[FIELDS_NUMBER];
+    
+    /**
+     * Offsets of fields ends (exclusive). 
+     */
+    private final int[] fieldEnd = new int[FIELDS_NUMBER];
+    
+    /**
+     * Buffer containing last tokenized row. 
+     */
+    private byte[] buffer;
+    
+    /**
+     * Tokenizes a row of data. 
+     * @param buffer buffer containing the row. 
+     * @param offset offset of the row in the buffer. 
+     * @param length length of the row. 
+     * @return true if the row is a valid table row, false otherwise. 
+     */
+    public boolean tokenize(byte[] buffer, int offset, int length)
+    {
+        int end = offset + length;
+        int field = 0;
+        fieldStart[0] = offset;
+        
+        for(int i=offset; i<end; i++)
+        {
+            byte b = buffer[i];
+            if(b == ',')
+            {
+                if(field == FIELDS_NUMBER-1)
+                    return false;
+                fieldEnd[field] = i;
+                field++;
+                fieldStart[field] = i+1;
+            }
+            else if(!ALLOWED[b & 0xff])
+                return false;
+        }
+        if(field != FIELDS_NUMBER-1)
+            return false;
+        fieldEnd[field] = end;
+        this.buffer = buffer;
+        return true;
+    }
+    
+    /**
+     * Tells if a field is empty. 
+     * @param field int field index. 
+     * @return true if field is empty, false otherwise.
+     */
+    public boolean isEmpty(int field)
+    {
+        return fieldStart[field] == fieldEnd[field];
+    }
+    
+    /**
+     * Returns String value of a field. 
+     * @param field int field index. 
+     * @return String value of a field. 
+     */
+    public String getField(int field)
+    {
+        return toString(fieldStart[field], fieldEnd[field]);
+    }
+    
+    /**
+     * Returns offset of a field beginning. 
+     * @param field int field index. 
+     * @return int offset of field in the tokenized buffer. 
+     */
+    public int getFieldStart(int field) { return fieldStart[field]; }
+    
+    /**
+     * Returns initial vector part of a data cell field. Data cell must be 
+     * followed by a non empty ciphertext.
+     * @param field int field index. 
+     * @return base64 String initial vector. 
+     */
+    public String getInitialVector(int field)
+    {
+        return toString(fieldStart[field], getInitialVectorEnd(field));
+    }
+    
+    /**
+     * Returns offset of initial vector part end of a data cell field, 
+     * initial vector starts at the field beginning. Data cell must be 
+     * followed by a non empty ciphertext.
+     * @param field int field index. 
+     * @return int offset of initial vector end (exclusive). 
+     */
+    public int getInitialVectorEnd(int field)
+    {
+        int delimiterStart = findDelimiter(fieldStart[field], fieldEnd[field]);
+        if(!hasCiphertext(delimiterStart + delimiter.length, fieldEnd[field]))
+            throw new IllegalArgumentException("Data cell does not contain "
+                    + "ciphertext!");
+        return delimiterStart;
+    }
+    
+    /**
+     * Returns ciphertext part of a data cell field i.e. data between the first 
+     * and the second delimiter (or end of the field). 
+     * @param field int field index. 
+     * @return base64 String ciphertext. 
+     */
+    public String getCiphertext(int field)
+    {
+        return toString(getCiphertextStart(field), getCiphertextEnd(field));
+    }
+    
+    /**
+     * Returns offset of ciphertext part of a data cell field. 
+     * @param field int field index. 
+     * @return int offset of ciphertext. 
+     */
+    public int getCiphertextStart(int field)
+    {
+        return findDelimiter(fieldStart[field], fieldEnd[field]) + delimiter.length;
+    }
+    
+    /**
+     * Returns offset of ciphertext part end of a data cell field. 
+     * @param field int field index. 
+     * @return int offset of ciphertext end (exclusive). 
+     */
+    public int getCiphertextEnd(int field)
+    {
+        int start = getCiphertextStart(field);
+        int end = indexOfDelimiter(start, fieldEnd[field]);
+        if(end < 0)
+            end = fieldEnd[field];
+        if(start == end && !hasCiphertext(start, fieldEnd[field]))
+            throw new IllegalArgumentException("Data cell does not contain "
+                    + "ciphertext!");
+        return end;
+    }
+    
+    /**
+     * Tells if there is any data other than delimiters in a specified range,
+     * i.e. if String.split() of a data cell would return the ciphertext part. 
+     * @param start int offset of range beginning. 
+     * @param end int offset of range end (exclusive). 
+     * @return true if any data found, false otherwise. 
+     */
+    private boolean hasCiphertext(int start, int end)
+    {
+        int position = start;
+        while(position < end)
+        {
+            if(!isDelimiterAt(position, end))
+                return true;
+            position += delimiter.length;
+        }
+        return false;
+    }
+    
+    /**
+     * Finds delimiter of initial vector and ciphertext. 
+     * @param start int offset to start search from.
+     * @param end int offset to finish search at (exclusive). 
+     * @return int offset of delimiter. 
+     */
+    private int findDelimiter(int start, int end)
+    {
+        int index = indexOfDelimiter(start, end);
+        if(index < 0)
+            throw new IllegalArgumentException("Data cell does not contain "
+                    + "initial vector and ciphertext delimiter!");
+        return index;
+    }
+    
+    /**
+     * Returns offset of the first delimiter in a specified range. 
+     * @param start int offset to start search from.
+     * @param end int offset to finish search at (exclusive). 
+     * @return int offset of delimiter or -1 if not found. 
+     */
+    private int indexOfDelimiter(int start, int end)
+    {
+        for(int i=start; i<end; i++)
+        {
+            if(isDelimiterAt(i, end))
+                return i;
+        }
+        return -1;
+    }
+    
+    /**
+     * Tells if delimiter starts at a specified offset. 
+     * @param position int offset to be checked. 
+     * @param end int offset of range end (exclusive). 
+     * @return true if delimiter starts at the offset, false otherwise. 
+     */
+    private boolean isDelimiterAt(int position, int end)
+    {
+        if(position + delimiter.length > end)
+            return false;
+        for(int j=0; j<delimiter.length; j++)
+        {
+            if(buffer[position+j] != delimiter[j])
+                return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Creates String from a range of the buffer. 
+     * @param start int offset of range beginning. 
+     * @param end int offset of range end (exclusive). 
+     * @return String created. 
+     */
+    private String toString(int start, int end)
+    {
+        return new String(buffer, start, end - start, StandardCharsets.US_ASCII);
+    }
+}
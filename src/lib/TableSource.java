@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import net.lingala.zip4j.core.ZipFile;
+import net.lingala.zip4j.exception.ZipException;
+import net.lingala.zip4j.io.ZipInputStream;
+import net.lingala.zip4j.model.FileHeader;
+
+/**
+ * Class representing a .csv table file which can be opened for parsing - 
+ * either a file extracted to disk or an entry of a .zip file. Sources are 
+ * kept instead of parsed tables when tables are audited one window after 
+ * another. 
+ * @author Maciej Kosarzecki
+ */
+public abstract class TableSource {
+    
+    /**
+     * Opens the table file. 
+     * @return line reader of table data, it has to be closed by the caller. 
+     * @throws IOException thrown when cannot open the table file. 
+     */
+    public abstract TableLineReader open() throws IOException;
+    
+    /**
+     * Returns name of the table file. 
+     * @return String name of the table file. 
+     */
+    public abstract String getName();
+    
+    /**
+     * Creates source of a table file extracted to disk. 
+     * @param file .csv table file. 
+     * @return TableSource object created. 
+     */
+    public static TableSource of(final File file)
+    {
+        return new TableSource() {
+            @Override
+            public TableLineReader open() throws IOException
+            {
+                return new TableLineReader(new FileInputStream(file));
+            }
+            
+            @Override
+            public String getName() { return file.getName(); }
+        };
+    }
+    
+    /**
+     * Creates source of a table entry of a .zip file. The entry is inflated 
+     * straight into the parser, nothing is written to disk. 
+     * @param zipFile .zip file containing the entry. 
+     * @param fileHeader header of the .csv entry. 
+     * @return TableSource object created. 
+     */
+    public static TableSource of(final ZipFile zipFile, final FileHeader fileHeader)
+    {
+        return new TableSource() {
+            @Override
+            public TableLineReader open() throws IOException
+            {
+                try {
+                    return new TableLineReader(new EntryInputStream(
+                            zipFile.getInputStream(fileHeader)));
+                } catch (ZipException ex) {
+                    throw new IOException(ex);
+                }
+            }
+            
+            @Override
+            public String getName() { return fileHeader.getFileName(); }
+        };
+    }
+    
+    /**
+     * Stream of a .zip file entry. CRC of the entry is always checked on 
+     * close, if reading stopped early (e.g. after the header rows) the rest 
+     * of the entry is inflated first, so a corrupted entry is never accepted. 
+     */
+    private static class EntryInputStream extends FilterInputStream
+    {
+        private final ZipInputStream zis;
+        
+        /**
+         * Default constructor. 
+         * @param zis stream of a .zip file entry. 
+         */
+        EntryInputStream(ZipInputStream zis)
+        {
+            super(zis);
+            this.zis = zis;
+        }
+        
+        @Override
+        public void close() throws IOException
+        {
+            boolean drained = false;
+            try {
+                byte[] buffer = new byte[1 << 13];
+                while(zis.read(buffer, 0, buffer.length) >= 0) { }
+                drained = true;
+            } finally {
+                // CRC cannot be checked if the entry could not be inflated
+                zis.close(!drained);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package lib;
+
+import java.io.IOException;
+
+/**
+ * Enum representing storage of column data (initial vectors, ciphertexts 
+ * and plaintexts) of data tables. 
+ * HEAP - data is kept in byte arrays on the Java heap (default)
+ * DIRECT - data is kept in direct buffers outside of the heap, limited by 
+ * -XX:MaxDirectMemorySize
+ * MAPPED - data is kept in a memory-mapped temporary file, so it may be 
+ * larger than RAM
+ * Offsets and lengths of cells are kept on the heap in all modes. Off-heap 
+ * memory is owned by TableMemory of an audit. 
+ * @author Maciej Kosarzecki
+ */
+public enum TableStorage {
+    
+    HEAP,
+    DIRECT,
+    MAPPED;
+    
+    /**
+     * Creates a new allocator of off-heap memory of this storage. 
+     * @return OffHeapAllocator created. 
+     * @throws IOException thrown when cannot create temporary table file. 
+     */
+    OffHeapAllocator newAllocator() throws IOException
+    {
+        if(this == HEAP)
+            throw new IllegalStateException("Heap storage has no allocator");
+        return this == DIRECT ? new OffHeapAllocator() : new OffHeapAllocator(null);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package lib;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Class containing results of verification of a single batch 3 or batch 4 
+ * table - consistency verdict and tally counters. 
+ * @author Maciej Kosarzecki
+ */
+public class TableTally {
+    
+    /**
+     * Code of YES vote value.
+     */
+    private static final byte YES_VOTE_CODE = Lib.valueCode(Lib.COL_VALUE_YES_VOTE);
+    
+    /**
+     * Code of NO vote value.
+     */
+    private static final byte NO_VOTE_CODE = Lib.valueCode(Lib.COL_VALUE_NO_VOTE);
+    
+    /**
+     * Int number of a table. 
+     */
+    private final int number;
+    
+    /**
+     * Int number of a batch (3 or 4). 
+     */
+    private final int batch;
+    
+    /**
+     * Determines if pre summand and final summand columns are consistent. 
+     */
+    private boolean consistent;
+    
+    /**
+     * Determines if a wrong value was found in possible votes column. 
+     */
+    private boolean wrongVoteValue;
+    
+    private int yes;
+    private int no;
+    private int real;
+    private int fake;
+    private int realVoted;
+    private int fakeVoted;
+    
+    /**
+     * Default constructor. 
+     * @param number int number of a table. 
+     * @param batch int number of a batch (3 or 4). 
+     */
+    public TableTally(int number, int batch)
+    {
+        this.number = number;
+        this.batch = batch;
+        consistent = true;
+    }
+    
+    /**
+     * Counts a row of a table. 
+     * @param consistentRow true if pre summand is equal to final summand or 
+     * marked as fake. 
+     * @param realRow true if pre summand is equal to final summand. 
+     * @param votedRow true if row is marked voted. 
+     * @param voteCode code of possible vote value, used only for real rows 
+     * marked voted. 
+     */
+    void countRow(boolean consistentRow, boolean realRow, boolean votedRow, 
+            byte voteCode)
+    {
+        if(!consistentRow)
+            consistent = false;
+        
+        if(realRow)
+        {
+            real++;
+            if(votedRow)
+            {
+                realVoted++;
+                if(voteCode == YES_VOTE_CODE)
+                    yes++;
+                else if (voteCode == NO_VOTE_CODE)
+                    no++;
+                else 
+                    wrongVoteValue = true;
+            }
+        } else
+        {
+            fake++;
+            if(votedRow)
+                fakeVoted++;
+        }
+    }
+    
+    /**
+     * Returns number of a table. 
+     * @return int table number. 
+     */
+    public int getNumber() { return number; }
+    
+    /**
+     * Returns number of a batch. 
+     * @return int batch number (3 or 4). 
+     */
+    public int getBatch() { return batch; }
+    
+    /**
+     * Tells if pre summand and final summand columns are consistent. 
+     * @return true if consistency of data is kept and false otherwise. 
+     */
+    public boolean isConsistent() { return consistent; }
+    
+    /**
+     * Tells if a wrong value was found in possible votes column. 
+     * @return true if a wrong value was found, false otherwise. 
+     */
+    public boolean hasWrongVoteValue() { return wrongVoteValue; }
+    
+    /**
+     * Returns number of YES votes. 
+     * @return int number of YES votes. 
+     */
+    public int getYes() { return yes; }
+    
+    /**
+     * Returns number of NO votes. 
+     * @return int number of NO votes. 
+     */
+    public int getNo() { return no; }
+    
+    /**
+     * Returns number of real serial numbers. 
+     * @return int number of real serial numbers. 
+     */
+    public int getReal() { return real; }
+    
+    /**
+     * Returns number of fake serial numbers. 
+     * @return int number of fake serial numbers. 
+     */
+    public int getFake() { return fake; }
+    
+    /**
+     * Returns number of real serial numbers marked voted. 
+     * @return int number of real serial numbers marked voted. 
+     */
+    public int getRealVoted() { return realVoted; }
+    
+    /**
+     * Returns number of fake serial numbers marked voted. 
+     * @return int number of fake serial numbers marked voted. 
+     */
+    public int getFakeVoted() { return fakeVoted; }
+    
+    /**
+     * Writes verdict and counters of this tally. 
+     * @param out output tally is written to. 
+     * @throws IOException thrown when cannot write the tally. 
+     */
+    public void write(DataOutput out) throws IOException
+    {
+        out.writeInt(number);
+        out.writeInt(batch);
+        out.writeBoolean(consistent);
+        out.writeBoolean(wrongVoteValue);
+        out.writeInt(yes);
+        out.writeInt(no);
+        out.writeInt(real);
+        out.writeInt(fake);
+        out.writeInt(realVoted);
+        out.writeInt(fakeVoted);
+    }
+    
+    /**
+     * Reads a tally written by write(). 
+     * @param in input tally is read from. 
+     * @return TableTally object read. 
+     * @throws IOException thrown when cannot read the tally. 
+     */
+    public static TableTally read(DataInput in) throws IOException
+    {
+        TableTally tally = new TableTally(in.readInt(), in.readInt());
+        tally.consistent = in.readBoolean();
+        tally.wrongVoteValue = in.readBoolean();
+        tally.yes = in.readInt();
+        tally.no = in.readInt();
+        tally.real = in.readInt();
+        tally.fake = in.readInt();
+        tally.realVoted = in.readInt();
+        tally.fakeVoted = in.readInt();
+        return tally;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+/**
+ * Running summary of tallies of batch 3 and batch 4 tables. Tallies are 
+ * added one after another in any order of batches, only the first tally 
+ * and the first difference found in each batch are kept, no matter how 
+ * many tables are verified. Results are reported as if all batch 3 
+ * tallies were added before batch 4 ones, i.e. compared with the first 
+ * batch 3 tally. 
+ * @author Maciej Kosarzecki
+ */
+public class TallySummary {
+    
+    /**
+     * The first tally added of batch 3 and of batch 4, all tallies should 
+     * be equal to them. 
+     */
+    private final TableTally[] references = new TableTally[2];
+    
+    /**
+     * Determines if a tally with wrong vote value was found in batch 3 
+     * and in batch 4. 
+     */
+    private final boolean[] wrongVoteValues = new boolean[2];
+    
+    /**
+     * Description of the first difference between tallies found in batch 3 
+     * and in batch 4, null if all tallies of the batch are equal. 
+     */
+    private final String[] differences = new String[2];
+    
+    /**
+     * Adds tally of a table. 
+     * @param tally tally of a batch 3 or batch 4 table. 
+     */
+    public void add(TableTally tally)
+    {
+        int batch = tally.getBatch() - 3;
+        if(tally.hasWrongVoteValue())
+            wrongVoteValues[batch] = true;
+        if(references[batch] == null)
+            references[batch] = tally;
+        else if(differences[batch] == null)
+            differences[batch] = compare(tally, references[batch]);
+    }
+    
+    /**
+     * Compares two tallies. 
+     * @param tally tally to be compared. 
+     * @param reference tally it is compared with. 
+     * @return description of the difference or null if tallies are equal. 
+     */
+    private static String compare(TableTally tally, TableTally reference)
+    {
+        if(tally.getYes() != reference.getYes() || tally.getNo() != reference.getNo())
+            return "Critical error found when verifying "
+                    + "a tally! Different number of YES/NO votes in "
+                    + "different tables!";
+        if(tally.getReal() != reference.getReal())
+            return "Critical error found when verifying"
+                    + "a tally! Different number of real votes in "
+                    + "different tables!";
+        if(tally.getFake() != reference.getFake())
+            return "Critical error found when verifying"
+                    + "a tally! Different number of fake votes in "
+                    + "different tables!";
+        if(tally.getFakeVoted() != reference.getFakeVoted())
+            return "Critical error found when verifying"
+                    + "a tally! Different number of real votes voted in "
+                    + "different tables!";
+        if(tally.getRealVoted() != reference.getRealVoted())
+            return "Critical error found when verifying"
+                    + "a tally! Different number of fake votes voted in "
+                    + "different tables!";
+        return null;
+    }
+    
+    /**
+     * Returns batch of the first tally with wrong vote value. 
+     * @return int batch number or 0 if all vote values are correct. 
+     */
+    public int getWrongVoteValueBatch()
+    {
+        if(wrongVoteValues[0])
+            return 3;
+        return wrongVoteValues[1] ? 4 : 0;
+    }
+    
+    /**
+     * Returns description of the first difference between tallies. 
+     * @return String description or null if all tallies are equal. 
+     */
+    public String getDifference()
+    {
+        if(differences[0] != null)
+            return differences[0];
+        if(references[0] == null || references[1] == null)
+            return differences[1];
+        // batch 4 tallies equal to the first one are equal to batch 3 one too
+        String difference = compare(references[1], references[0]);
+        return difference != null ? difference : differences[1];
+    }
+    
+    /**
+     * Returns the first tally of batch 3 or, if there is none, of batch 4. 
+     * @return tally all tallies are compared with or null if none added. 
+     */
+    public TableTally getReference()
+    {
+        return references[0] != null ? references[0] : references[1];
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package lib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Class verifying batch 3 and batch 4 tables. Each table is walked only once,
+ * producing both consistency verdict and tally counters. Cells are compared 
+ * by codes of their values decoded once after decryption. Tables are 
+ * verified in parallel if executor is set. 
+ * @author Maciej Kosarzecki
+ */
+public class TallyVerifier {
+    
+    /**
+     * Code of FAKE VOTE value.
+     */
+    private static final byte FAKE_VOTE_CODE = Lib.valueCode(Lib.COL_VALUE_FAKE_VOTE);
+    
+    /**
+     * Code of VOTED value.
+     */
+    private static final byte VOTED_CODE = Lib.valueCode(Lib.COL_VALUE_VOTED);
+    
+    /**
+     * Executor used for verification, null if tables are verified one after 
+     * another in the calling thread. 
+     */
+    private final ExecutorService executor;
+    
+    /**
+     * Default constructor. 
+     * @param executor executor used for verification or null if tables 
+     * should be verified in the calling thread. 
+     */
+    public TallyVerifier(ExecutorService executor)
+    {
+        this.executor = executor;
+    }
+    
+    /**
+     * Verifies tables of a batch. 
+     * @param tables data tables to be verified. 
+     * @param batch int number of a batch (3 or 4). 
+     * @return results of verification in the same order as tables. 
+     */
+    public TableTally[] verifyTables(List<DataTable> tables, final int batch)
+    {
+        ArrayList<Callable<TableTally>> tasks = new ArrayList<>();
+        for(final DataTable table : tables)
+        {
+            tasks.add(new Callable<TableTally>() {
+                @Override
+                public TableTally call()
+                {
+                    return verifyTable(table, batch);
+                }
+            });
+        }
+        List<TableTally> tallies = ParallelKit.invokeAll(executor, tasks);
+        return tallies.toArray(new TableTally[tallies.size()]);
+    }
+    
+    /**
+     * Verifies a single table of a batch. 
+     * @param table data table to be verified. 
+     * @param batch int number of a batch (3 or 4). 
+     * @return results of verification. 
+     */
+    public TableTally verifyTable(DataTable table, int batch)
+    {
+        int preColumn = batch == 3 ? Lib.COL_HEADER_PRE_SUM_A : Lib.COL_HEADER_PRE_SUM_B;
+        int finalColumn = batch == 3 ? Lib.COL_HEADER_FINAL_SUM_A : Lib.COL_HEADER_FINAL_SUM_B;
+        TableTally tally = new TableTally(table.getNumber(), batch);
+        
+        ColumnStore preSum = table.getColumn(preColumn);
+        ColumnStore finalSum = table.getColumn(finalColumn);
+        ColumnStore voted = table.getColumn(Lib.COL_HEADER_MARK_VOTED);
+        ColumnStore vote = table.getColumn(Lib.COL_HEADER_POSS_VOTE);
+        
+        for(int row=0; row<table.getRowsNumber(); row++)
+        {
+            boolean real = preSum.plaintextEquals(row, finalSum, row);
+            boolean consistent = real || preSum.getPlaintextCode(row) == FAKE_VOTE_CODE;
+            tally.countRow(consistent, real, 
+                    voted.getPlaintextCode(row) == VOTED_CODE, 
+                    vote.getPlaintextCode(row));
+        }
+        return tally;
+    }
+}
@@ -0,0 +1,516 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Generator of synthetic ABB.zip files used for load testing and benchmarks. 
+ * Each ballot has SERIAL_NUM_PER_BALLOT serial numbers, one of them real; 
+ * every table contains all serial numbers in its own order, with cells 
+ * encrypted by AES-CBC with zero byte padding under a key of the column and 
+ * keys committed to by SHA-1 of key and decommitment. Tables are assigned 
+ * to batches 1 to 5 in turn and keys of columns of the batch are opened. 
+ * All data, including keys and initial vectors, come from a seeded random 
+ * generator, so archives are reproducible - they must not be used as real 
+ * bulletin boards. 
+ * @author Maciej Kosarzecki
+ */
+public class AbbGenerator {
+    
+    /**
+     * Faults which can be injected into generated tables. 
+     */
+    public enum Fault {
+        
+        /**
+         * No fault, the audit of the archive passes. 
+         */
+        NONE,
+        
+        /**
+         * Decommitment of an opened key of table 1 does not match commitment. 
+         */
+        KEY,
+        
+        /**
+         * Code of a serial number of batch 1 tables is wrong. 
+         */
+        BATCH1,
+        
+        /**
+         * Prepare sum of a row of table 2 is changed, tally does not match. 
+         */
+        TALLY,
+        
+        /**
+         * Prepare and final sums of a row of batch 3 tables are inconsistent. 
+         */
+        BATCH3,
+        
+        /**
+         * Possible vote of a voted row of batch 4 tables is invalid. 
+         */
+        VOTE
+    }
+    
+    /**
+     * Columns of each type of table files, in order of TableIndex types. 
+     */
+    private static final int[][] FILE_COLUMNS = {
+        { Lib.COL_HEADER_SN_AND_VC, Lib.COL_HEADER_POSS_VOTE, 
+            Lib.COL_HEADER_PRE_SUM_A, Lib.COL_HEADER_PRE_SUM_B },
+        { Lib.COL_HEADER_FINAL_SUM_A, Lib.COL_HEADER_FINAL_SUM_B },
+        { Lib.COL_HEADER_P_CHECK, Lib.COL_HEADER_MARK_VOTED }
+    };
+    
+    /**
+     * Names of table files of each type, in order of TableIndex types. 
+     */
+    private static final String[] FILE_NAMES = { Lib.ABB_PREPARE_A_FILES_NAME, 
+        Lib.ABB_PREPARE_B_FILES_NAME, Lib.ABB_FINALIZE_FILES_NAME };
+    
+    /**
+     * Columns with opened keys of tables of each batch, see 
+     * DataTable.specifyBatch(). 
+     */
+    private static final int[][] OPENED_COLUMNS = {
+        { Lib.COL_HEADER_SN_AND_VC, Lib.COL_HEADER_P_CHECK, Lib.COL_HEADER_MARK_VOTED },
+        { Lib.COL_HEADER_P_CHECK, Lib.COL_HEADER_POSS_VOTE },
+        { Lib.COL_HEADER_POSS_VOTE, Lib.COL_HEADER_MARK_VOTED, 
+            Lib.COL_HEADER_PRE_SUM_A, Lib.COL_HEADER_FINAL_SUM_A },
+        { Lib.COL_HEADER_POSS_VOTE, Lib.COL_HEADER_MARK_VOTED, 
+            Lib.COL_HEADER_PRE_SUM_B, Lib.COL_HEADER_FINAL_SUM_B },
+        { Lib.COL_HEADER_SN_AND_VC, Lib.COL_HEADER_FINAL_SUM_A, 
+            Lib.COL_HEADER_FINAL_SUM_B }
+    };
+    
+    /**
+     * Length of keys and decommitments in bytes. 
+     */
+    private static final int KEY_LENGTH = 16;
+    
+    /**
+     * Length of AES block and initial vectors in bytes. 
+     */
+    private static final int BLOCK_LENGTH = 16;
+    
+    /**
+     * First serial number. 
+     */
+    private static final int FIRST_SERIAL_NUMBER = 100000;
+    
+    /**
+     * Modification time of archive entries, so archives are reproducible. 
+     */
+    private static final long ENTRY_TIME = 1400000000000L;
+    
+    private final Random random;
+    private final Cipher[] ciphers;
+    private final MessageDigest digest;
+    private Fault fault = Fault.NONE;
+    
+    /*
+     * Serial numbers of all ballots, one row per serial number. 
+     */
+    private int[] verificationCodes;
+    private boolean[] real;
+    private boolean[] marked;
+    private byte[] possibleVotes;
+    
+    /**
+     * Default constructor. 
+     * @param seed long seed of random data, archives generated with the same 
+     * seed and parameters are identical. 
+     * @throws GeneralSecurityException thrown when AES or SHA-1 is not 
+     * available. 
+     */
+    public AbbGenerator(long seed) throws GeneralSecurityException
+    {
+        random = new Random(seed);
+        // raw block ciphers, CBC chaining is done by encrypt()
+        ciphers = new Cipher[Lib.COL_NUMBER];
+        for(int column=0; column<Lib.COL_NUMBER; column++)
+            ciphers[column] = Cipher.getInstance("AES/ECB/NoPadding");
+        digest = MessageDigest.getInstance(Lib.HASH_FUNCTION);
+    }
+    
+    /**
+     * Sets fault injected into generated tables. 
+     * @param fault fault to be injected, Fault.NONE by default. 
+     */
+    public void setFault(Fault fault)
+    {
+        this.fault = fault;
+    }
+    
+    /**
+     * Generates ABB.zip file. 
+     * @param abbPath String path of the generated file. 
+     * @param ballots int number of ballots, each table has 
+     * SERIAL_NUM_PER_BALLOT rows per ballot. 
+     * @param tables int number of tables. 
+     * @throws IOException thrown when cannot write the file. 
+     * @throws GeneralSecurityException thrown when cannot encrypt cells. 
+     */
+    public void generate(String abbPath, int ballots, int tables) 
+            throws IOException, GeneralSecurityException
+    {
+        generateBallots(ballots);
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(abbPath))) {
+            // base64 of random data hardly compresses, speed matters more
+            zip.setLevel(Deflater.BEST_SPEED);
+            Writer writer = new BufferedWriter(new OutputStreamWriter(zip, 
+                    StandardCharsets.US_ASCII), 1 << 16);
+            for(int table=0; table<tables; table++)
+                writeTable(zip, writer, table);
+            writer.flush();
+        }
+    }
+    
+    /**
+     * Generates serial numbers of ballots. One serial number of each ballot 
+     * is real, about 70% of ballots are voted. 
+     * @param ballots int number of ballots. 
+     */
+    private void generateBallots(int ballots)
+    {
+        int rows = ballots * Lib.SERIAL_NUM_PER_BALLOT;
+        verificationCodes = new int[rows];
+        real = new boolean[rows];
+        marked = new boolean[rows];
+        possibleVotes = new byte[rows];
+        for(int ballot=0; ballot<ballots; ballot++)
+        {
+            int realSerial = random.nextInt(Lib.SERIAL_NUM_PER_BALLOT);
+            boolean voted = random.nextDouble() < 0.7;
+            byte vote = (byte)random.nextInt(2);
+            for(int s=0; s<Lib.SERIAL_NUM_PER_BALLOT; s++)
+            {
+                int row = ballot * Lib.SERIAL_NUM_PER_BALLOT + s;
+                verificationCodes[row] = 1000 + random.nextInt(9000);
+                real[row] = s == realSerial;
+                marked[row] = voted && (real[row] || random.nextBoolean());
+                possibleVotes[row] = real[row] ? vote : (byte)random.nextInt(2);
+            }
+        }
+    }
+    
+    /**
+     * Writes table files of a single table. 
+     * @param zip output stream of the archive. 
+     * @param writer writer of entries data. 
+     * @param table int table number. 
+     * @throws IOException thrown when cannot write the file. 
+     * @throws GeneralSecurityException thrown when cannot encrypt cells. 
+     */
+    private void writeTable(ZipOutputStream zip, Writer writer, int table) 
+            throws IOException, GeneralSecurityException
+    {
+        int batch = table % Lib.BATCHES_NUMBER + 1;
+        byte[][] keys = new byte[Lib.COL_NUMBER][];
+        byte[][] decommitments = new byte[Lib.COL_NUMBER][];
+        String[] commitments = new String[Lib.COL_NUMBER];
+        for(int column=0; column<Lib.COL_NUMBER; column++)
+        {
+            keys[column] = randomBytes(KEY_LENGTH);
+            decommitments[column] = randomBytes(KEY_LENGTH);
+            digest.update(keys[column]);
+            commitments[column] = encode(digest.digest(decommitments[column]));
+            ciphers[column].init(Cipher.ENCRYPT_MODE, 
+                    new SecretKeySpec(keys[column], Lib.ENCRYPTION_ALGORITHM));
+        }
+        
+        // every table contains all rows in its own order
+        int[] order = new int[verificationCodes.length];
+        for(int i=0; i<order.length; i++)
+            order[i] = i;
+        for(int i=order.length-1; i>0; i--)
+        {
+            int j = random.nextInt(i+1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        
+        int faultPosition = faultPosition(order);
+        for(int type=0; type<FILE_NAMES.length; type++)
+        {
+            beginEntry(zip, writer, FILE_NAMES[type], table);
+            String[] fields = new String[Lib.COL_NUMBER * Lib.COL_CELLS_NUMBER];
+            for(int column : FILE_COLUMNS[type])
+                fields[column * Lib.COL_CELLS_NUMBER] = commitments[column];
+            writeRow(writer, fields);
+            
+            String[] values = new String[Lib.COL_NUMBER];
+            for(int i=0; i<order.length; i++)
+            {
+                rowValues(order[i], values);
+                if(i == faultPosition)
+                    injectFault(table, batch, values);
+                for(int column : FILE_COLUMNS[type])
+                    fields[column * Lib.COL_CELLS_NUMBER] = 
+                            encrypt(ciphers[column], values[column]);
+                writeRow(writer, fields);
+            }
+            endEntry(zip, writer);
+        }
+        
+        beginEntry(zip, writer, Lib.ABB_AUDIT_FILES_NAME, table);
+        String[] fields = new String[Lib.COL_NUMBER * Lib.COL_CELLS_NUMBER];
+        for(int column=0; column<Lib.COL_NUMBER; column++)
+            fields[column * Lib.COL_CELLS_NUMBER] = commitments[column];
+        int[] opened = OPENED_COLUMNS[batch-1];
+        for(int column : opened)
+        {
+            byte[] decommitment = fault == Fault.KEY && table == 1 
+                    && column == opened[0] 
+                    ? randomBytes(KEY_LENGTH) : decommitments[column];
+            fields[column * Lib.COL_CELLS_NUMBER + 1] = encode(keys[column]);
+            fields[column * Lib.COL_CELLS_NUMBER + 2] = encode(decommitment);
+        }
+        writeRow(writer, fields);
+        endEntry(zip, writer);
+    }
+    
+    /**
+     * Sets plaintext values of columns of a row. 
+     * @param row int index of serial number. 
+     * @param values array values are set in. 
+     */
+    private void rowValues(int row, String[] values)
+    {
+        String code = Integer.toString(verificationCodes[row]);
+        values[Lib.COL_HEADER_SN_AND_VC] = (FIRST_SERIAL_NUMBER + row) 
+                + Lib.COL_SN_AND_VC_DELIMITING_CHAR + code;
+        values[Lib.COL_HEADER_P_CHECK] = marked[row] ? code : Lib.COL_VALUE_NOT_CHECKED;
+        values[Lib.COL_HEADER_POSS_VOTE] = possibleVotes[row] == 1 
+                ? Lib.COL_VALUE_YES_VOTE : Lib.COL_VALUE_NO_VOTE;
+        values[Lib.COL_HEADER_MARK_VOTED] = marked[row] 
+                ? Lib.COL_VALUE_VOTED : Lib.COL_VALUE_NOT_VOTED;
+        // fake serial numbers are cancelled by prepare sums
+        String prepareSum = real[row] ? "0" : Lib.COL_VALUE_FAKE_VOTE;
+        values[Lib.COL_HEADER_PRE_SUM_A] = prepareSum;
+        values[Lib.COL_HEADER_PRE_SUM_B] = prepareSum;
+        values[Lib.COL_HEADER_FINAL_SUM_A] = "0";
+        values[Lib.COL_HEADER_FINAL_SUM_B] = "0";
+    }
+    
+    /**
+     * Returns position of the row of a table changed by the fault. 
+     * @param order int indexes of serial numbers in order of the table. 
+     * @return int position of the row, -1 if no row is changed. 
+     */
+    private int faultPosition(int[] order)
+    {
+        switch(fault)
+        {
+            case NONE:
+            case KEY:
+                return -1;
+            case BATCH3:
+                return Math.min(3, order.length-1);
+            case VOTE:
+                // the first real voted serial number 
+                for(int i=0; i<order.length; i++)
+                {
+                    if(real[order[i]] && marked[order[i]])
+                        return i;
+                }
+                return -1;
+            default:
+                return 0;
+        }
+    }
+    
+    /**
+     * Changes values of a row chosen by the fault if the table is affected. 
+     * @param table int table number. 
+     * @param batch int batch of the table. 
+     * @param values plaintext values of the row. 
+     */
+    private void injectFault(int table, int batch, String[] values)
+    {
+        switch(fault)
+        {
+            case BATCH1:
+                if(batch == 1)
+                    values[Lib.COL_HEADER_P_CHECK] = "77";
+                break;
+            case TALLY:
+                if(table == 2)
+                    values[Lib.COL_HEADER_PRE_SUM_A] = 
+                            values[Lib.COL_HEADER_PRE_SUM_A].equals("0") 
+                            ? Lib.COL_VALUE_FAKE_VOTE : "0";
+                break;
+            case BATCH3:
+                if(batch == 3)
+                {
+                    values[Lib.COL_HEADER_PRE_SUM_A] = "1";
+                    values[Lib.COL_HEADER_FINAL_SUM_A] = "0";
+                }
+                break;
+            case VOTE:
+                if(batch == 4)
+                    values[Lib.COL_HEADER_POSS_VOTE] = "7";
+                break;
+            default:
+        }
+    }
+    
+    /**
+     * Encrypts a cell value in CBC mode with zero byte padding. 
+     * @param cipher AES block cipher initialized with key of the column. 
+     * @param value String plaintext value. 
+     * @return String initial vector and ciphertext in base64, separated by 
+     * IV_CIPHERTEXT_DELIMITING_STRING. 
+     * @throws GeneralSecurityException thrown when cannot encrypt the value. 
+     */
+    private String encrypt(Cipher cipher, String value) throws GeneralSecurityException
+    {
+        byte[] iv = randomBytes(BLOCK_LENGTH);
+        byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        byte[] data = new byte[Math.max(1, (bytes.length + BLOCK_LENGTH - 1) 
+                / BLOCK_LENGTH) * BLOCK_LENGTH];
+        System.arraycopy(bytes, 0, data, 0, bytes.length);
+        for(int offset=0; offset<data.length; offset+=BLOCK_LENGTH)
+        {
+            // the first block is chained with initial vector, next ones 
+            // with the previous ciphertext block
+            for(int i=0; i<BLOCK_LENGTH; i++)
+                data[offset+i] ^= offset == 0 ? iv[i] : data[offset-BLOCK_LENGTH+i];
+            cipher.update(data, offset, BLOCK_LENGTH, data, offset);
+        }
+        return encode(iv) + Lib.IV_CIPHERTEXT_DELIMITING_STRING + encode(data);
+    }
+    
+    /**
+     * Starts entry of a table file with a comment line and table number row. 
+     * @param zip output stream of the archive. 
+     * @param writer writer of entries data. 
+     * @param type String type of the table file. 
+     * @param table int table number. 
+     * @throws IOException thrown when cannot write the file. 
+     */
+    private static void beginEntry(ZipOutputStream zip, Writer writer, 
+            String type, int table) throws IOException
+    {
+        ZipEntry entry = new ZipEntry(String.format("%sxyz_table_%s_%03d.csv", 
+                Lib.ABB_ARCHIVE_TABLES_FOLDER, type, table));
+        entry.setTime(ENTRY_TIME);
+        zip.putNextEntry(entry);
+        writer.write("# table "+type+" - generated\n");
+        String[] fields = new String[Lib.COL_NUMBER * Lib.COL_CELLS_NUMBER];
+        fields[0] = Integer.toString(table);
+        writeRow(writer, fields);
+    }
+    
+    /**
+     * Finishes entry of a table file. 
+     * @param zip output stream of the archive. 
+     * @param writer writer of entries data. 
+     * @throws IOException thrown when cannot write the file. 
+     */
+    private static void endEntry(ZipOutputStream zip, Writer writer) 
+            throws IOException
+    {
+        writer.flush();
+        zip.closeEntry();
+    }
+    
+    /**
+     * Writes a row of comma separated fields, null fields are empty. 
+     * @param writer writer of entry data. 
+     * @param fields fields of the row. 
+     * @throws IOException thrown when cannot write the row. 
+     */
+    private static void writeRow(Writer writer, String[] fields) throws IOException
+    {
+        for(int i=0; i<fields.length; i++)
+        {
+            if(i > 0)
+                writer.write(',');
+            if(fields[i] != null)
+                writer.write(fields[i]);
+        }
+        writer.write('\n');
+    }
+    
+    /**
+     * Returns random bytes. 
+     * @param length int number of bytes. 
+     * @return array of random bytes. 
+     */
+    private byte[] randomBytes(int length)
+    {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+    
+    /**
+     * Encodes bytes into base64 String. 
+     * @param data bytes to be encoded. 
+     * @return base64 encoded String. 
+     */
+    private static String encode(byte[] data)
+    {
+        return Base64Kit.encode(data, 0, data.length);
+    }
+    
+    /**
+     * Generates ABB.zip file. 
+     * @param args input parameters: 
+     *  abbPath - path of the generated file
+     *  ballots - number of ballots
+     *  tables - number of tables
+     *  [seed] - seed of random data (default 1)
+     *  [fault] - fault injected: none, key, batch1, tally, batch3 or vote 
+     *  (default none)
+     * @throws IOException thrown when cannot write the file. 
+     * @throws GeneralSecurityException thrown when cannot encrypt cells. 
+     */
+    public static void main(String args[]) throws IOException, GeneralSecurityException
+    {
+        if(args.length < 3)
+        {
+            System.out.println("Usage: AbbGenerator abbPath ballots tables "
+                    + "[seed] [none|key|batch1|tally|batch3|vote]");
+            return;
+        }
+        AbbGenerator generator = new AbbGenerator(
+                args.length > 3 ? Long.parseLong(args[3]) : 1);
+        if(args.length > 4)
+            generator.setFault(Fault.valueOf(args[4].toUpperCase()));
+        generator.generate(args[0], Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * Test of ABB snapshots. A snapshot written after extraction must be read 
+ * back with the same tables and audited with the same result, snapshots 
+ * of another version, corrupted or truncated must be rejected. The test 
+ * fails with an AssertionError. 
+ * @author Maciej Kosarzecki 
+ */
+public class AbbSnapshotTest {
+
+    /**
+     * Runs the test. 
+     * @param args input parameters, not used. 
+     * @throws IOException thrown when cannot write files. 
+     * @throws GeneralSecurityException thrown when cannot encrypt cells. 
+     * @throws AuditException thrown when batch of a table cannot be 
+     * specified. 
+     */
+    public static void main(String args[]) throws IOException,
+            GeneralSecurityException, AuditException
+    {
+        File dir = Files.createTempDirectory("snapshot").toFile();
+        AbbGenerator generator = new AbbGenerator(1);
+        generator.setFault(AbbGenerator.Fault.TALLY);
+        File abb = new File(dir, "ABB.zip");
+        generator.generate(abb.getPath(), 20, 4);
+        File file = new File(dir, "ABB.snapshot");
+
+        String extracted = audit(abb.getPath(), file.getPath(), true,
+                TableStorage.HEAP);
+        check(file.exists(), "snapshot not written\n"+extracted);
+        for(TableStorage storage : TableStorage.values())
+        {
+            try (TableMemory memory = new TableMemory(storage)) {
+                AbbSnapshot snapshot = AbbSnapshot.read(file, memory);
+                check(snapshot.getSourceName().equals(abb.getName())
+                        && snapshot.getSourceHash().equals(AbbSnapshot.hashFile(abb)),
+                        "wrong source of snapshot read to "+storage);
+                check(snapshot.getDataTables().length == 4
+                        && snapshot.getOpenedKeysTables().length == 4,
+                        "wrong number of tables read to "+storage);
+            }
+            String read = audit(null, file.getPath(), false, storage);
+            check(verdict(read).equals(verdict(extracted)),
+                    "audit of snapshot read to "+storage+" differs\n"+read);
+        }
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        byte[] corrupted = bytes.clone();
+        corrupted[bytes.length/2] ^= 1;
+        checkRejected(dir, corrupted, "does not match", "corrupted");
+        checkRejected(dir, Arrays.copyOf(bytes, bytes.length-1),
+                "does not match", "truncated");
+        checkRejected(dir, Arrays.copyOf(bytes, 12), "truncated", "truncated");
+        byte[] version = bytes.clone();
+        version[7]++;
+        checkRejected(dir, version, "Unsupported version", "of another version");
+        byte[] other = bytes.clone();
+        other[0] = 0;
+        checkRejected(dir, other, "is not an ABB snapshot", "of another format");
+        System.out.println("AbbSnapshotTest passed");
+    }
+
+    /**
+     * Checks that a snapshot is rejected both by AbbSnapshot.read() and by 
+     * the audit. 
+     * @param dir directory of test files. 
+     * @param bytes contents of the snapshot file. 
+     * @param reason String expected in the message of the exception. 
+     * @param description String description of the snapshot. 
+     * @throws IOException thrown when cannot write the snapshot file. 
+     * @throws AuditException thrown when batch of a table cannot be 
+     * specified. 
+     */
+    private static void checkRejected(File dir, byte[] bytes, String reason,
+            String description) throws IOException, AuditException
+    {
+        File file = File.createTempFile("rejected", ".snapshot", dir);
+        Files.write(file.toPath(), bytes);
+        try {
+            AbbSnapshot.read(file, TableMemory.HEAP);
+            throw new AssertionError("snapshot "+description+" read");
+        } catch (IOException ex) {
+            check(ex.getMessage().contains(reason), "snapshot "+description
+                    +" rejected for a wrong reason: "+ex.getMessage());
+        }
+        String output = audit(null, file.getPath(), false, TableStorage.HEAP);
+        check(output.contains("Error! Extraction failed!") && output.contains(reason),
+                "snapshot "+description+" audited\n"+output);
+    }
+
+    /**
+     * Audits an archive and writes a snapshot of it, or audits a snapshot. 
+     * @param abbPath String path to ABB .zip file, null if the snapshot 
+     * should be read. 
+     * @param snapshotPath String path of the snapshot file. 
+     * @param write true if the snapshot should be written. 
+     * @param storage storage of tables. 
+     * @return String output of the audit. 
+     */
+    private static String audit(String abbPath, String snapshotPath,
+            boolean write, TableStorage storage)
+    {
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream stream = new PrintStream(output, true);
+        System.setOut(stream);
+        System.setErr(stream);
+        try {
+            Auditor auditor = new Auditor();
+            auditor.setTableStorage(storage);
+            if(abbPath != null)
+                auditor.extractABB(abbPath);
+            else
+                auditor.readSnapshot(snapshotPath);
+            if(write)
+                auditor.writeSnapshot(snapshotPath);
+            auditor.audit();
+            auditor.close();
+        } catch (RuntimeException ex) {
+            ex.printStackTrace(stream);
+        } finally {
+            System.setOut(out);
+            System.setErr(err);
+        }
+        return output.toString();
+    }
+
+    /**
+     * Returns the summary of an audit i.e. its output following the 
+     * extraction of tables. 
+     * @param output String output of the audit. 
+     * @return String summary of the audit. 
+     */
+    private static String verdict(String output)
+    {
+        return output.substring(output.indexOf("-------- Opened keys"));
+    }
+
+    /**
+     * Checks a condition of the test. 
+     * @param condition boolean condition expected to be true. 
+     * @param message String description of the failure. 
+     */
+    private static void check(boolean condition, String message)
+    {
+        if(!condition)
+            throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.lingala.zip4j.exception.ZipException;
+
+/**
+ * Benchmark of audit hot paths on tables of a real or generated ABB.zip 
+ * file: parsing of table files, checks of opened keys, decryption of cells, 
+ * ASCII encoding of plaintexts and batch 3/4 verification with tally. Each 
+ * path is run on all tables of the archive, so row counts are those of 
+ * the bulletin board. 
+ * @author Maciej Kosarzecki
+ */
+public class AuditBenchmark {
+    
+    /**
+     * Sink for results of benchmarked code. 
+     */
+    private static volatile long sink;
+    
+    /**
+     * Runs the benchmark. 
+     * @param args input parameters: 
+     *  abbPath - path of the ABB.zip file
+     *  [iterations] - number of measured iterations (default 5)
+     * @throws ZipException thrown when cannot read the ABB.zip file. 
+     * @throws AuditException thrown when cannot index table files. 
+     */
+    public static void main(String args[]) throws ZipException, AuditException
+    {
+        if(args.length < 1)
+        {
+            System.out.println("Usage: AuditBenchmark abbPath [iterations]");
+            return;
+        }
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        
+        ExtractionKit kit = new ExtractionKit();
+        TableIndex index = kit.indexTablesInArchive(args[0], new ArrayList<String>());
+        DataTable[] keys = kit.extractDataKeys(index, 0, index.size());
+        DataTable[] tables = kit.extractData(index, 0, index.size(), null);
+        List<List<DataTable>> batches = setKeys(tables, keys);
+        
+        long rows = 0;
+        for(DataTable table : tables)
+            rows += table.getRowsNumber();
+        long opened = 0;
+        long decrypted = 0;
+        for(int i=0; i<keys.length; i++)
+        {
+            for(DataCellKey key : keys[i].getCellKeys())
+            {
+                if(key.isOpened())
+                {
+                    opened++;
+                    decrypted += tables[i].getRowsNumber();
+                }
+            }
+        }
+        System.out.println("Tables: "+tables.length+", rows: "+rows
+                +", opened keys: "+opened+", opened cells: "+decrypted);
+        
+        // cells are decrypted before plaintexts and tallies are measured
+        new DecryptionEngine(null).decryptTables(tables, keys);
+        for(int mode=0; mode<5; mode++)
+        {
+            long units = mode == 0 ? rows : mode == 1 ? opened 
+                    : mode == 4 ? rows : decrypted;
+            // warm up 
+            for(int i=0; i<Math.max(1, iterations/2); i++)
+                sink += run(mode, kit, index, tables, keys, batches);
+            long start = System.nanoTime();
+            for(int i=0; i<iterations; i++)
+                sink += run(mode, kit, index, tables, keys, batches);
+            long time = System.nanoTime() - start;
+            System.out.println(modeName(mode)+": "
+                    +(time/(Math.max(units, 1)*iterations))+" ns/"+unitName(mode)
+                    +", "+(time/(1000000L*iterations))+" ms/iteration");
+        }
+    }
+    
+    /**
+     * Sets opened keys of data tables and groups tables by batches. 
+     * @param tables data tables. 
+     * @param keys data tables containing opened keys, in the same order as 
+     * data tables. 
+     * @return lists of data tables of each batch. 
+     * @throws AuditException thrown when keys of a table cannot be set. 
+     */
+    private static List<List<DataTable>> setKeys(DataTable[] tables, 
+            DataTable[] keys) throws AuditException
+    {
+        List<List<DataTable>> batches = new ArrayList<>(Lib.BATCHES_NUMBER);
+        for(int i=0; i<Lib.BATCHES_NUMBER; i++)
+            batches.add(new ArrayList<DataTable>());
+        for(int i=0; i<tables.length; i++)
+        {
+            tables[i].setCellKeys(keys[i].getCellKeys());
+            batches.get(tables[i].getBatch()-1).add(tables[i]);
+        }
+        return batches;
+    }
+    
+    /**
+     * Runs a benchmarked path once over all tables. 
+     * @param mode int benchmark mode: 0 - parsing of table files, 1 - checks 
+     * of opened keys, 2 - decryption of opened columns, 3 - ASCII encoding 
+     * of plaintexts, 4 - batch 3/4 verification with tally. 
+     * @param kit extraction kit used for parsing. 
+     * @param index index of table files. 
+     * @param tables data tables. 
+     * @param keys data tables containing opened keys. 
+     * @param batches data tables grouped by batches. 
+     * @return value computed from results, so work is not optimized out. 
+     * @throws AuditException thrown when a table file cannot be read. 
+     */
+    private static long run(int mode, ExtractionKit kit, TableIndex index, 
+            DataTable[] tables, DataTable[] keys, List<List<DataTable>> batches)
+            throws AuditException
+    {
+        long sum = 0;
+        switch(mode)
+        {
+            case 0:
+                for(DataTable table : kit.extractData(index, 0, index.size(), null))
+                    sum += table.getRowsNumber();
+                break;
+            case 1:
+                KeyVerifier verifier = new KeyVerifier();
+                for(DataTable table : keys)
+                {
+                    for(boolean correct : verifier.checkTable(table))
+                        sum += correct ? 1 : 0;
+                }
+                break;
+            case 2:
+                new DecryptionEngine(null).decryptTables(tables, keys);
+                sum += tables.length;
+                break;
+            case 3:
+                for(DataTable table : tables)
+                {
+                    for(int column=0; column<Lib.COL_NUMBER; column++)
+                    {
+                        if(!table.getCellKeys()[column].isOpened())
+                            continue;
+                        for(int row=0; row<table.getRowsNumber(); row++)
+                        {
+                            String plaintext = table.getDataRow(row)
+                                    .getDataCell(column).getPlaintextASCIIEncoded();
+                            sum += plaintext != null ? plaintext.length() : 0;
+                        }
+                    }
+                }
+                break;
+            default:
+                TallyVerifier tally = new TallyVerifier(null);
+                for(TableTally result : tally.verifyTables(batches.get(2), 3))
+                    sum += result.isConsistent() ? 1 : 0;
+                for(TableTally result : tally.verifyTables(batches.get(3), 4))
+                    sum += result.isConsistent() ? 1 : 0;
+        }
+        return sum;
+    }
+    
+    /**
+     * Returns name of a benchmark mode. 
+     * @param mode int benchmark mode. 
+     * @return String name of a mode. 
+     */
+    private static String modeName(int mode)
+    {
+        switch(mode)
+        {
+            case 0:
+                return "Parsing of table files";
+            case 1:
+                return "Checks of opened keys";
+            case 2:
+                return "Decryption of opened columns";
+            case 3:
+                return "ASCII encoding of plaintexts";
+            default:
+                return "Batch 3/4 verification with tally";
+        }
+    }
+    
+    /**
+     * Returns name of a unit a benchmark mode is measured per. 
+     * @param mode int benchmark mode. 
+     * @return String name of a unit. 
+     */
+    private static String unitName(int mode)
+    {
+        switch(mode)
+        {
+            case 0:
+            case 4:
+                return "row";
+            case 1:
+                return "key";
+            default:
+                return "cell";
+        }
+    }
+}
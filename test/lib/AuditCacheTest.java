@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * Test of hits and misses of the cache of results of audited tables. 
+ * Results must be reused only for the same table number and unchanged 
+ * table files of the same cache version, results of tables not audited 
+ * must not be cached. The test fails with an AssertionError. 
+ * @author Maciej Kosarzecki 
+ */
+public class AuditCacheTest {
+
+    /**
+     * Runs the test. 
+     * @param args input parameters, not used. 
+     * @throws IOException thrown when cannot write files. 
+     * @throws GeneralSecurityException thrown when cannot encrypt cells. 
+     */
+    public static void main(String args[]) throws IOException, GeneralSecurityException
+    {
+        File dir = Files.createTempDirectory("cache").toFile();
+        checkCache(dir);
+        checkAudit(dir);
+        System.out.println("AuditCacheTest passed");
+    }
+
+    /**
+     * Checks the cache on table files of two tables of the same contents. 
+     * @param dir directory of test files. 
+     * @throws IOException thrown when cannot write files. 
+     */
+    private static void checkCache(File dir) throws IOException
+    {
+        File[] files = new File[4];
+        for(int type=0; type<files.length; type++)
+        {
+            files[type] = new File(dir, "table"+type+".csv");
+            write(files[type], "1,,\nrow "+type+"\n", false);
+        }
+        TableIndex index = index(files);
+        byte[][] hashes = hash(dir, index);
+        check(!Arrays.equals(hashes[0], hashes[1]),
+                "tables of different numbers have the same hash");
+
+        // line terminators are not hashed
+        write(files[1], "1,,\r\nrow 1\r\n", false);
+        check(Arrays.equals(hashes[0], hash(dir, index)[0]),
+                "hash depends on line terminators");
+
+        File file = new File(dir, "audit.cache");
+        AuditCache cache = new AuditCache(file);
+        check(cache.get(hashes[0]) == null, "hit in an empty cache");
+        TableResult audited = new TableResult(1);
+        audited.setBatch(3);
+        TableResult failed = new TableResult(2);
+        failed.setError("Error! Table: 2 could not be audited!");
+        cache.put(hashes[0], audited);
+        cache.put(hashes[1], failed);
+        cache.save();
+
+        cache = new AuditCache(file);
+        TableResult result = cache.get(hashes[0]);
+        check(result != null && result.getNumber() == 1 && result.getBatch() == 3,
+                "no hit of a saved result");
+        check(cache.get(hashes[1]) == null, "hit of a table not audited");
+
+        write(files[2], "row 3\n", true);
+        byte[] changed = hash(dir, index)[0];
+        check(cache.get(changed) == null, "hit of a changed table");
+
+        // results of another version of the cache are not read
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            int version = raf.readInt();
+            raf.seek(0);
+            raf.writeInt(version+1);
+        }
+        check(new AuditCache(file).get(hashes[0]) == null,
+                "hit in a cache of another version");
+    }
+
+    /**
+     * Checks cached results of audits of generated archives. 
+     * @param dir directory of test files. 
+     * @throws IOException thrown when cannot write the archive. 
+     * @throws GeneralSecurityException thrown when cannot encrypt cells. 
+     */
+    private static void checkAudit(File dir) throws IOException, GeneralSecurityException
+    {
+        String abbPath = new File(dir, "ABB.zip").getPath();
+        String cachePath = new File(dir, "ABB.cache").getPath();
+        new AbbGenerator(1).generate(abbPath, 20, 4);
+
+        String output = audit(abbPath, cachePath);
+        check(output.contains("Reusing cached results of 0 of 4 table(s)"),
+                "cached results reused by the first audit\n"+output);
+        String cached = audit(abbPath, cachePath);
+        check(cached.contains("Reusing cached results of 4 of 4 table(s)"),
+                "cached results not reused\n"+cached);
+        check(verdict(output).equals(verdict(cached)),
+                "verdict differs with cached results\n"+cached);
+
+        AbbGenerator generator = new AbbGenerator(2);
+        generator.setFault(AbbGenerator.Fault.TALLY);
+        generator.generate(abbPath, 20, 4);
+        output = audit(abbPath, cachePath);
+        check(output.contains("Reusing cached results of 0 of 4 table(s)"),
+                "cached results reused for changed tables\n"+output);
+        check(!verdict(output).equals(verdict(cached)),
+                "verdict of changed tables not changed\n"+output);
+    }
+
+    /**
+     * Audits an archive with the cache of results. 
+     * @param abbPath String path to ABB .zip file. 
+     * @param cachePath String path to the cache file. 
+     * @return String output of the audit. 
+     */
+    private static String audit(String abbPath, String cachePath)
+    {
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream stream = new PrintStream(output, true);
+        System.setOut(stream);
+        System.setErr(stream);
+        try {
+            Auditor auditor = new Auditor();
+            auditor.setResultCache(cachePath);
+            auditor.extractABB(abbPath);
+            auditor.audit();
+            auditor.close();
+        } catch (RuntimeException ex) {
+            ex.printStackTrace(stream);
+        } finally {
+            System.setOut(out);
+            System.setErr(err);
+        }
+        return output.toString();
+    }
+
+    /**
+     * Returns the summary of an audit i.e. its output following the audit of 
+     * tables. 
+     * @param output String output of the audit. 
+     * @return String summary of the audit. 
+     */
+    private static String verdict(String output)
+    {
+        return output.substring(output.indexOf("-------- Opened keys"));
+    }
+
+    /**
+     * Computes hashes of indexed tables with an empty cache. 
+     * @param dir directory of test files. 
+     * @param index index of table files. 
+     * @return hashes of tables in order of the index. 
+     */
+    private static byte[][] hash(File dir, TableIndex index)
+    {
+        return new AuditCache(new File(dir, "empty.cache")).hashTables(null, index);
+    }
+
+    /**
+     * Creates index of four table files of tables 1 and 2, both tables use 
+     * the same files. 
+     * @param files table files of each type. 
+     * @return TableIndex created. 
+     */
+    private static TableIndex index(File[] files)
+    {
+        TableSource[][] sources = new TableSource[files.length][];
+        for(int type=0; type<files.length; type++)
+        {
+            TableSource source = TableSource.of(files[type]);
+            sources[type] = new TableSource[] { source, source };
+        }
+        return new TableIndex(new int[] { 1, 2 }, sources[0], sources[1],
+                sources[2], sources[3]);
+    }
+
+    /**
+     * Writes a file. 
+     * @param file file to be written. 
+     * @param text String contents. 
+     * @param append true if contents should be appended. 
+     * @throws IOException thrown when cannot write the file. 
+     */
+    private static void write(File file, String text, boolean append) throws IOException
+    {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        if(append)
+            Files.write(file.toPath(), bytes, StandardOpenOption.APPEND);
+        else
+            Files.write(file.toPath(), bytes);
+    }
+
+    /**
+     * Checks a condition of the test. 
+     * @param condition boolean condition expected to be true. 
+     * @param message String description of the failure. 
+     */
+    private static void check(boolean condition, String message)
+    {
+        if(!condition)
+            throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package lib;
+
+import java.security.GeneralSecurityException;
+import java.security.Security;
+import java.util.Random;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * Benchmark comparing decryption of columns with a cipher looked up for 
+ * every column (provider registered each time) against pooled BouncyCastle 
+ * and JDK ciphers of CryptoEngine, cell by cell and as batches decrypted 
+ * into a reusable buffer. 
+ * @author Maciej Kosarzecki
+ */
+public class CryptoBenchmark {
+    
+    /**
+     * Sink for results of benchmarked code. 
+     */
+    private static volatile long sink;
+    
+    /**
+     * Runs the benchmark. 
+     * @param args input parameters: 
+     *  [columns] - number of columns decrypted in one iteration (default 500)
+     *  [rows] - number of cells in a column (default 200)
+     *  [iterations] - number of measured iterations (default 10)
+     * @throws GeneralSecurityException thrown when cannot encrypt test data. 
+     */
+    public static void main(String args[]) throws GeneralSecurityException
+    {
+        int columns = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        
+        Random random = new Random(1);
+        byte[][] keys = new byte[columns][16];
+        byte[][][] ivs = new byte[columns][rows][16];
+        byte[][][] ciphertexts = new byte[columns][rows][];
+        Cipher encryption = Cipher.getInstance("AES/CBC/NoPadding");
+        for(int c=0; c<columns; c++)
+        {
+            random.nextBytes(keys[c]);
+            for(int r=0; r<rows; r++)
+            {
+                random.nextBytes(ivs[c][r]);
+                byte[] plain = new byte[16];
+                byte[] value = Integer.toString(random.nextInt(3)-1).getBytes();
+                System.arraycopy(value, 0, plain, 0, value.length);
+                encryption.init(Cipher.ENCRYPT_MODE, 
+                        new SecretKeySpec(keys[c], Lib.ENCRYPTION_ALGORITHM), 
+                        new IvParameterSpec(ivs[c][r]));
+                ciphertexts[c][r] = encryption.doFinal(plain);
+            }
+        }
+        
+        long cells = (long)columns*rows;
+        System.out.println("Cells per iteration: "+cells);
+        for(int mode=0; mode<5; mode++)
+        {
+            // warm up 
+            for(int i=0; i<Math.max(1, iterations/2); i++)
+                sink += run(mode, keys, ivs, ciphertexts);
+            long start = System.nanoTime();
+            for(int i=0; i<iterations; i++)
+                sink += run(mode, keys, ivs, ciphertexts);
+            long time = System.nanoTime() - start;
+            System.out.println(modeName(mode)+": "
+                    +(time/(cells*iterations))+" ns/cell");
+        }
+    }
+    
+    /**
+     * Decrypts all columns once. 
+     * @param mode int benchmark mode: 0 - cipher looked up per column, 
+     * 1 - pooled BouncyCastle cipher, 2 - pooled JDK cipher, 3 - BouncyCastle
+     * batch, 4 - JDK batch. 
+     * @param keys keys of columns. 
+     * @param ivs initial vectors of cells. 
+     * @param ciphertexts ciphertexts of cells. 
+     * @return sum of plaintext lengths, so decryption is not optimized out. 
+     * @throws GeneralSecurityException thrown when decryption fails. 
+     */
+    private static long run(int mode, byte[][] keys, byte[][][] ivs, 
+            byte[][][] ciphertexts) throws GeneralSecurityException
+    {
+        long sum = 0;
+        CellBatch batch = new CellBatch();
+        byte[] out = new byte[0];
+        for(int c=0; c<keys.length; c++)
+        {
+            if(mode == 0)
+            {
+                Security.addProvider(new BouncyCastleProvider());
+                Cipher cipher = Cipher.getInstance("AES/CBC/ZeroBytePadding", "BC");
+                SecretKeySpec keySpec = new SecretKeySpec(keys[c], Lib.ENCRYPTION_ALGORITHM);
+                for(int r=0; r<ivs[c].length; r++)
+                {
+                    cipher.init(Cipher.DECRYPT_MODE, keySpec, new IvParameterSpec(ivs[c][r]));
+                    sum += cipher.doFinal(ciphertexts[c][r]).length;
+                }
+            }
+            else if(mode >= 3)
+            {
+                DecryptionKit kit = new DecryptionKit(mode == 3 
+                        ? CipherProvider.BC : CipherProvider.JDK);
+                kit.setKey(keys[c]);
+                batch.clear();
+                for(int r=0; r<ivs[c].length; r++)
+                    batch.add(ivs[c][r], ciphertexts[c][r]);
+                if(out.length < batch.getCiphertextsLength())
+                    out = new byte[batch.getCiphertextsLength()];
+                kit.decrypt(batch, out);
+                for(int r=0; r<ivs[c].length; r++)
+                    sum += batch.getPlaintextLength(r);
+                kit.release();
+            }
+            else
+            {
+                DecryptionKit kit = new DecryptionKit(mode == 1 
+                        ? CipherProvider.BC : CipherProvider.JDK);
+                kit.setKey(keys[c]);
+                for(int r=0; r<ivs[c].length; r++)
+                    sum += kit.decrypt(ivs[c][r], ciphertexts[c][r]).length;
+                kit.release();
+            }
+        }
+        return sum;
+    }
+    
+    /**
+     * Returns name of a benchmark mode. 
+     * @param mode int benchmark mode. 
+     * @return String name of a mode. 
+     */
+    private static String modeName(int mode)
+    {
+        switch(mode)
+        {
+            case 0:
+                return "BC, cipher looked up per column";
+            case 1:
+                return "BC, pooled cipher";
+            case 2:
+                return "JDK, pooled cipher";
+            case 3:
+                return "BC, batch into reusable buffer";
+            default:
+                return "JDK, batch into reusable buffer";
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+
+/**
+ * Regression test of keys pre-check of an archive with a corrupted opened 
+ * key. Tables of keys pre-checked have no batch yet, reporting their 
+ * inconsistencies must not fail on it. The test runs pre-check with both 
+ * extraction modes and fails with an AssertionError. 
+ * @author Maciej Kosarzecki
+ */
+public class KeysPreCheckTest {
+    
+    /**
+     * Runs the test. 
+     * @param args input parameters, not used. 
+     * @throws IOException thrown when cannot write the archive. 
+     * @throws GeneralSecurityException thrown when cannot encrypt cells. 
+     */
+    public static void main(String args[]) throws IOException, GeneralSecurityException
+    {
+        File dir = Files.createTempDirectory("precheck").toFile();
+        AbbGenerator generator = new AbbGenerator(1);
+        generator.setFault(AbbGenerator.Fault.KEY);
+        String abbPath = new File(dir, "ABB.zip").getPath();
+        generator.generate(abbPath, 20, 4);
+        
+        for(boolean inArchive : new boolean[] { true, false })
+        {
+            for(boolean preCheckOnly : new boolean[] { true, false })
+            {
+                String output = audit(abbPath, inArchive, preCheckOnly);
+                check(output.contains("Warning! Inconsistency found in opened keys!"), 
+                        "inconsistency of opened keys not reported", output);
+                check(!output.contains("Exception"), "audit failed", output);
+            }
+        }
+        System.out.println("KeysPreCheckTest passed");
+    }
+    
+    /**
+     * Audits an archive with keys pre-check. 
+     * @param abbPath String path to ABB .zip file. 
+     * @param inArchive true if tables should be read inside the archive. 
+     * @param preCheckOnly true if only keys should be checked. 
+     * @return String output of the audit. 
+     */
+    private static String audit(String abbPath, boolean inArchive, 
+            boolean preCheckOnly)
+    {
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream stream = new PrintStream(output, true);
+        System.setOut(stream);
+        System.setErr(stream);
+        try {
+            Auditor auditor = new Auditor();
+            auditor.setInArchiveExtraction(inArchive);
+            auditor.setKeysPreCheck(!preCheckOnly, preCheckOnly);
+            auditor.extractABB(abbPath);
+            auditor.audit();
+        } catch (RuntimeException ex) {
+            ex.printStackTrace(stream);
+        } finally {
+            System.setOut(out);
+            System.setErr(err);
+        }
+        return output.toString();
+    }
+    
+    /**
+     * Checks a condition of the test. 
+     * @param condition boolean condition expected to be true. 
+     * @param message String description of the failure. 
+     * @param output String output of the audit. 
+     */
+    private static void check(boolean condition, String message, String output)
+    {
+        if(!condition)
+            throw new AssertionError(message+"\n"+output);
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * End-to-end benchmark of extraction and audit of generated ABB archives of 
+ * growing sizes with growing numbers of threads. Each run is done by a new 
+ * JVM, started with the same JVM options as the benchmark, so peak memory 
+ * and GC time are measured for a single audit. Results are printed and 
+ * written to a JSON report. A run whose JVM fails or whose audit does not 
+ * pass is reported as failed. 
+ * @author Maciej Kosarzecki
+ */
+public class ScalingBenchmark {
+    
+    /**
+     * Prefix of the line with results of a run printed by the child JVM. 
+     */
+    private static final String RESULT_PREFIX = "RESULT ";
+    
+    /**
+     * Prefix of lines with wall times of audit phases printed by the child 
+     * JVM. 
+     */
+    private static final String PHASE_PREFIX = "PHASE ";
+    
+    /**
+     * Runs the benchmark. 
+     * @param args input parameters: 
+     *  -dir path - directory of generated archives (default scaling)
+     *  -serials n,n,... - numbers of serial numbers (rows) of tables 
+     *  (default 10000,100000,1000000)
+     *  -tables n - number of tables of each archive (default 20)
+     *  -threads n,n,... - numbers of worker threads (default 1 and number 
+     *  of processors)
+     *  -extraction disk|archive - extraction mode of the audit (default disk)
+     *  -report file - path of JSON report (default scaling.json)
+     * @throws IOException thrown when cannot generate archives, run the 
+     * audit or write the report. 
+     * @throws GeneralSecurityException thrown when cannot encrypt cells of 
+     * generated archives. 
+     * @throws InterruptedException thrown when interrupted while waiting 
+     * for a run. 
+     */
+    public static void main(String args[]) 
+            throws IOException, GeneralSecurityException, InterruptedException
+    {
+        if(args.length > 0 && args[0].equals("-run"))
+        {
+            run(args[1], Integer.parseInt(args[2]), args[3].equals("archive"));
+            return;
+        }
+        
+        String dir = "scaling";
+        int[] serials = { 10000, 100000, 1000000 };
+        int tables = 20;
+        int processors = Runtime.getRuntime().availableProcessors();
+        int[] threads = processors > 1 ? new int[] { 1, processors } : new int[] { 1 };
+        String extraction = "disk";
+        String reportPath = "scaling.json";
+        for(int i=0; i+1<args.length; i+=2)
+        {
+            switch(args[i])
+            {
+                case "-dir":
+                    dir = args[i+1];
+                    break;
+                case "-serials":
+                    serials = parseNumbers(args[i+1]);
+                    break;
+                case "-tables":
+                    tables = Integer.parseInt(args[i+1]);
+                    break;
+                case "-threads":
+                    threads = parseNumbers(args[i+1]);
+                    break;
+                case "-extraction":
+                    extraction = args[i+1];
+                    break;
+                case "-report":
+                    reportPath = args[i+1];
+                    break;
+            }
+        }
+        
+        JsonWriter report = new JsonWriter().beginObject()
+                .name("java").value(System.getProperty("java.version"))
+                .name("processors").value(processors)
+                .name("jvmOptions").beginArray();
+        for(String option : jvmOptions())
+            report.value(option);
+        report.endArray()
+                .name("tables").value(tables)
+                .name("extraction").value(extraction)
+                .name("runs").beginArray();
+        System.out.println("serials\tthreads\textract ms\taudit ms\trows/s\t"
+                + "peak heap MB\tpeak RSS MB\tGC ms\tverdict");
+        for(int size : serials)
+        {
+            String abbPath = generate(dir, size, tables);
+            long rows = (long)size * tables;
+            for(int threadsNumber : threads)
+            {
+                Map<String, Double> phases = new LinkedHashMap<>();
+                long[] result = runChild(abbPath, threadsNumber, extraction, phases);
+                if(result == null)
+                {
+                    System.out.println(size+"\t"+threadsNumber+"\tfailed");
+                    report.beginObject()
+                            .name("serials").value(size)
+                            .name("threads").value(threadsNumber)
+                            .name("rows").value(rows)
+                            .name("passed").value(false)
+                            .endObject();
+                    continue;
+                }
+                boolean passed = result[6] == 1;
+                long totalMs = result[0] + result[1];
+                double rowsPerSecond = totalMs > 0 ? rows * 1000.0 / totalMs : 0;
+                System.out.println(size+"\t"+threadsNumber+"\t"+result[0]+"\t\t"
+                        +result[1]+"\t\t"+Math.round(rowsPerSecond)+"\t"
+                        +(result[2] >> 20)+"\t\t"+(result[3] < 0 ? -1 : result[3] >> 20)
+                        +"\t\t"+result[5]+"\t"+(passed ? "passed" : "failed"));
+                report.beginObject()
+                        .name("serials").value(size)
+                        .name("threads").value(threadsNumber)
+                        .name("rows").value(rows)
+                        .name("passed").value(passed)
+                        .name("archiveBytes").value(new File(abbPath).length())
+                        .name("extractionMs").value(result[0])
+                        .name("auditMs").value(result[1])
+                        .name("totalMs").value(totalMs)
+                        .name("rowsPerSecond").value(rowsPerSecond)
+                        .name("peakHeapBytes").value(result[2])
+                        .name("peakRssBytes").value(result[3])
+                        .name("gcCount").value(result[4])
+                        .name("gcMs").value(result[5])
+                        .name("phaseWallMs").beginObject();
+                for(Map.Entry<String, Double> phase : phases.entrySet())
+                    report.name(phase.getKey()).value(phase.getValue());
+                report.endObject().endObject();
+            }
+        }
+        report.endArray().endObject();
+        Files.write(Paths.get(reportPath), 
+                (report+"\n").getBytes(StandardCharsets.UTF_8));
+        System.out.println("Report written to "+reportPath);
+    }
+    
+    /**
+     * Generates an archive of a specified size, unless it has been already 
+     * generated. Archives are generated with the same seed, so they are 
+     * the same across benchmark runs. 
+     * @param dir String directory of archives. 
+     * @param serials int number of serial numbers of tables. 
+     * @param tables int number of tables. 
+     * @return String path of the archive. 
+     * @throws IOException thrown when cannot write the archive. 
+     * @throws GeneralSecurityException thrown when cannot encrypt cells. 
+     */
+    private static String generate(String dir, int serials, int tables) 
+            throws IOException, GeneralSecurityException
+    {
+        File directory = new File(dir, serials+"x"+tables);
+        File abb = new File(directory, Lib.ABB_FILE_NAME);
+        if(!abb.exists())
+        {
+            directory.mkdirs();
+            System.out.println("Generating "+abb+"...");
+            new AbbGenerator(1).generate(abb.getPath(), 
+                    Math.max(1, serials / Lib.SERIAL_NUM_PER_BALLOT), tables);
+        }
+        return abb.getPath();
+    }
+    
+    /**
+     * Runs extraction and audit of an archive in a new JVM. 
+     * @param abbPath String path of the archive. 
+     * @param threads int number of worker threads. 
+     * @param extraction String extraction mode. 
+     * @param phases map wall times of audit phases in milliseconds are put 
+     * in. 
+     * @return results of the run, see run(), null if the JVM failed or did 
+     * not print results. 
+     * @throws IOException thrown when cannot start the JVM. 
+     * @throws InterruptedException thrown when interrupted while waiting 
+     * for the JVM. 
+     */
+    private static long[] runChild(String abbPath, int threads, String extraction,
+            Map<String, Double> phases) throws IOException, InterruptedException
+    {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home")+File.separator+"bin"
+                +File.separator+"java");
+        command.addAll(jvmOptions());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ScalingBenchmark.class.getName());
+        command.add("-run");
+        command.add(abbPath);
+        command.add(Integer.toString(threads));
+        command.add(extraction);
+        
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String result = null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while((line = reader.readLine()) != null)
+            {
+                if(line.startsWith(RESULT_PREFIX))
+                    result = line.substring(RESULT_PREFIX.length());
+                else if(line.startsWith(PHASE_PREFIX))
+                {
+                    String[] phase = line.substring(PHASE_PREFIX.length()).split(" ");
+                    phases.put(phase[0], Double.parseDouble(phase[1]));
+                }
+            }
+        }
+        if(process.waitFor() != 0 || result == null)
+            return null;
+        String[] fields = result.split(" ");
+        long[] values = new long[fields.length];
+        for(int i=0; i<fields.length; i++)
+            values[i] = Long.parseLong(fields[i]);
+        return values;
+    }
+    
+    /**
+     * Extracts and audits an archive, output of the audit is discarded. 
+     * Prints results: extraction time, audit time (both in milliseconds), 
+     * peak heap usage, peak resident set size (both in bytes, -1 if not 
+     * available), number of garbage collections, their time and the 
+     * verdict of the audit (1 if it passed, 0 otherwise), followed by wall 
+     * times of recorded audit phases. 
+     * @param abbPath String path of the archive. 
+     * @param threads int number of worker threads. 
+     * @param inArchive true if tables should be parsed straight from the 
+     * archive. 
+     */
+    private static void run(String abbPath, int threads, boolean inArchive)
+    {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) { }
+            
+            @Override
+            public void write(byte[] b, int off, int len) { }
+        }));
+        
+        Auditor auditor = new Auditor();
+        auditor.setInArchiveExtraction(inArchive);
+        auditor.setThreads(threads);
+        long start = System.nanoTime();
+        auditor.extractABB(abbPath);
+        long extracted = System.nanoTime();
+        auditor.audit();
+        long audited = System.nanoTime();
+        auditor.close();
+        
+        long peakHeap = 0;
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if(pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null)
+                peakHeap += pool.getPeakUsage().getUsed();
+        }
+        long gcCount = 0;
+        long gcTime = 0;
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            gcCount += Math.max(gc.getCollectionCount(), 0);
+            gcTime += Math.max(gc.getCollectionTime(), 0);
+        }
+        
+        System.setOut(out);
+        System.out.println(RESULT_PREFIX+(extracted - start) / 1000000+" "
+                +(audited - extracted) / 1000000+" "+peakHeap+" "+peakRss()
+                +" "+gcCount+" "+gcTime+" "+(auditor.isPassed() ? 1 : 0));
+        for(AuditMetrics.Phase phase : auditor.getMetrics().getPhases())
+        {
+            if(phase.getUnits() > 0)
+                System.out.println(PHASE_PREFIX+phase.getName()+" "
+                        +phase.getWallNanos() / 1e6);
+        }
+    }
+    
+    /**
+     * Returns peak resident set size of this process. 
+     * @return long peak resident set size in bytes, -1 if it is not 
+     * available (only Linux is supported). 
+     */
+    private static long peakRss()
+    {
+        try {
+            for(String line : Files.readAllLines(Paths.get("/proc/self/status"), 
+                    StandardCharsets.US_ASCII))
+            {
+                // VmHWM:    123456 kB
+                if(line.startsWith("VmHWM:"))
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+            }
+        } catch (IOException | NumberFormatException ex) {
+            // not available on this platform
+        }
+        return -1;
+    }
+    
+    /**
+     * Returns JVM options of this JVM, passed to JVMs of runs. 
+     * @return list of String JVM options. 
+     */
+    private static List<String> jvmOptions()
+    {
+        List<String> options = new ArrayList<>();
+        for(String option : ManagementFactory.getRuntimeMXBean().getInputArguments())
+        {
+            // agents and debuggers of the benchmark are not passed to runs
+            if(!option.startsWith("-agentlib") && !option.startsWith("-javaagent")
+                    && !option.startsWith("-Xrunjdwp"))
+                options.add(option);
+        }
+        return options;
+    }
+    
+    /**
+     * Parses a list of numbers separated by commas. 
+     * @param value String list of numbers. 
+     * @return int numbers. 
+     */
+    private static int[] parseNumbers(String value)
+    {
+        String[] parts = value.split(",");
+        int[] numbers = new int[parts.length];
+        for(int i=0; i<parts.length; i++)
+            numbers[i] = Integer.parseInt(parts[i].trim());
+        return numbers;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test of detection of missing and duplicated tables by TableJoin. Tables 
+ * missing or duplicated in some of the types must be left out and reported 
+ * in ascending order of table numbers, whatever order and from whatever 
+ * threads the items were added. The test fails with an AssertionError. 
+ * @author Maciej Kosarzecki 
+ */
+public class TableJoinTest {
+
+    /**
+     * Names of joined types. 
+     */
+    private static final String[] TYPE_NAMES
+            = { "prepare A", "prepare B", "finalize" };
+
+    /**
+     * Table numbers expected to be joined. 
+     */
+    private static final int[] JOINED = { 1, 3, 6, 10 };
+
+    /**
+     * Warnings expected to be reported. 
+     */
+    private static final List<String> WARNINGS = Arrays.asList(
+            "Warning! Table: 2 is missing in finalize table files!",
+            "Warning! Table: 4 found in 2 prepare B table files, it is not audited!",
+            "Warning! Table: 5 is missing in prepare A table files!",
+            "Warning! Table: 5 found in 3 finalize table files, it is not audited!",
+            "Warning! Table: 7 is missing in prepare A table files!",
+            "Warning! Table: 7 is missing in prepare B table files!");
+
+    /**
+     * Runs the test. 
+     * @param args input parameters, not used. 
+     * @throws InterruptedException thrown when interrupted while waiting 
+     * for adding threads. 
+     */
+    public static void main(String args[]) throws InterruptedException
+    {
+        List<int[]> items = items();
+        Random random = new Random(1);
+        for(int i=0; i<20; i++)
+        {
+            Collections.shuffle(items, random);
+            check(join(items, 1), "items added in order: "+toString(items));
+            check(join(items, 4), "items added by 4 threads");
+        }
+        System.out.println("TableJoinTest passed");
+    }
+
+    /**
+     * Creates items of tables as {type, number} pairs. 
+     * @return List of items. 
+     */
+    private static List<int[]> items()
+    {
+        List<int[]> items = new ArrayList<>();
+        for(int number : JOINED)
+        {
+            for(int type=0; type<TYPE_NAMES.length; type++)
+                items.add(new int[] { type, number });
+        }
+        // table 2 is missing in finalize
+        items.add(new int[] { 0, 2 });
+        items.add(new int[] { 1, 2 });
+        // table 4 is duplicated in prepare B
+        items.add(new int[] { 0, 4 });
+        items.add(new int[] { 1, 4 });
+        items.add(new int[] { 1, 4 });
+        items.add(new int[] { 2, 4 });
+        // table 5 is missing in prepare A and duplicated in finalize
+        items.add(new int[] { 1, 5 });
+        items.add(new int[] { 2, 5 });
+        items.add(new int[] { 2, 5 });
+        items.add(new int[] { 2, 5 });
+        // table 7 is found only in finalize
+        items.add(new int[] { 2, 7 });
+        return items;
+    }
+
+    /**
+     * Joins items. 
+     * @param items List of items to be added. 
+     * @param threads int number of threads adding items. 
+     * @return Result of the join. 
+     * @throws InterruptedException thrown when interrupted while waiting 
+     * for adding threads. 
+     */
+    private static Result join(final List<int[]> items, final int threads)
+            throws InterruptedException
+    {
+        final Result result = new Result();
+        final TableJoin<String> join = new TableJoin<>(result.warnings, TYPE_NAMES);
+        Thread[] workers = new Thread[threads];
+        for(int t=0; t<threads; t++)
+        {
+            final int first = t;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for(int i=first; i<items.size(); i+=threads)
+                    {
+                        int[] item = items.get(i);
+                        join.add(item[0], item[1], item[1]+"/"+item[0]);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for(Thread worker : workers)
+            worker.join();
+        result.numbers = join.join();
+        for(int number : result.numbers)
+        {
+            for(int type=0; type<TYPE_NAMES.length; type++)
+            {
+                if(!(number+"/"+type).equals(join.get(number, type)))
+                    result.numbers = null;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks a result of a join. 
+     * @param result Result of the join. 
+     * @param description String description of the join. 
+     */
+    private static void check(Result result, String description)
+    {
+        if(!Arrays.equals(JOINED, result.numbers))
+            throw new AssertionError("wrong tables joined: "
+                    +Arrays.toString(result.numbers)+", "+description);
+        if(!WARNINGS.equals(result.warnings))
+            throw new AssertionError("wrong warnings: "+result.warnings
+                    +", "+description);
+    }
+
+    /**
+     * Returns String of items. 
+     * @param items List of items. 
+     * @return String of {type, number} pairs. 
+     */
+    private static String toString(List<int[]> items)
+    {
+        StringBuilder builder = new StringBuilder();
+        for(int[] item : items)
+            builder.append(Arrays.toString(item));
+        return builder.toString();
+    }
+
+    /**
+     * Table numbers joined and warnings reported by a join. 
+     */
+    private static class Result
+    {
+        private final List<String> warnings = new ArrayList<>();
+        private int[] numbers;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2014 Maciej Kosarzecki
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package lib;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Test of TableRowTokenizer against the regular expression row matcher it 
+ * replaced. Both must accept the same rows, return the same fields and 
+ * split data cells into the same initial vector and ciphertext. Rows 
+ * cover malformed base64, extra and missing separators, trailing 
+ * whitespace and empty cells, followed by random rows of a fixed seed. 
+ * The test fails with an AssertionError. 
+ * @author Maciej Kosarzecki 
+ */
+public class TableRowTokenizerTest {
+
+    /**
+     * Pattern of table rows used before TableRowTokenizer. 
+     */
+    private static final Pattern DATA_ROW_PATTERN
+            = Pattern.compile("([ \\w\\+\\=/]*,){23}[ \\w\\+\\=/]*");
+
+    /**
+     * Characters random fields are made of. 
+     */
+    private static final String ALPHABET = "AZaz09+/=_  -\t.,";
+
+    /**
+     * Runs the test. 
+     * @param args input parameters, not used. 
+     */
+    public static void main(String args[])
+    {
+        List<String> rows = new ArrayList<>();
+        String cell = "q83vEjRWeJA=  UmFuZG9tQ2lwaGVy";
+
+        rows.add(row(cell, "", ""));
+        rows.add(row("", "", ""));
+        rows.add(row("12", "", ""));
+        rows.add(row(cell, "plain", "decommitment"));
+        rows.add(row("q83vEjRWeJA=  UmFuZG9t  Q2lwaGVy", "", ""));
+        rows.add(row("q83vEjRWeJA=   UmFuZG9t", "", ""));
+        rows.add(row("q83vEjRWeJA=    UmFuZG9t", "", ""));
+        rows.add(row("  UmFuZG9tQ2lwaGVy", "", ""));
+        rows.add(row("q83vEjRWeJA=  ", "", ""));
+        rows.add(row("q83vEjRWeJA=", "", ""));
+        rows.add(row("    ", "", ""));
+        rows.add(row("q83v-EjRWeJA=  UmFuZG9t", "", ""));
+        rows.add(row("q83v.EjRWeJA=  UmFuZG9t", "", ""));
+        rows.add(row("q83v\tEjRWeJA=  UmFuZG9t", "", ""));
+        rows.add(row("q83vEjRWeJA=  UmFu\u00e9G9t", "", ""));
+        rows.add(row(cell, "", "") + ",");
+        rows.add(row(cell, "", "") + ",,");
+        rows.add("," + row(cell, "", ""));
+        rows.add(row(cell, "", "").substring(1 + row(cell, "", "").indexOf(',')));
+        rows.add(row(cell, "", "") + " ");
+        rows.add(row(cell, "", "") + "  ");
+        rows.add(row(cell, "", "") + "\t");
+        rows.add(row(cell, "", "") + "\r");
+        rows.add(" " + row(cell, "", ""));
+        rows.add("");
+        rows.add(",,,,,,,,,,,,,,,,,,,,,,,");
+        rows.add(",,,,,,,,,,,,,,,,,,,,,,,,");
+        rows.add(",,,,,,,,,,,,,,,,,,,,,,");
+
+        Random random = new Random(1);
+        for(int i=0; i<20000; i++)
+            rows.add(randomRow(random));
+
+        TableRowTokenizer tokenizer = new TableRowTokenizer();
+        int accepted = 0;
+        for(String row : rows)
+        {
+            if(compare(tokenizer, row))
+                accepted++;
+        }
+        check(accepted > 0 && accepted < rows.size(),
+                "rows are all accepted or all rejected", "");
+        System.out.println("TableRowTokenizerTest passed, "+accepted+" of "
+                +rows.size()+" rows accepted");
+    }
+
+    /**
+     * Compares the tokenizer with the regular expression matcher on a row. 
+     * @param tokenizer TableRowTokenizer to be tested. 
+     * @param row String row of a table. 
+     * @return true if the row was accepted. 
+     */
+    private static boolean compare(TableRowTokenizer tokenizer, String row)
+    {
+        // row is placed inside a larger buffer to check offsets
+        byte[] bytes = row.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] buffer = new byte[bytes.length + 6];
+        buffer[0] = 'A';
+        buffer[1] = ',';
+        buffer[2] = '\n';
+        System.arraycopy(bytes, 0, buffer, 3, bytes.length);
+        buffer[buffer.length-3] = '\n';
+        buffer[buffer.length-2] = ',';
+        buffer[buffer.length-1] = 'B';
+
+        boolean matches = DATA_ROW_PATTERN.matcher(row).matches();
+        boolean tokenized = tokenizer.tokenize(buffer, 3, bytes.length);
+        check(matches == tokenized, "row "+(matches ? "rejected" : "accepted"), row);
+        if(!matches)
+            return false;
+
+        String[] fields = row.split(",",-1);
+        check(fields.length == TableRowTokenizer.FIELDS_NUMBER,
+                "wrong number of fields", row);
+        for(int j=0; j<fields.length; j++)
+        {
+            check(fields[j].equals(tokenizer.getField(j)),
+                    "field: "+(j+1)+" differs", row);
+            check(fields[j].isEmpty() == tokenizer.isEmpty(j),
+                    "emptiness of field: "+(j+1)+" differs", row);
+            if(j%Lib.COL_CELLS_NUMBER == 0 && !fields[j].isEmpty())
+                compareDataCell(tokenizer, j, fields[j], row);
+        }
+        return true;
+    }
+
+    /**
+     * Compares initial vector and ciphertext of a data cell with the parts 
+     * returned by String.split(). A cell String.split() cannot split must 
+     * be refused by the tokenizer. 
+     * @param tokenizer TableRowTokenizer with the row tokenized. 
+     * @param field int field index. 
+     * @param value String value of the field. 
+     * @param row String row of a table. 
+     */
+    private static void compareDataCell(TableRowTokenizer tokenizer, int field,
+            String value, String row)
+    {
+        String[] data = value.split(Lib.IV_CIPHERTEXT_DELIMITING_STRING);
+        String initialVector = null;
+        String ciphertext = null;
+        try {
+            initialVector = tokenizer.getInitialVector(field);
+            ciphertext = tokenizer.getCiphertext(field);
+        } catch (IllegalArgumentException ex) {
+            check(data.length < 2, "data cell in field: "+(field+1)
+                    +" refused", row);
+            return;
+        }
+        check(data.length >= 2, "data cell in field: "+(field+1)
+                +" accepted", row);
+        check(data[0].equals(initialVector), "initial vector in field: "
+                +(field+1)+" differs", row);
+        check(data[1].equals(ciphertext), "ciphertext in field: "
+                +(field+1)+" differs", row);
+    }
+
+    /**
+     * Creates a row of table with the same cells in every column. 
+     * @param data String data cell. 
+     * @param plaintext String plaintext cell. 
+     * @param decommitment String decommitment cell. 
+     * @return String row. 
+     */
+    private static String row(String data, String plaintext, String decommitment)
+    {
+        StringBuilder row = new StringBuilder();
+        for(int i=0; i<Lib.COL_NUMBER; i++)
+        {
+            if(i > 0)
+                row.append(',');
+            row.append(data).append(',').append(plaintext).append(',')
+                    .append(decommitment);
+        }
+        return row.toString();
+    }
+
+    /**
+     * Creates a random row of about the right number of fields. 
+     * @param random Random source. 
+     * @return String row. 
+     */
+    private static String randomRow(Random random)
+    {
+        StringBuilder row = new StringBuilder();
+        int fields = TableRowTokenizer.FIELDS_NUMBER - 1 + random.nextInt(3);
+        for(int i=0; i<fields; i++)
+        {
+            if(i > 0)
+                row.append(',');
+            int length = random.nextInt(8);
+            for(int j=0; j<length; j++)
+            {
+                // mostly valid characters, separators and delimiters
+                int limit = random.nextInt(20) == 0 ? ALPHABET.length() : 12;
+                row.append(ALPHABET.charAt(random.nextInt(limit)));
+            }
+        }
+        return row.toString();
+    }
+
+    /**
+     * Checks a condition of the test. 
+     * @param condition boolean condition expected to be true. 
+     * @param message String description of the failure. 
+     * @param row String row the condition was checked on. 
+     */
+    private static void check(boolean condition, String message, String row)
+    {
+        if(!condition)
+            throw new AssertionError(message+"\n["+row+"]");
+    }
+}